@@ -0,0 +1,407 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.scijava.Cancelable;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.util.cli.TrackMateSettingsBuilder;
+import ij.ImagePlus;
+
+/**
+ * Tracks many movies with Trackastra, headless, through a shared job queue.
+ * <p>
+ * At most a specified number of Trackastra processes run at once. Jobs
+ * export their masks and source image without waiting for a slot, so that
+ * the export of the next job overlaps with the inference of the running
+ * ones. A batch of movies then takes about the time of its slowest stage
+ * instead of the sum of all stages. Results are passed to a consumer as soon
+ * as each job completes.
+ * <p>
+ * Jobs configured to use the persistent worker share the worker of their
+ * configuration, and their inference runs one at a time on it, whatever the
+ * number of slots.
+ */
+public class TrackastraBatch implements Cancelable
+{
+
+	/**
+	 * A movie to track.
+	 */
+	public static class Job
+	{
+
+		private final String name;
+
+		private final SpotCollection spots;
+
+		private final ImagePlus imp;
+
+		private final TrackastraCLI cli;
+
+		/**
+		 * Creates a job.
+		 *
+		 * @param name
+		 *            the name of the job, used in the log.
+		 * @param spots
+		 *            the spots to track.
+		 * @param imp
+		 *            the source image.
+		 * @param cli
+		 *            the Trackastra settings.
+		 */
+		public Job( final String name, final SpotCollection spots, final ImagePlus imp, final TrackastraCLI cli )
+		{
+			this.name = name;
+			this.spots = spots;
+			this.imp = imp;
+			this.cli = cli;
+		}
+
+		/**
+		 * Creates a job from a TrackMate file. The spots and the image are
+		 * read from the file.
+		 *
+		 * @param file
+		 *            the TrackMate file.
+		 * @param cli
+		 *            the Trackastra settings. If <code>null</code>, the tracker
+		 *            settings saved in the file are used.
+		 * @return a new job.
+		 * @throws IOException
+		 *             if the file or the image it points to cannot be read.
+		 */
+		public static Job fromXml( final File file, final TrackastraCLI cli ) throws IOException
+		{
+			final TmXmlReader reader = new TmXmlReader( file );
+			if ( !reader.isReadingOk() )
+				throw new IOException( "Could not read " + file + ": " + reader.getErrorMessage() );
+			final ImagePlus imp = reader.readImage();
+			if ( imp == null )
+				throw new IOException( "Could not open the image of " + file + ": " + reader.getErrorMessage() );
+			final SpotCollection spots = reader.getModel().getSpots();
+
+			TrackastraCLI settings = cli;
+			if ( settings == null )
+			{
+				settings = new TrackastraCLI( imp.getNChannels() );
+				final Settings s = reader.readSettings( imp );
+				if ( s != null && s.trackerSettings != null )
+					TrackMateSettingsBuilder.fromTrackMateSettings( s.trackerSettings, settings );
+			}
+			return new Job( file.getName(), spots, imp, settings );
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public SpotCollection getSpots()
+		{
+			return spots;
+		}
+
+		public ImagePlus getImp()
+		{
+			return imp;
+		}
+
+		public TrackastraCLI getCli()
+		{
+			return cli;
+		}
+	}
+
+	/**
+	 * The result of a job.
+	 */
+	public static class Result
+	{
+
+		private final Job job;
+
+		private final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
+
+		private final String errorMessage;
+
+		private final TrackastraRunReport report;
+
+		private final long processingTime;
+
+		private Result( final Job job, final TrackastraTracker tracker, final boolean ok )
+		{
+			this.job = job;
+			this.graph = ok ? tracker.getResult() : null;
+			this.errorMessage = ok ? null : tracker.getErrorMessage();
+			this.report = tracker.getRunReport();
+			this.processingTime = tracker.getProcessingTime();
+		}
+
+		private Result( final Job job, final String errorMessage )
+		{
+			this.job = job;
+			this.graph = null;
+			this.errorMessage = errorMessage;
+			this.report = new TrackastraRunReport();
+			this.processingTime = 0;
+		}
+
+		public Job getJob()
+		{
+			return job;
+		}
+
+		/**
+		 * Returns whether the job succeeded.
+		 *
+		 * @return <code>true</code> if the movie was tracked.
+		 */
+		public boolean isOk()
+		{
+			return graph != null;
+		}
+
+		/**
+		 * Returns the tracks found.
+		 *
+		 * @return the graph, or <code>null</code> if the job failed.
+		 */
+		public SimpleWeightedGraph< Spot, DefaultWeightedEdge > getGraph()
+		{
+			return graph;
+		}
+
+		/**
+		 * Returns why the job failed.
+		 *
+		 * @return the error message, or <code>null</code> if the job
+		 *         succeeded.
+		 */
+		public String getErrorMessage()
+		{
+			return errorMessage;
+		}
+
+		public TrackastraRunReport getRunReport()
+		{
+			return report;
+		}
+
+		public long getProcessingTime()
+		{
+			return processingTime;
+		}
+	}
+
+	private final int nSlots;
+
+	private final int exportAhead;
+
+	private final int numThreads;
+
+	private final Logger logger;
+
+	private final Set< TrackastraTracker > running = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean isCanceled;
+
+	private String cancelReason;
+
+	/**
+	 * Creates a batch runner.
+	 *
+	 * @param nSlots
+	 *            the maximal number of Trackastra processes running at once.
+	 * @param exportAhead
+	 *            the number of jobs that can export their data while all the
+	 *            slots are busy.
+	 * @param numThreads
+	 *            the number of threads shared by the jobs to export their
+	 *            data.
+	 * @param logger
+	 *            the logger to report to. The messages of each job are
+	 *            prefixed by its name.
+	 */
+	public TrackastraBatch( final int nSlots, final int exportAhead, final int numThreads, final Logger logger )
+	{
+		this.nSlots = Math.max( 1, nSlots );
+		this.exportAhead = Math.max( 0, exportAhead );
+		this.numThreads = Math.max( 1, numThreads );
+		this.logger = logger;
+	}
+
+	/**
+	 * Tracks the specified jobs.
+	 *
+	 * @param jobs
+	 *            the jobs to run.
+	 * @param onResult
+	 *            receives the result of each job as soon as it completes, on
+	 *            the calling thread. Can be <code>null</code>.
+	 * @return the results, in the order of the jobs.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting. The
+	 *             running jobs are canceled.
+	 */
+	public List< Result > run( final List< Job > jobs, final Consumer< Result > onResult ) throws InterruptedException
+	{
+		isCanceled = false;
+		cancelReason = null;
+		final int nParallel = Math.max( 1, Math.min( nSlots + exportAhead, jobs.size() ) );
+		final int nThreadsPerJob = Math.max( 1, numThreads / nParallel );
+		final Semaphore slots = new Semaphore( nSlots, true );
+		logger.log( "Tracking " + jobs.size() + " movies with " + nSlots + " Trackastra slots, "
+				+ nParallel + " jobs at once.\n" );
+
+		final ExecutorService executor = Executors.newFixedThreadPool( nParallel );
+		final CompletionService< Integer > completion = new ExecutorCompletionService<>( executor );
+		final Result[] results = new Result[ jobs.size() ];
+		final Map< Future< Integer >, Integer > indices = new HashMap<>();
+		try
+		{
+			for ( int i = 0; i < jobs.size(); i++ )
+			{
+				final int index = i;
+				final Future< Integer > future = completion.submit( () -> {
+					results[ index ] = track( jobs.get( index ), slots, nThreadsPerJob );
+					return index;
+				} );
+				indices.put( future, index );
+			}
+
+			for ( int i = 0; i < jobs.size(); i++ )
+			{
+				final Future< Integer > future = completion.take();
+				int index;
+				try
+				{
+					index = future.get();
+				}
+				catch ( final ExecutionException e )
+				{
+					index = indices.get( future );
+					results[ index ] = new Result( jobs.get( index ), TrackastraTracker.BASE_ERROR_MESSAGE
+							+ e.getCause().getClass().getSimpleName() + ": " + e.getCause().getMessage() );
+				}
+				logger.setProgress( ( double ) ( i + 1 ) / jobs.size() );
+				if ( onResult != null )
+					onResult.accept( results[ index ] );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			cancel( "Interrupted." );
+			throw e;
+		}
+		finally
+		{
+			executor.shutdownNow();
+			logger.setStatus( "" );
+		}
+		return Arrays.asList( results );
+	}
+
+	/**
+	 * Creates the tracker that runs the specified job.
+	 *
+	 * @param job
+	 *            the job.
+	 * @return a new tracker.
+	 */
+	protected TrackastraTracker createTracker( final Job job )
+	{
+		return new TrackastraTracker( job.cli, job.spots, job.imp );
+	}
+
+	private Result track( final Job job, final Semaphore slots, final int nThreads )
+	{
+		final TrackastraTracker tracker = createTracker( job );
+		tracker.setNumThreads( nThreads );
+		tracker.setLogger( TrackastraTracker.partLogger( logger, job.name ) );
+		tracker.setRunSlots( slots );
+		running.add( tracker );
+		try
+		{
+			if ( isCanceled() )
+				tracker.cancel( cancelReason );
+			final boolean ok = tracker.checkInput() && tracker.process();
+			final Result result = new Result( job, tracker, ok );
+			logger.log( job.name + ( ok
+					? ": " + result.getGraph().edgeSet().size() + " links in " + result.getProcessingTime() + " ms.\n"
+					: ": failed. " + result.getErrorMessage() + "\n" ) );
+			return result;
+		}
+		finally
+		{
+			running.remove( tracker );
+		}
+	}
+
+	@Override
+	public boolean isCanceled()
+	{
+		return isCanceled;
+	}
+
+	/**
+	 * Cancels the batch. The running jobs are canceled, and the jobs not
+	 * started yet fail immediately.
+	 */
+	@Override
+	public void cancel( final String reason )
+	{
+		cancelReason = reason;
+		isCanceled = true;
+		running.forEach( tracker -> tracker.cancel( reason ) );
+	}
+
+	@Override
+	public String getCancelReason()
+	{
+		return cancelReason;
+	}
+}
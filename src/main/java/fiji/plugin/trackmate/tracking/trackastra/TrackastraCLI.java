@@ -22,8 +22,13 @@
 package fiji.plugin.trackmate.tracking.trackastra;
 
 
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
 import fiji.plugin.trackmate.util.cli.CommonTrackMateArguments;
 import fiji.plugin.trackmate.util.cli.CondaCLIConfigurator;
+import fiji.plugin.trackmate.util.cli.TrackMateSettingsBuilder;
 
 public class TrackastraCLI extends CondaCLIConfigurator
 {
@@ -42,12 +47,110 @@ public class TrackastraCLI extends CondaCLIConfigurator
 
 	public static final String KEY_TRACKASTRA_TRACKING_MODE = "TRACKING_MODE";
 
-	public static final String DEFAULT_TRACKASTRA_TRACKING_MODE = "greedy";
+	public static final String MODE_GREEDY_NODIV = "greedy_nodiv";
+
+	public static final String MODE_GREEDY = "greedy";
+
+	public static final String MODE_ILP = "ilp";
+
+	public static final String DEFAULT_TRACKASTRA_TRACKING_MODE = MODE_GREEDY;
+
+	public static final String KEY_LINK_THRESHOLD = "LINK_THRESHOLD";
+
+	public static final double DEFAULT_LINK_THRESHOLD = 0.5;
 
 	public static final String KEY_TRACKASTRA_PRETRAINED_OR_CUSTOM = "PRETRAINED_OR_CUSTOM";
 
 	public static final String DEFAULT_TRACKASTRA_PRETRAINED_OR_CUSTOM = KEY_TRACKASTRA_MODEL;
 
+	public static final String KEY_EXCHANGE_FORMAT = "EXCHANGE_FORMAT";
+
+	public static final String EXCHANGE_FORMAT_TIFF = "tiff";
+
+	public static final String EXCHANGE_FORMAT_NPY = "npy";
+
+	public static final String DEFAULT_EXCHANGE_FORMAT = EXCHANGE_FORMAT_TIFF;
+
+	public static final String KEY_USE_WORKER = "USE_PERSISTENT_WORKER";
+
+	public static final boolean DEFAULT_USE_WORKER = false;
+
+	public static final String KEY_WORKER_IDLE_TIMEOUT = "WORKER_IDLE_TIMEOUT";
+
+	public static final int DEFAULT_WORKER_IDLE_TIMEOUT = 600;
+
+	public static final String KEY_KEEP_CANDIDATES = "KEEP_CANDIDATE_GRAPH";
+
+	public static final boolean DEFAULT_KEEP_CANDIDATES = false;
+
+	public static final String KEY_SCRATCH_FOLDER = "SCRATCH_FOLDER";
+
+	public static final String DEFAULT_SCRATCH_FOLDER = System.getProperty( "java.io.tmpdir" );
+
+	public static final String KEY_KEEP_TEMP_FILES = "KEEP_TEMP_FILES";
+
+	public static final boolean DEFAULT_KEEP_TEMP_FILES = false;
+
+	public static final String KEY_RUN_REPORT_FOLDER = "RUN_REPORT_FOLDER";
+
+	public static final String DEFAULT_RUN_REPORT_FOLDER = "";
+
+	public static final String KEY_TIMEOUT = "TIMEOUT";
+
+	public static final int DEFAULT_TIMEOUT = 0;
+
+	public static final String KEY_IDLE_TIMEOUT = "IDLE_TIMEOUT";
+
+	public static final int DEFAULT_IDLE_TIMEOUT = 0;
+
+	public static final String KEY_USE_CACHE = "USE_CACHE";
+
+	public static final boolean DEFAULT_USE_CACHE = false;
+
+	public static final String KEY_CACHE_FOLDER = "CACHE_FOLDER";
+
+	public static final String DEFAULT_CACHE_FOLDER = Paths.get( System.getProperty( "user.home" ), ".trackmate", "trackastra-cache" ).toString();
+
+	public static final String KEY_CACHE_MAX_SIZE = "CACHE_MAX_SIZE";
+
+	public static final int DEFAULT_CACHE_MAX_SIZE = 1024;
+
+	public static final String KEY_CHUNK_SIZE = "CHUNK_SIZE";
+
+	public static final int DEFAULT_CHUNK_SIZE = 0;
+
+	public static final String KEY_CHUNK_OVERLAP = "CHUNK_OVERLAP";
+
+	public static final int DEFAULT_CHUNK_OVERLAP = 4;
+
+	public static final String KEY_TILE_SIZE = "TILE_SIZE";
+
+	public static final int DEFAULT_TILE_SIZE = 0;
+
+	public static final String KEY_TILE_OVERLAP = "TILE_OVERLAP";
+
+	public static final int DEFAULT_TILE_OVERLAP = 64;
+
+	public static final String KEY_PARALLEL_CHUNKS = "PARALLEL_CHUNKS";
+
+	public static final int DEFAULT_PARALLEL_CHUNKS = 1;
+
+	public static final String KEY_INCREMENTAL = "INCREMENTAL";
+
+	public static final boolean DEFAULT_INCREMENTAL = false;
+
+	public static final String KEY_REUSE_SOURCE_FILES = "REUSE_SOURCE_FILES";
+
+	public static final boolean DEFAULT_REUSE_SOURCE_FILES = true;
+
+	public static final String KEY_PREFETCH_PLANES = "PREFETCH_PLANES";
+
+	public static final int DEFAULT_PREFETCH_PLANES = 2;
+
+	public static final String KEY_COMPRESS_MASKS = "COMPRESS_MASKS";
+
+	public static final boolean DEFAULT_COMPRESS_MASKS = false;
+
 	private final ChoiceArgument modelPretrained;
 
 	private final PathArgument customModelPath;
@@ -58,6 +161,8 @@ public class TrackastraCLI extends CondaCLIConfigurator
 
 	private final ChoiceArgument useDevice;
 
+	private final DoubleArgument linkThreshold;
+
 	private final PathArgument imageFolder;
 
 	private final PathArgument maskFolder;
@@ -66,6 +171,52 @@ public class TrackastraCLI extends CondaCLIConfigurator
 
 	private final IntArgument imageChannel;
 
+	private final ChoiceArgument exchangeFormat;
+
+	private final PathArgument imageArrayFile;
+
+	private final PathArgument maskArrayFile;
+
+	private final Flag useWorker;
+
+	private final IntArgument workerIdleTimeout;
+
+	private final Flag keepCandidates;
+
+	private final PathArgument scratchFolder;
+
+	private final Flag keepTempFiles;
+
+	private final PathArgument runReportFolder;
+
+	private final IntArgument timeout;
+
+	private final IntArgument idleTimeout;
+
+	private final Flag useCache;
+
+	private final PathArgument cacheFolder;
+
+	private final IntArgument cacheMaxSize;
+
+	private final IntArgument chunkSize;
+
+	private final IntArgument chunkOverlap;
+
+	private final IntArgument tileSize;
+
+	private final IntArgument tileOverlap;
+
+	private final IntArgument parallelChunks;
+
+	private final Flag incremental;
+
+	private final Flag reuseSourceFiles;
+
+	private final IntArgument prefetchPlanes;
+
+	private final Flag compressMasks;
+
 	public TrackastraCLI( final int nChannels )
 	{
 		this.modelPretrained = addChoiceArgument()
@@ -97,13 +248,24 @@ public class TrackastraCLI extends CondaCLIConfigurator
 				.help( "Mode for candidate graph pruning. For installing the ilp tracker, see " +
 						" https://github.com/weigertlab/trackastra#installation." )
 				.argument( "--mode" )
-				.addChoice( "greedy_nodiv" )
-				.addChoice( "greedy" )
-				.addChoice( "ilp" )
+				.addChoice( MODE_GREEDY_NODIV )
+				.addChoice( MODE_GREEDY )
+				.addChoice( MODE_ILP )
 				.defaultValue( 1 )
 				.key( KEY_TRACKASTRA_TRACKING_MODE )
 				.get();
 
+		this.linkThreshold = addDoubleArgument()
+				.name( "Link threshold" )
+				.help( "Minimal association score of a link accepted by the greedy modes, when the "
+						+ "candidate graph of a previous run is pruned again in Java." )
+				.defaultValue( DEFAULT_LINK_THRESHOLD )
+				.min( 0. )
+				.max( 1. )
+				.key( KEY_LINK_THRESHOLD )
+				.inCLI( false )
+				.get();
+
 		this.useDevice = addChoiceArgument()
 				.name( "Use GPU" )
 				.help( "Device to use. If not set, tries to use cuda/mps if available, otherwise "
@@ -142,6 +304,262 @@ public class TrackastraCLI extends CondaCLIConfigurator
 				.get();
 
 		this.imageChannel = CommonTrackMateArguments.addTargetChannel( this, nChannels );
+
+		this.exchangeFormat = addChoiceArgument()
+				.name( "Exchange format" )
+				.help( "How the image and the masks are passed to Trackastra. With 'tiff', one TIFF "
+						+ "file per frame is written in the image and mask folders. With 'npy', the image "
+						+ "and the masks are each written in a single memory-mapped .npy array, passed "
+						+ "with --imgs-npy and --masks-npy. This requires a Trackastra installation "
+						+ "that accepts these arguments." )
+				.addChoice( EXCHANGE_FORMAT_TIFF )
+				.addChoice( EXCHANGE_FORMAT_NPY )
+				.defaultValue( DEFAULT_EXCHANGE_FORMAT )
+				.key( KEY_EXCHANGE_FORMAT )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.imageArrayFile = addPathArgument()
+				.name( "Input image array path" )
+				.help( "Single .npy file with the input image, of shape (T, [Z,] Y, X)." )
+				.argument( "--imgs-npy" )
+				.visible( false )
+				.required( false )
+				.get();
+
+		this.maskArrayFile = addPathArgument()
+				.name( "Input mask array path" )
+				.help( "Single .npy file with the masks, of shape (T, [Z,] Y, X)." )
+				.argument( "--masks-npy" )
+				.visible( false )
+				.required( false )
+				.get();
+
+		this.useWorker = addFlag()
+				.name( "Use a persistent worker" )
+				.help( "If true, Trackastra runs in a long-lived worker process, started once per session "
+						+ "for a given conda environment, model and device. This avoids paying for the "
+						+ "Python and model start-up on each run." )
+				.defaultValue( DEFAULT_USE_WORKER )
+				.key( KEY_USE_WORKER )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.workerIdleTimeout = addIntArgument()
+				.name( "Worker idle timeout" )
+				.help( "Time, in seconds, after which an unused persistent worker is shut down." )
+				.defaultValue( DEFAULT_WORKER_IDLE_TIMEOUT )
+				.min( 1 )
+				.key( KEY_WORKER_IDLE_TIMEOUT )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.keepCandidates = addFlag()
+				.name( "Keep the candidate graph" )
+				.help( "If true, the persistent worker also returns the candidate graph predicted by "
+						+ "the model, so that changing only the greedy tracking mode or the link "
+						+ "threshold re-prunes it in Java without running Trackastra again. This relies "
+						+ "on a private Trackastra API, only used with supported Trackastra versions." )
+				.defaultValue( DEFAULT_KEEP_CANDIDATES )
+				.key( KEY_KEEP_CANDIDATES )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.scratchFolder = addPathArgument()
+				.name( "Scratch folder" )
+				.help( "Folder in which the masks and the input image are saved for Trackastra. "
+						+ "A RAM-backed or fast local disk, such as /dev/shm, removes most of the "
+						+ "export latency." )
+				.defaultValue( DEFAULT_SCRATCH_FOLDER )
+				.key( KEY_SCRATCH_FOLDER )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.keepTempFiles = addFlag()
+				.name( "Keep temp files" )
+				.help( "If true, the masks, the input image and the Trackastra output are not deleted "
+						+ "after import, for debugging." )
+				.defaultValue( DEFAULT_KEEP_TEMP_FILES )
+				.key( KEY_KEEP_TEMP_FILES )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.runReportFolder = addPathArgument()
+				.name( "Run report folder" )
+				.help( "Folder where the timings and counters of each run are written, as a JSON file "
+						+ "named after the image and the time of the run. If not set, the report is only "
+						+ "written with the temp files, when they are kept." )
+				.defaultValue( DEFAULT_RUN_REPORT_FOLDER )
+				.key( KEY_RUN_REPORT_FOLDER )
+				.visible( false )
+				.inCLI( false )
+				.required( false )
+				.get();
+
+		this.timeout = addIntArgument()
+				.name( "Timeout" )
+				.help( "Maximal duration of a Trackastra run, in seconds. The run is killed past "
+						+ "this duration. 0 means no limit." )
+				.defaultValue( DEFAULT_TIMEOUT )
+				.min( 0 )
+				.units( "s" )
+				.key( KEY_TIMEOUT )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.idleTimeout = addIntArgument()
+				.name( "Idle timeout" )
+				.help( "Maximal time without any output from Trackastra, in seconds. The run is "
+						+ "killed past this time. 0 means no limit." )
+				.defaultValue( DEFAULT_IDLE_TIMEOUT )
+				.min( 0 )
+				.units( "s" )
+				.key( KEY_IDLE_TIMEOUT )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.useCache = addFlag()
+				.name( "Use the result cache" )
+				.help( "If true, the edge tables returned by Trackastra are cached on disk, keyed by "
+						+ "the masks, the image and the arguments of the run. Running again on the same "
+						+ "input returns the cached edges without starting Trackastra." )
+				.defaultValue( DEFAULT_USE_CACHE )
+				.key( KEY_USE_CACHE )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.cacheFolder = addPathArgument()
+				.name( "Cache folder" )
+				.help( "Folder where cached edge tables are stored." )
+				.defaultValue( DEFAULT_CACHE_FOLDER )
+				.key( KEY_CACHE_FOLDER )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.cacheMaxSize = addIntArgument()
+				.name( "Cache max size" )
+				.help( "Maximal size of the cache, in MB. The least recently used entries are "
+						+ "evicted beyond this size." )
+				.defaultValue( DEFAULT_CACHE_MAX_SIZE )
+				.min( 1 )
+				.units( "MB" )
+				.key( KEY_CACHE_MAX_SIZE )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.chunkSize = addIntArgument()
+				.name( "Chunk size" )
+				.help( "If larger than 0, movies longer than this number of frames are split in "
+						+ "overlapping time windows of this size, tracked separately and stitched." )
+				.defaultValue( DEFAULT_CHUNK_SIZE )
+				.min( 0 )
+				.units( "frames" )
+				.key( KEY_CHUNK_SIZE )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.chunkOverlap = addIntArgument()
+				.name( "Chunk overlap" )
+				.help( "Number of frames shared by consecutive time windows. Links are reconciled "
+						+ "in the middle of the overlap." )
+				.defaultValue( DEFAULT_CHUNK_OVERLAP )
+				.min( 1 )
+				.units( "frames" )
+				.key( KEY_CHUNK_OVERLAP )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.tileSize = addIntArgument()
+				.name( "Tile size" )
+				.help( "If larger than 0, images wider or higher than this number of pixels are split "
+						+ "in overlapping square tiles of this size, tracked separately and stitched." )
+				.defaultValue( DEFAULT_TILE_SIZE )
+				.min( 0 )
+				.units( "pixels" )
+				.key( KEY_TILE_SIZE )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.tileOverlap = addIntArgument()
+				.name( "Tile overlap" )
+				.help( "Number of pixels each tile extends over its neighbours, so that objects "
+						+ "crossing a tile border are seen whole." )
+				.defaultValue( DEFAULT_TILE_OVERLAP )
+				.min( 0 )
+				.units( "pixels" )
+				.key( KEY_TILE_OVERLAP )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.parallelChunks = addIntArgument()
+				.name( "Parallel chunks" )
+				.help( "Number of time windows or tiles tracked at the same time, each by its own "
+						+ "Trackastra process." )
+				.defaultValue( DEFAULT_PARALLEL_CHUNKS )
+				.min( 1 )
+				.key( KEY_PARALLEL_CHUNKS )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.incremental = addFlag()
+				.name( "Incremental re-tracking" )
+				.help( "If true, running again on the same image after editing spots only re-tracks "
+						+ "a window around the edited frames, and keeps the other links of the last run." )
+				.defaultValue( DEFAULT_INCREMENTAL )
+				.key( KEY_INCREMENTAL )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.reuseSourceFiles = addFlag()
+				.name( "Reuse source files" )
+				.help( "If true and the source image was opened from TIFF files with one frame per file, "
+						+ "Trackastra reads these files, or links to them, instead of an exported copy "
+						+ "of the image. Only used with the 'tiff' exchange format." )
+				.defaultValue( DEFAULT_REUSE_SOURCE_FILES )
+				.key( KEY_REUSE_SOURCE_FILES )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.prefetchPlanes = addIntArgument()
+				.name( "Prefetch planes" )
+				.help( "When the source image is virtual, number of planes read ahead on a background "
+						+ "thread while the current one is exported. If 0, planes are only read when "
+						+ "they are exported." )
+				.defaultValue( DEFAULT_PREFETCH_PLANES )
+				.min( 0 )
+				.key( KEY_PREFETCH_PLANES )
+				.visible( false )
+				.inCLI( false )
+				.get();
+
+		this.compressMasks = addFlag()
+				.name( "Compress masks" )
+				.help( "If true, the mask TIFF files are compressed with deflate. This is lossless, "
+						+ "and writes much fewer bytes, at the cost of some CPU time. Only used with "
+						+ "the 'tiff' exchange format." )
+				.defaultValue( DEFAULT_COMPRESS_MASKS )
+				.key( KEY_COMPRESS_MASKS )
+				.visible( false )
+				.inCLI( false )
+				.get();
 	}
 
 	@Override
@@ -185,6 +603,18 @@ public class TrackastraCLI extends CondaCLIConfigurator
 		return useDevice;
 	}
 
+	/**
+	 * Exposes the argument that configures the minimal association score of
+	 * the links accepted when a candidate graph is pruned in Java with a
+	 * greedy mode. This extra element is not used in the CLI.
+	 *
+	 * @return the link threshold argument.
+	 */
+	public DoubleArgument linkThreshold()
+	{
+		return linkThreshold;
+	}
+
 	/**
 	 * Exposes the argument that configures in what channel of the source image
 	 * are the objects we want to track. The channel value is 1-based.
@@ -204,4 +634,259 @@ public class TrackastraCLI extends CondaCLIConfigurator
 	{
 		return selectPretrainedOrCustom;
 	}
+
+	/**
+	 * Exposes the argument that configures how the image and the masks are
+	 * passed to Trackastra, either as folders of TIFF files or as single
+	 * <code>.npy</code> arrays. This extra element is not used in the CLI.
+	 *
+	 * @return the exchange format argument.
+	 */
+	public ChoiceArgument exchangeFormat()
+	{
+		return exchangeFormat;
+	}
+
+	public PathArgument imageArrayFile()
+	{
+		return imageArrayFile;
+	}
+
+	public PathArgument maskArrayFile()
+	{
+		return maskArrayFile;
+	}
+
+	/**
+	 * Exposes the flag that configures whether Trackastra runs in a
+	 * persistent worker process. This extra element is not used in the CLI.
+	 *
+	 * @return the use worker flag.
+	 */
+	public Flag useWorker()
+	{
+		return useWorker;
+	}
+
+	/**
+	 * Exposes the argument that configures the idle time, in seconds, after
+	 * which a persistent worker is shut down. This extra element is not used
+	 * in the CLI.
+	 *
+	 * @return the worker idle timeout argument.
+	 */
+	public IntArgument workerIdleTimeout()
+	{
+		return workerIdleTimeout;
+	}
+
+	public Flag keepCandidates()
+	{
+		return keepCandidates;
+	}
+
+	/**
+	 * Exposes the argument that configures the folder in which the masks and
+	 * the input image are saved. This extra element is not used in the CLI.
+	 *
+	 * @return the scratch folder argument.
+	 */
+	public PathArgument scratchFolder()
+	{
+		return scratchFolder;
+	}
+
+	/**
+	 * Exposes the flag that configures whether the temp files of a run are
+	 * kept after import. This extra element is not used in the CLI.
+	 *
+	 * @return the keep temp files flag.
+	 */
+	public Flag keepTempFiles()
+	{
+		return keepTempFiles;
+	}
+
+	public PathArgument runReportFolder()
+	{
+		return runReportFolder;
+	}
+
+	/**
+	 * Exposes the argument that configures the maximal duration of a
+	 * Trackastra run, in seconds. This extra element is not used in the CLI.
+	 *
+	 * @return the timeout argument.
+	 */
+	public IntArgument timeout()
+	{
+		return timeout;
+	}
+
+	/**
+	 * Exposes the argument that configures the maximal time without output of
+	 * a Trackastra run, in seconds. This extra element is not used in the
+	 * CLI.
+	 *
+	 * @return the idle timeout argument.
+	 */
+	public IntArgument idleTimeout()
+	{
+		return idleTimeout;
+	}
+
+	/**
+	 * Exposes the flag that configures whether the results of Trackastra are
+	 * cached on disk. This extra element is not used in the CLI.
+	 *
+	 * @return the use cache flag.
+	 */
+	public Flag useCache()
+	{
+		return useCache;
+	}
+
+	/**
+	 * Exposes the argument that configures the folder of the result cache.
+	 * This extra element is not used in the CLI.
+	 *
+	 * @return the cache folder argument.
+	 */
+	public PathArgument cacheFolder()
+	{
+		return cacheFolder;
+	}
+
+	/**
+	 * Exposes the argument that configures the maximal size of the result
+	 * cache, in MB. This extra element is not used in the CLI.
+	 *
+	 * @return the cache max size argument.
+	 */
+	public IntArgument cacheMaxSize()
+	{
+		return cacheMaxSize;
+	}
+
+	/**
+	 * Exposes the argument that configures the size, in frames, of the time
+	 * windows a long movie is split into. 0 disables chunking. This extra
+	 * element is not used in the CLI.
+	 *
+	 * @return the chunk size argument.
+	 */
+	public IntArgument chunkSize()
+	{
+		return chunkSize;
+	}
+
+	/**
+	 * Exposes the argument that configures the number of frames shared by
+	 * consecutive time windows. This extra element is not used in the CLI.
+	 *
+	 * @return the chunk overlap argument.
+	 */
+	public IntArgument chunkOverlap()
+	{
+		return chunkOverlap;
+	}
+
+	/**
+	 * Exposes the argument that configures the size, in pixels, of the tiles
+	 * a large field of view is split into. 0 disables tiling. This extra
+	 * element is not used in the CLI.
+	 *
+	 * @return the tile size argument.
+	 */
+	public IntArgument tileSize()
+	{
+		return tileSize;
+	}
+
+	/**
+	 * Exposes the argument that configures by how many pixels a tile extends
+	 * over its neighbours. This extra element is not used in the CLI.
+	 *
+	 * @return the tile overlap argument.
+	 */
+	public IntArgument tileOverlap()
+	{
+		return tileOverlap;
+	}
+
+	/**
+	 * Exposes the argument that configures how many time windows or tiles are
+	 * tracked at the same time. This extra element is not used in the CLI.
+	 *
+	 * @return the parallel chunks argument.
+	 */
+	public IntArgument parallelChunks()
+	{
+		return parallelChunks;
+	}
+
+	/**
+	 * Exposes the flag that configures whether only the frames edited since
+	 * the last run are re-tracked. This extra element is not used in the
+	 * CLI.
+	 *
+	 * @return the incremental flag.
+	 */
+	public Flag incremental()
+	{
+		return incremental;
+	}
+
+	/**
+	 * Exposes the flag that configures whether the files the source image
+	 * was opened from are passed to Trackastra instead of an exported copy.
+	 * This extra element is not used in the CLI.
+	 *
+	 * @return the reuse source files flag.
+	 */
+	public Flag reuseSourceFiles()
+	{
+		return reuseSourceFiles;
+	}
+
+	/**
+	 * Exposes the argument that configures how many planes of a virtual
+	 * source image are read ahead during export. This extra element is not
+	 * used in the CLI.
+	 *
+	 * @return the prefetch planes argument.
+	 */
+	public IntArgument prefetchPlanes()
+	{
+		return prefetchPlanes;
+	}
+
+	/**
+	 * Exposes the flag that configures whether the mask TIFF files are
+	 * compressed. This extra element is not used in the CLI.
+	 *
+	 * @return the compress masks flag.
+	 */
+	public Flag compressMasks()
+	{
+		return compressMasks;
+	}
+
+	/**
+	 * Returns a new configurator with the same settings as this one, for the
+	 * specified number of channels. Only the settings that have a key are
+	 * copied; the paths set for a run are not.
+	 *
+	 * @param nChannels
+	 *            the number of channels of the source image.
+	 * @return a new configurator.
+	 */
+	public TrackastraCLI copy( final int nChannels )
+	{
+		final Map< String, Object > settings = new HashMap<>();
+		TrackMateSettingsBuilder.toTrackMateSettings( settings, this );
+		final TrackastraCLI copy = new TrackastraCLI( nChannels );
+		TrackMateSettingsBuilder.fromTrackMateSettings( settings, copy );
+		return copy;
+	}
 }
@@ -0,0 +1,269 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.awt.Color;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * The dense candidate graph predicted by Trackastra, before pruning.
+ * <p>
+ * Each candidate edge links a label in a frame to a label in a later frame,
+ * with the association score predicted by the transformer. The candidate
+ * graph does not depend on the tracking mode, so it can be kept from one run
+ * to the next and pruned again in Java with the greedy modes, without calling
+ * Trackastra. Only the <code>ilp</code> mode needs the external process.
+ * <p>
+ * The greedy pruning follows the one of Trackastra: candidates are visited by
+ * decreasing score, and a candidate is accepted if its score is above the
+ * threshold, if its target has no parent yet, and if its source has fewer
+ * than 2 children (1 without divisions). Candidates with a NaN or infinite
+ * score are skipped.
+ */
+public class TrackastraCandidateGraph
+{
+
+	private final int[] sourceFrames;
+
+	private final int[] sourceLabels;
+
+	private final int[] targetFrames;
+
+	private final int[] targetLabels;
+
+	private final double[] weights;
+
+	private TrackastraCandidateGraph( final int[] sourceFrames, final int[] sourceLabels, final int[] targetFrames, final int[] targetLabels, final double[] weights )
+	{
+		this.sourceFrames = sourceFrames;
+		this.sourceLabels = sourceLabels;
+		this.targetFrames = targetFrames;
+		this.targetLabels = targetLabels;
+		this.weights = weights;
+	}
+
+	/**
+	 * Returns the number of candidate edges.
+	 *
+	 * @return the number of candidate edges.
+	 */
+	public int size()
+	{
+		return weights.length;
+	}
+
+	/**
+	 * Reads a candidate table, with the same columns as the Trackastra edge
+	 * table: source frame, source label, target frame, target label, score.
+	 *
+	 * @param path
+	 *            the path to the candidate table.
+	 * @return a new candidate graph.
+	 * @throws FileNotFoundException
+	 *             if the candidate table cannot be found.
+	 * @throws TrackastraEdgeTableReader.MalformedTableException
+	 *             if the candidate table cannot be parsed.
+	 * @throws IOException
+	 *             if the candidate table cannot be read.
+	 */
+	public static TrackastraCandidateGraph read( final Path path ) throws FileNotFoundException, IOException
+	{
+		final Builder builder = new Builder();
+		TrackastraEdgeTableReader.read( path, builder::add );
+		return builder.get();
+	}
+
+	/**
+	 * Accumulates candidates in growing primitive arrays.
+	 */
+	private static final class Builder
+	{
+
+		private int n = 0;
+
+		private int[] sourceFrames = new int[ 1024 ];
+
+		private int[] sourceLabels = new int[ 1024 ];
+
+		private int[] targetFrames = new int[ 1024 ];
+
+		private int[] targetLabels = new int[ 1024 ];
+
+		private double[] weights = new double[ 1024 ];
+
+		private void add( final int sourceFrame, final int sourceLabel, final int targetFrame, final int targetLabel, final double weight )
+		{
+			if ( n == weights.length )
+			{
+				final int capacity = n + ( n >> 1 );
+				sourceFrames = Arrays.copyOf( sourceFrames, capacity );
+				sourceLabels = Arrays.copyOf( sourceLabels, capacity );
+				targetFrames = Arrays.copyOf( targetFrames, capacity );
+				targetLabels = Arrays.copyOf( targetLabels, capacity );
+				weights = Arrays.copyOf( weights, capacity );
+			}
+			sourceFrames[ n ] = sourceFrame;
+			sourceLabels[ n ] = sourceLabel;
+			targetFrames[ n ] = targetFrame;
+			targetLabels[ n ] = targetLabel;
+			weights[ n ] = weight;
+			n++;
+		}
+
+		private TrackastraCandidateGraph get()
+		{
+			return new TrackastraCandidateGraph(
+					Arrays.copyOf( sourceFrames, n ),
+					Arrays.copyOf( sourceLabels, n ),
+					Arrays.copyOf( targetFrames, n ),
+					Arrays.copyOf( targetLabels, n ),
+					Arrays.copyOf( weights, n ) );
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified Trackastra tracking mode can
+	 * be applied in Java on a candidate graph.
+	 *
+	 * @param mode
+	 *            the tracking mode.
+	 * @return <code>true</code> for the greedy modes.
+	 */
+	public static boolean canPrune( final String mode )
+	{
+		return TrackastraCLI.MODE_GREEDY.equals( mode ) || TrackastraCLI.MODE_GREEDY_NODIV.equals( mode );
+	}
+
+	/**
+	 * Prunes the candidate graph with the specified greedy mode, and adds the
+	 * accepted edges to the specified graph.
+	 *
+	 * @param mode
+	 *            the tracking mode, <code>greedy</code> or
+	 *            <code>greedy_nodiv</code>.
+	 * @param threshold
+	 *            the minimal score of an accepted edge.
+	 * @param labels
+	 *            the table of frame and label to spot.
+	 * @param graph
+	 *            the graph to add the edges to.
+	 * @param logger
+	 *            a logger to report the number of skipped edges.
+	 * @return the number of accepted edges.
+	 */
+	public int prune(
+			final String mode,
+			final double threshold,
+			final TrackastraLabelTable labels,
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph,
+			final Logger logger )
+	{
+		if ( !canPrune( mode ) )
+			throw new IllegalArgumentException( "Cannot prune candidates in Java with the mode " + mode + "." );
+		final int maxChildren = TrackastraCLI.MODE_GREEDY.equals( mode ) ? 2 : 1;
+
+		final int[] order = byDecreasingWeight();
+		if ( order.length < weights.length )
+			logger.log( String.format( "Skipped %d candidate edges with a non-finite score.\n", weights.length - order.length ), Color.ORANGE );
+		final TLongIntHashMap nParents = new TLongIntHashMap();
+		final TLongIntHashMap nChildren = new TLongIntHashMap();
+		final TrackastraGraphBuilder builder = new TrackastraGraphBuilder( labels, graph );
+		int nAccepted = 0;
+		for ( final int i : order )
+		{
+			if ( weights[ i ] < threshold )
+				break;
+
+			final long target = node( targetFrames[ i ], targetLabels[ i ] );
+			if ( nParents.get( target ) > 0 )
+				continue;
+			final long source = node( sourceFrames[ i ], sourceLabels[ i ] );
+			final int children = nChildren.get( source );
+			if ( children >= maxChildren )
+				continue;
+
+			if ( !builder.add( sourceFrames[ i ], sourceLabels[ i ], targetFrames[ i ], targetLabels[ i ], weights[ i ] ) )
+				continue;
+
+			nParents.put( target, 1 );
+			nChildren.put( source, children + 1 );
+			nAccepted++;
+		}
+		builder.build();
+		builder.report( logger );
+		return nAccepted;
+	}
+
+	/**
+	 * Returns the indices of the candidates with a finite weight, sorted by
+	 * decreasing weight. Candidates with the same weight keep their order in
+	 * the table, as with the stable sort of Trackastra.
+	 */
+	private int[] byDecreasingWeight()
+	{
+		int n = 0;
+		int[] order = new int[ weights.length ];
+		for ( int i = 0; i < weights.length; i++ )
+			if ( Double.isFinite( weights[ i ] ) )
+				order[ n++ ] = i;
+		order = Arrays.copyOf( order, n );
+
+		// Bottom-up merge sort, stable, on primitive indices.
+		int[] buffer = new int[ n ];
+		for ( int width = 1; width < n; width *= 2 )
+		{
+			for ( int from = 0; from < n; from += 2 * width )
+			{
+				final int mid = Math.min( from + width, n );
+				final int to = Math.min( from + 2 * width, n );
+				int i = from;
+				int j = mid;
+				int k = from;
+				while ( i < mid && j < to )
+					buffer[ k++ ] = ( weights[ order[ j ] ] > weights[ order[ i ] ] ) ? order[ j++ ] : order[ i++ ];
+				while ( i < mid )
+					buffer[ k++ ] = order[ i++ ];
+				while ( j < to )
+					buffer[ k++ ] = order[ j++ ];
+			}
+			final int[] tmp = order;
+			order = buffer;
+			buffer = tmp;
+		}
+		return order;
+	}
+
+	private static long node( final int frame, final int label )
+	{
+		return ( ( long ) frame << 32 ) | ( label & 0xffffffffL );
+	}
+}
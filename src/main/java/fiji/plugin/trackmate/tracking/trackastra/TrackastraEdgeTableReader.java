@@ -0,0 +1,402 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming reader for the edge tables written by Trackastra.
+ * <p>
+ * The table is read through a fixed-size buffer, and the numbers are parsed
+ * straight from the bytes, so that no object is created per row and memory
+ * use does not depend on the size of the table. Each row is passed to a
+ * {@link RowHandler} as soon as it is parsed.
+ * <p>
+ * The first line is a header and is skipped. The first 5 columns are, in
+ * order, the source frame, the source label, the target frame, the target
+ * label and the weight. Other columns are ignored. Spaces around a field and
+ * quotes enclosing it are dropped; a field with spaces or quotes inside is
+ * malformed.
+ */
+public class TrackastraEdgeTableReader
+{
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int N_COLUMNS = 5;
+
+	/**
+	 * Receives the rows of an edge table.
+	 */
+	@FunctionalInterface
+	public interface RowHandler
+	{
+		void row( int sourceFrame, int sourceLabel, int targetFrame, int targetLabel, double weight );
+	}
+
+	/**
+	 * Exception thrown when a row of the edge table cannot be parsed.
+	 */
+	public static class MalformedTableException extends IOException
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		public MalformedTableException( final String message )
+		{
+			super( message );
+		}
+	}
+
+	private static final double[] POW10 = new double[ 23 ];
+	static
+	{
+		POW10[ 0 ] = 1.;
+		for ( int i = 1; i < POW10.length; i++ )
+			POW10[ i ] = POW10[ i - 1 ] * 10.;
+	}
+
+	private TrackastraEdgeTableReader()
+	{}
+
+	/**
+	 * Reads the specified edge table, passing its rows to the specified
+	 * handler.
+	 *
+	 * @param path
+	 *            the path to the edge table.
+	 * @param handler
+	 *            the row handler.
+	 * @return the number of rows read.
+	 * @throws FileNotFoundException
+	 *             if the edge table cannot be found.
+	 * @throws MalformedTableException
+	 *             if a row cannot be parsed.
+	 * @throws IOException
+	 *             if the edge table cannot be read.
+	 */
+	public static long read( final Path path, final RowHandler handler ) throws FileNotFoundException, IOException
+	{
+		final FileChannel channel;
+		try
+		{
+			channel = FileChannel.open( path, StandardOpenOption.READ );
+		}
+		catch ( final NoSuchFileException e )
+		{
+			throw new FileNotFoundException( path.toString() );
+		}
+		try
+		{
+			return new Parser( channel, handler ).parse();
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * The parser state: the buffer, the current line and the fields parsed
+	 * so far in this line.
+	 */
+	private static final class Parser
+	{
+
+		private final FileChannel channel;
+
+		private final RowHandler handler;
+
+		private final ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE );
+
+		private final long[] mantissas = new long[ N_COLUMNS ];
+
+		private final int[] exponents = new int[ N_COLUMNS ];
+
+		private final boolean[] negatives = new boolean[ N_COLUMNS ];
+
+		/**
+		 * The bytes of the current field, kept to report errors and to parse
+		 * the numbers that the fast path does not handle.
+		 */
+		private final byte[] field = new byte[ 64 ];
+
+		private int fieldLength;
+
+		private long line = 1;
+
+		private Parser( final FileChannel channel, final RowHandler handler )
+		{
+			this.channel = channel;
+			this.handler = handler;
+			buffer.flip();
+		}
+
+		private long parse() throws IOException
+		{
+			// Skip header.
+			int b;
+			while ( ( b = next() ) >= 0 && b != '\n' )
+			{}
+			if ( b < 0 )
+				return 0;
+
+			long nRows = 0;
+			while ( true )
+			{
+				line++;
+				int column = 0;
+				fieldLength = 0;
+				boolean ignore = false;
+				boolean empty = true;
+				while ( true )
+				{
+					b = next();
+					if ( b < 0 || b == '\n' )
+						break;
+					if ( !isBlank( b ) )
+						empty = false;
+					if ( b == ',' )
+					{
+						if ( column < N_COLUMNS )
+							endField( column );
+						column++;
+						fieldLength = 0;
+						ignore = column >= N_COLUMNS;
+						continue;
+					}
+					if ( !ignore )
+					{
+						if ( fieldLength == field.length )
+							throw new MalformedTableException( "Line " + line + ": field too long." );
+						field[ fieldLength++ ] = ( byte ) b;
+					}
+				}
+				if ( !empty )
+				{
+					if ( column < N_COLUMNS )
+						endField( column++ );
+					if ( column < N_COLUMNS )
+						throw new MalformedTableException( "Line " + line + ": expected " + N_COLUMNS + " columns, found " + column + "." );
+					handler.row(
+							toInt( 0 ), toInt( 1 ), toInt( 2 ), toInt( 3 ),
+							toDouble( 4 ) );
+					nRows++;
+				}
+				if ( b < 0 )
+					return nRows;
+			}
+		}
+
+		private int next() throws IOException
+		{
+			if ( !buffer.hasRemaining() )
+			{
+				buffer.clear();
+				final int n = channel.read( buffer );
+				buffer.flip();
+				if ( n <= 0 )
+					return -1;
+			}
+			return buffer.get() & 0xff;
+		}
+
+		private static boolean isBlank( final int b )
+		{
+			return b == ' ' || b == '\t' || b == '\r';
+		}
+
+		/**
+		 * Drops the blanks around the current field, then the quotes
+		 * enclosing it and the blanks inside them.
+		 */
+		private void trim( final int column ) throws MalformedTableException
+		{
+			int start = 0;
+			int end = fieldLength;
+			while ( start < end && isBlank( field[ start ] ) )
+				start++;
+			while ( end > start && isBlank( field[ end - 1 ] ) )
+				end--;
+			if ( end - start >= 2 && field[ start ] == '"' && field[ end - 1 ] == '"' )
+			{
+				start++;
+				end--;
+				while ( start < end && isBlank( field[ start ] ) )
+					start++;
+				while ( end > start && isBlank( field[ end - 1 ] ) )
+					end--;
+			}
+			System.arraycopy( field, start, field, 0, end - start );
+			fieldLength = end - start;
+			for ( int i = 0; i < fieldLength; i++ )
+				if ( field[ i ] == '"' || isBlank( field[ i ] ) )
+					throw malformed( column );
+		}
+
+		/**
+		 * Parses the current field as a decimal number, stored as a mantissa
+		 * and a power of 10.
+		 */
+		private void endField( final int column ) throws MalformedTableException
+		{
+			trim( column );
+			if ( fieldLength == 0 )
+				throw new MalformedTableException( "Line " + line + ": empty field in column " + ( column + 1 ) + "." );
+
+			int i = 0;
+			boolean negative = false;
+			if ( field[ i ] == '-' || field[ i ] == '+' )
+				negative = field[ i++ ] == '-';
+
+			long mantissa = 0;
+			int exponent = 0;
+			int nDigits = 0;
+			boolean dot = false;
+			for ( ; i < fieldLength; i++ )
+			{
+				final int b = field[ i ];
+				if ( b >= '0' && b <= '9' )
+				{
+					nDigits++;
+					if ( mantissa < 100_000_000_000_000_000L )
+					{
+						mantissa = mantissa * 10 + ( b - '0' );
+						if ( dot )
+							exponent--;
+					}
+					else if ( !dot )
+					{
+						exponent++;
+					}
+				}
+				else if ( b == '.' && !dot )
+				{
+					dot = true;
+				}
+				else if ( ( b == 'e' || b == 'E' ) && nDigits > 0 )
+				{
+					exponent += parseExponent( i + 1, column );
+					i = fieldLength;
+				}
+				else
+				{
+					fallback( column );
+					return;
+				}
+			}
+			if ( nDigits == 0 )
+				throw malformed( column );
+
+			mantissas[ column ] = mantissa;
+			exponents[ column ] = exponent;
+			negatives[ column ] = negative;
+		}
+
+		private int parseExponent( int i, final int column ) throws MalformedTableException
+		{
+			boolean negative = false;
+			if ( i < fieldLength && ( field[ i ] == '-' || field[ i ] == '+' ) )
+				negative = field[ i++ ] == '-';
+			if ( i >= fieldLength )
+				throw malformed( column );
+			int exponent = 0;
+			for ( ; i < fieldLength; i++ )
+			{
+				final int b = field[ i ];
+				if ( b < '0' || b > '9' )
+					throw malformed( column );
+				exponent = Math.min( 10_000, exponent * 10 + ( b - '0' ) );
+			}
+			return negative ? -exponent : exponent;
+		}
+
+		/**
+		 * Slow path for the numbers that the byte parser does not handle,
+		 * such as <code>nan</code> or <code>inf</code>.
+		 */
+		private void fallback( final int column ) throws MalformedTableException
+		{
+			final String str = new String( field, 0, fieldLength, StandardCharsets.US_ASCII ).toLowerCase();
+			try
+			{
+				// Python writes nan and inf, Java reads NaN and Infinity.
+				final double value = Double.parseDouble( str
+						.replace( "nan", "NaN" )
+						.replace( "infinity", "inf" )
+						.replace( "inf", "Infinity" ) );
+				mantissas[ column ] = Double.doubleToRawLongBits( value );
+				exponents[ column ] = Integer.MIN_VALUE;
+				negatives[ column ] = false;
+			}
+			catch ( final NumberFormatException e )
+			{
+				throw malformed( column );
+			}
+		}
+
+		private MalformedTableException malformed( final int column )
+		{
+			return new MalformedTableException( "Line " + line + ": cannot parse '"
+					+ new String( field, 0, fieldLength, StandardCharsets.US_ASCII )
+					+ "' in column " + ( column + 1 ) + "." );
+		}
+
+		private int toInt( final int column ) throws MalformedTableException
+		{
+			final int exponent = exponents[ column ];
+			if ( exponent == 0 )
+			{
+				final long value = negatives[ column ] ? -mantissas[ column ] : mantissas[ column ];
+				if ( value < Integer.MIN_VALUE || value > Integer.MAX_VALUE )
+					throw new MalformedTableException( "Line " + line + ": value out of range in column " + ( column + 1 ) + "." );
+				return ( int ) value;
+			}
+			// Integers written as decimals, such as "3.0".
+			final double value = toDouble( column );
+			if ( value != Math.rint( value ) || Math.abs( value ) > Integer.MAX_VALUE )
+				throw new MalformedTableException( "Line " + line + ": expected an integer in column " + ( column + 1 ) + "." );
+			return ( int ) value;
+		}
+
+		private double toDouble( final int column )
+		{
+			final int exponent = exponents[ column ];
+			if ( exponent == Integer.MIN_VALUE )
+				return Double.longBitsToDouble( mantissas[ column ] );
+
+			double value = mantissas[ column ];
+			if ( exponent < 0 )
+				value = ( -exponent < POW10.length ) ? value / POW10[ -exponent ] : value * Math.pow( 10., exponent );
+			else if ( exponent > 0 )
+				value = ( exponent < POW10.length ) ? value * POW10[ exponent ] : value * Math.pow( 10., exponent );
+			return negatives[ column ] ? -value : value;
+		}
+	}
+}
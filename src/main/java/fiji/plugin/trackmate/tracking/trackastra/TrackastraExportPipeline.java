@@ -0,0 +1,567 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraFrameStore.EncodedFrame;
+
+/**
+ * Exports frames through stages running at the same time, connected by
+ * bounded queues:
+ * <ol>
+ * <li><b>source</b>: rasterizes a mask frame, or loads the planes of an image
+ * frame;</li>
+ * <li><b>encode</b>: prepares the frame for writing, with
+ * {@link TrackastraFrameStore#encode(int, List)}, for instance by
+ * compressing it. This stage only exists if a store
+ * {@link TrackastraFrameStore#encodes() encodes} its frames and there are at
+ * least 3 threads. Otherwise frames are encoded on the source stage;</li>
+ * <li><b>write</b>: writes the frame to disk.</li>
+ * </ol>
+ * A stage blocks when the queue after it is full, so at most a few frames
+ * per thread are in memory at once, whatever the length of the movie. The
+ * export then takes about the time of its slowest stage, instead of the sum
+ * of the times of all stages. The time each stage spent working is logged at
+ * the end, as a fraction of the time available to its threads: a busy stage
+ * is the bottleneck.
+ * <p>
+ * With a single thread, the stages run one after the other on the calling
+ * thread, and the fraction of the time spent in each is logged.
+ * <p>
+ * The failure of one frame does not stop the others. If a stage thread dies,
+ * for instance with an {@link Error}, or if the export is canceled, all the
+ * stages stop: no thread stays blocked on a queue.
+ */
+public class TrackastraExportPipeline
+{
+
+	/**
+	 * One frame to export.
+	 */
+	public static class Frame
+	{
+
+		private final TrackastraFrameStore store;
+
+		private final int t;
+
+		private final Callable< List< Object > > source;
+
+		private final String phase;
+
+		/**
+		 * Creates a frame to export.
+		 *
+		 * @param store
+		 *            the store to write the frame to.
+		 * @param t
+		 *            the frame, 1-based.
+		 * @param source
+		 *            returns the pixel arrays of the Z planes of the frame.
+		 *            Called on a thread of the source stage.
+		 * @param phase
+		 *            the phase of the run report the time spent encoding and
+		 *            writing the frame is added to.
+		 */
+		public Frame( final TrackastraFrameStore store, final int t, final Callable< List< Object > > source, final String phase )
+		{
+			this.store = store;
+			this.t = t;
+			this.source = source;
+			this.phase = phase;
+		}
+
+		private String error( final Exception e )
+		{
+			return "Problem saving frame " + t + " to " + store.location() + ": " + e.getMessage();
+		}
+	}
+
+	/**
+	 * The frames in the queue between the source and the encode stages.
+	 */
+	private static class Sourced
+	{
+
+		private final Frame frame;
+
+		private final List< Object > planes;
+
+		private Sourced( final Frame frame, final List< Object > planes )
+		{
+			this.frame = frame;
+			this.planes = planes;
+		}
+	}
+
+	/**
+	 * The frames in the queue between the encode and the write stages.
+	 */
+	private static class Encoded
+	{
+
+		private final Frame frame;
+
+		private final EncodedFrame encoded;
+
+		private Encoded( final Frame frame, final EncodedFrame encoded )
+		{
+			this.frame = frame;
+			this.encoded = encoded;
+		}
+	}
+
+	/**
+	 * Marks the end of a queue. One is queued per consumer thread.
+	 */
+	private static final Sourced END_SOURCED = new Sourced( null, null );
+
+	private static final Encoded END_ENCODED = new Encoded( null, null );
+
+	/**
+	 * Number of frames queued between two stages, per thread of the stage
+	 * consuming them.
+	 */
+	private static final int QUEUE_FRAMES_PER_THREAD = 2;
+
+	/**
+	 * Period, in ms, at which blocked stages and the calling thread check
+	 * whether the export must stop.
+	 */
+	private static final long POLL_MS = 100;
+
+	private final int numThreads;
+
+	private final TrackastraRunReport report;
+
+	private final Logger logger;
+
+	private final BooleanSupplier canceled;
+
+	/**
+	 * Creates a pipeline sharing the specified number of threads between its
+	 * stages. The source stage, where masks are rasterized, gets half of
+	 * them, the encode and the write stages a quarter each, and every stage
+	 * gets at least one thread. No more threads than specified are used.
+	 *
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @param report
+	 *            the run report to add times and written bytes to.
+	 * @param logger
+	 *            the logger to report progress and stage utilization to.
+	 * @param canceled
+	 *            returns <code>true</code> when the export must stop.
+	 */
+	public TrackastraExportPipeline( final int numThreads, final TrackastraRunReport report, final Logger logger, final BooleanSupplier canceled )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+		this.report = report;
+		this.logger = logger;
+		this.canceled = canceled;
+	}
+
+	/**
+	 * Exports the specified frames, and logs the utilization of each stage.
+	 *
+	 * @param frames
+	 *            the frames to export, in the order they should be started.
+	 * @return the list of error messages, empty if all frames were exported.
+	 */
+	public List< String > run( final List< Frame > frames )
+	{
+		final List< String > errors = Collections.synchronizedList( new ArrayList<>() );
+		if ( frames.isEmpty() )
+			return errors;
+
+		final boolean encodes = frames.stream().anyMatch( f -> f.store.encodes() );
+		final long start = System.nanoTime();
+		final int written;
+		final List< Stage > stages;
+		if ( numThreads == 1 )
+		{
+			stages = stages( 1, encodes ? 1 : 0, 1 );
+			written = runSequential( frames, stages, errors );
+		}
+		else
+		{
+			final int nWrite = Math.max( 1, numThreads / 4 );
+			final int nEncode = ( encodes && numThreads >= 3 ) ? Math.max( 1, numThreads / 4 ) : 0;
+			stages = stages( numThreads - nWrite - nEncode, nEncode, nWrite );
+			written = runStages( frames, stages, errors );
+		}
+
+		final long elapsed = System.nanoTime() - start;
+		logger.log( String.format( "Exported %d of %d frames in %.1f s. Stage utilization: %s.\n",
+				written, frames.size(), elapsed / 1e9,
+				stages.stream().map( stage -> stage.utilization( elapsed ) ).collect( Collectors.joining( ", " ) ) ) );
+		synchronized ( errors )
+		{
+			return new ArrayList<>( errors );
+		}
+	}
+
+	/**
+	 * Returns the source, encode and write stages, in this order, skipping
+	 * the encode stage if it has no thread.
+	 */
+	private static List< Stage > stages( final int nSource, final int nEncode, final int nWrite )
+	{
+		final List< Stage > stages = new ArrayList<>( 3 );
+		stages.add( new Stage( "source", nSource ) );
+		if ( nEncode > 0 )
+			stages.add( new Stage( "encode", nEncode ) );
+		stages.add( new Stage( "write", nWrite ) );
+		return stages;
+	}
+
+	/**
+	 * Exports the frames one after the other on the calling thread.
+	 *
+	 * @return the number of frames written.
+	 */
+	private int runSequential( final List< Frame > frames, final List< Stage > stages, final List< String > errors )
+	{
+		final Stage sourceStage = stages.get( 0 );
+		final Stage encodeStage = stages.size() == 3 ? stages.get( 1 ) : sourceStage;
+		final Stage writeStage = stages.get( stages.size() - 1 );
+		int written = 0;
+		for ( int i = 0; i < frames.size(); i++ )
+		{
+			if ( canceled.getAsBoolean() )
+			{
+				errors.add( "Canceled." );
+				break;
+			}
+			final Frame frame = frames.get( i );
+			try
+			{
+				long t0 = System.nanoTime();
+				final List< Object > planes = new ArrayList<>( frame.source.call() );
+				sourceStage.busy( t0 );
+
+				t0 = System.nanoTime();
+				final EncodedFrame encoded = frame.store.encode( frame.t, planes );
+				report.since( frame.phase, t0 );
+				encodeStage.busy( t0 );
+
+				t0 = System.nanoTime();
+				report.count( TrackastraRunReport.BYTES_WRITTEN, encoded.write() );
+				report.since( frame.phase, t0 );
+				writeStage.busy( t0 );
+				written++;
+			}
+			catch ( final Exception e )
+			{
+				errors.add( frame.error( e ) );
+			}
+			logger.setProgress( ( double ) ( i + 1 ) / frames.size() );
+		}
+		return written;
+	}
+
+	/**
+	 * Exports the frames with the stages running concurrently, each on its
+	 * own threads.
+	 *
+	 * @return the number of frames written.
+	 */
+	private int runStages( final List< Frame > frames, final List< Stage > stages, final List< String > errors )
+	{
+		final Stage sourceStage = stages.get( 0 );
+		final Stage encodeStage = stages.size() == 3 ? stages.get( 1 ) : null;
+		final Stage writeStage = stages.get( stages.size() - 1 );
+
+		final BlockingQueue< Sourced > toEncode = ( encodeStage == null )
+				? null
+				: new ArrayBlockingQueue<>( QUEUE_FRAMES_PER_THREAD * encodeStage.nThreads );
+		final BlockingQueue< Encoded > toWrite = new ArrayBlockingQueue<>( QUEUE_FRAMES_PER_THREAD * writeStage.nThreads );
+		final AtomicInteger next = new AtomicInteger( 0 );
+		final AtomicInteger done = new AtomicInteger( 0 );
+		final AtomicInteger written = new AtomicInteger( 0 );
+		final AtomicInteger sourcesRunning = new AtomicInteger( sourceStage.nThreads );
+		final AtomicInteger encodersRunning = new AtomicInteger( encodeStage == null ? 0 : encodeStage.nThreads );
+		// Set when a stage thread dies or the export is canceled.
+		final AtomicBoolean stop = new AtomicBoolean( false );
+
+		final ExecutorService executor = Executors.newFixedThreadPool( numThreads );
+		try
+		{
+			for ( int i = 0; i < sourceStage.nThreads; i++ )
+				executor.submit( () -> {
+					try
+					{
+						int i1;
+						while ( !stop.get() && ( i1 = next.getAndIncrement() ) < frames.size() )
+						{
+							if ( canceled.getAsBoolean() )
+								break;
+							final Frame frame = frames.get( i1 );
+							final long t0 = System.nanoTime();
+							List< Object > planes = null;
+							EncodedFrame encoded = null;
+							try
+							{
+								// Load lazy planes here, not on the write stage.
+								planes = new ArrayList<>( frame.source.call() );
+								if ( toEncode == null )
+								{
+									final long t1 = System.nanoTime();
+									encoded = frame.store.encode( frame.t, planes );
+									report.since( frame.phase, t1 );
+								}
+							}
+							catch ( final InterruptedException e )
+							{
+								throw e;
+							}
+							catch ( final Exception e )
+							{
+								errors.add( frame.error( e ) );
+								done.incrementAndGet();
+								planes = null;
+							}
+							sourceStage.busy( t0 );
+							if ( planes == null )
+								continue;
+							final boolean queued = ( toEncode == null )
+									? put( toWrite, new Encoded( frame, encoded ), stop )
+									: put( toEncode, new Sourced( frame, planes ), stop );
+							if ( !queued )
+								break;
+						}
+					}
+					catch ( final Throwable e )
+					{
+						fail( sourceStage, e, errors, stop );
+					}
+					finally
+					{
+						if ( sourcesRunning.decrementAndGet() == 0 )
+						{
+							if ( toEncode == null )
+								for ( int j = 0; j < writeStage.nThreads; j++ )
+									put( toWrite, END_ENCODED, stop );
+							else
+								for ( int j = 0; j < encodeStage.nThreads; j++ )
+									put( toEncode, END_SOURCED, stop );
+						}
+					}
+					return null;
+				} );
+
+			for ( int i = 0; encodeStage != null && i < encodeStage.nThreads; i++ )
+				executor.submit( () -> {
+					try
+					{
+						Sourced sourced;
+						while ( ( sourced = take( toEncode, END_SOURCED, stop ) ) != END_SOURCED )
+						{
+							final Frame frame = sourced.frame;
+							if ( canceled.getAsBoolean() )
+							{
+								done.incrementAndGet();
+								continue;
+							}
+							final long t0 = System.nanoTime();
+							EncodedFrame encoded = null;
+							try
+							{
+								encoded = frame.store.encode( frame.t, sourced.planes );
+							}
+							catch ( final Exception e )
+							{
+								errors.add( frame.error( e ) );
+								done.incrementAndGet();
+							}
+							report.since( frame.phase, t0 );
+							encodeStage.busy( t0 );
+							if ( encoded != null && !put( toWrite, new Encoded( frame, encoded ), stop ) )
+								break;
+						}
+					}
+					catch ( final Throwable e )
+					{
+						fail( encodeStage, e, errors, stop );
+					}
+					finally
+					{
+						if ( encodersRunning.decrementAndGet() == 0 )
+							for ( int j = 0; j < writeStage.nThreads; j++ )
+								put( toWrite, END_ENCODED, stop );
+					}
+					return null;
+				} );
+
+			for ( int i = 0; i < writeStage.nThreads; i++ )
+				executor.submit( () -> {
+					try
+					{
+						Encoded encoded;
+						while ( ( encoded = take( toWrite, END_ENCODED, stop ) ) != END_ENCODED )
+						{
+							final Frame frame = encoded.frame;
+							if ( canceled.getAsBoolean() )
+							{
+								done.incrementAndGet();
+								continue;
+							}
+							final long t0 = System.nanoTime();
+							try
+							{
+								report.count( TrackastraRunReport.BYTES_WRITTEN, encoded.encoded.write() );
+								written.incrementAndGet();
+							}
+							catch ( final Exception e )
+							{
+								errors.add( frame.error( e ) );
+							}
+							report.since( frame.phase, t0 );
+							writeStage.busy( t0 );
+							logger.setProgress( ( double ) done.incrementAndGet() / frames.size() );
+						}
+					}
+					catch ( final Throwable e )
+					{
+						fail( writeStage, e, errors, stop );
+					}
+					return null;
+				} );
+
+			// Wait for the stages, stopping them if the export is canceled.
+			executor.shutdown();
+			boolean terminated;
+			do
+			{
+				terminated = executor.awaitTermination( POLL_MS, TimeUnit.MILLISECONDS );
+				if ( canceled.getAsBoolean() && !stop.getAndSet( true ) )
+					errors.add( "Canceled." );
+			}
+			while ( !terminated );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			errors.add( "Interrupted while saving." );
+		}
+		finally
+		{
+			stop.set( true );
+			executor.shutdownNow();
+		}
+		return written.get();
+	}
+
+	/**
+	 * Records the death of a stage thread and stops the export. Interruptions
+	 * are expected once the export is stopped, and not recorded.
+	 */
+	private static void fail( final Stage stage, final Throwable e, final List< String > errors, final AtomicBoolean stop )
+	{
+		if ( !( e instanceof InterruptedException && stop.get() ) )
+			errors.add( "Problem in the " + stage.name + " stage of the export: " + e );
+		stop.set( true );
+	}
+
+	/**
+	 * Puts an element in a queue, waiting for space unless the export stops.
+	 *
+	 * @return <code>false</code> if the export stopped first.
+	 */
+	private static < T > boolean put( final BlockingQueue< T > queue, final T element, final AtomicBoolean stop )
+	{
+		try
+		{
+			while ( !queue.offer( element, POLL_MS, TimeUnit.MILLISECONDS ) )
+				if ( stop.get() )
+					return false;
+			return true;
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Takes an element from a queue, waiting for one unless the export
+	 * stops, in which case the end marker is returned.
+	 */
+	private static < T > T take( final BlockingQueue< T > queue, final T end, final AtomicBoolean stop ) throws InterruptedException
+	{
+		while ( true )
+		{
+			final T element = queue.poll( POLL_MS, TimeUnit.MILLISECONDS );
+			if ( element != null )
+				return element;
+			if ( stop.get() )
+				return end;
+		}
+	}
+
+	/**
+	 * The threads of one stage, and the time they spent working, not
+	 * waiting on a queue.
+	 */
+	private static class Stage
+	{
+
+		private final String name;
+
+		private final int nThreads;
+
+		private final AtomicLong busy = new AtomicLong();
+
+		private Stage( final String name, final int nThreads )
+		{
+			this.name = name;
+			this.nThreads = nThreads;
+		}
+
+		private void busy( final long start )
+		{
+			busy.addAndGet( System.nanoTime() - start );
+		}
+
+		private String utilization( final long elapsed )
+		{
+			final double fraction = ( elapsed > 0 ) ? ( double ) busy.get() / ( nThreads * elapsed ) : 0.;
+			return String.format( "%s %.0f%% of %d thread%s", name, 100. * fraction, nThreads, nThreads > 1 ? "s" : "" );
+		}
+	}
+}
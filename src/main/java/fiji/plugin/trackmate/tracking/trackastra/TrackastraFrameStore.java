@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/**
+ * Interface for the locations where the frames of a movie are exchanged with
+ * Trackastra.
+ * <p>
+ * Frames are made of the pixel arrays of their Z planes, as found in an
+ * ImageJ {@link ImageStack}. Frames can be written concurrently, in any
+ * order.
+ */
+public interface TrackastraFrameStore extends Closeable
+{
+
+	/**
+	 * Writes one frame.
+	 *
+	 * @param t
+	 *            the frame, 1-based.
+	 * @param planes
+	 *            the pixel arrays of the Z planes of the frame.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if the frame cannot be written.
+	 */
+	public long write( int t, List< Object > planes ) throws IOException;
+
+	/**
+	 * A frame prepared by {@link TrackastraFrameStore#encode(int, List)},
+	 * ready to be written.
+	 */
+	public interface EncodedFrame
+	{
+
+		/**
+		 * Writes the frame.
+		 *
+		 * @return the number of bytes written.
+		 * @throws IOException
+		 *             if the frame cannot be written.
+		 */
+		public long write() throws IOException;
+	}
+
+	/**
+	 * Prepares one frame for writing, so that the CPU work of encoding it and
+	 * the disk write can run on different threads. The default
+	 * implementation does no work here, and leaves everything to
+	 * {@link #write(int, List)}.
+	 *
+	 * @param t
+	 *            the frame, 1-based.
+	 * @param planes
+	 *            the pixel arrays of the Z planes of the frame.
+	 * @return the encoded frame.
+	 * @throws IOException
+	 *             if the frame cannot be encoded.
+	 */
+	public default EncodedFrame encode( final int t, final List< Object > planes ) throws IOException
+	{
+		return () -> write( t, planes );
+	}
+
+	/**
+	 * Returns <code>true</code> if {@link #encode(int, List)} does work of
+	 * its own, worth running on threads of its own. The default
+	 * implementation returns <code>false</code>.
+	 *
+	 * @return whether this store encodes frames before writing them.
+	 */
+	public default boolean encodes()
+	{
+		return false;
+	}
+
+	/**
+	 * Reads back one frame.
+	 *
+	 * @param t
+	 *            the frame, 1-based.
+	 * @return the pixel arrays of the Z planes of the frame.
+	 * @throws IOException
+	 *             if the frame cannot be read.
+	 */
+	public List< Object > read( int t ) throws IOException;
+
+	/**
+	 * Returns the path to pass to Trackastra for this store.
+	 *
+	 * @return the path.
+	 */
+	public Path location();
+
+	@Override
+	public default void close() throws IOException
+	{}
+
+	/**
+	 * Returns the pixel arrays of the Z planes of one channel and one frame of
+	 * an image. No pixels are copied.
+	 *
+	 * @param imp
+	 *            the image.
+	 * @param c
+	 *            the channel, 1-based.
+	 * @param t
+	 *            the frame, 1-based.
+	 * @return a new list of pixel arrays.
+	 */
+	public static List< Object > planes( final ImagePlus imp, final int c, final int t )
+	{
+		final ImageStack stack = imp.getStack();
+		final int nZ = imp.getNSlices();
+		final List< Object > planes = new ArrayList<>( nZ );
+		for ( int z = 1; z <= nZ; z++ )
+			planes.add( stack.getPixels( imp.getStackIndex( c, z, t ) ) );
+		return planes;
+	}
+}
@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Builds a graph from Trackastra rows, in batches.
+ * <p>
+ * Rows are resolved against a {@link TrackastraLabelTable} as they are
+ * added, and accumulated in fixed-size arrays. When the arrays are full,
+ * the batch is added to the graph: every referenced vertex is added once,
+ * then the edges. Memory thus stays bounded whatever the size of the table.
+ * Rows that cannot be resolved are counted by cause, and only a few of them
+ * are kept as samples, so that reporting them does not flood the log.
+ */
+public class TrackastraGraphBuilder
+{
+
+	private static final int MAX_SAMPLES = 10;
+
+	/**
+	 * Number of resolved rows added to the graph at once.
+	 */
+	private static final int BATCH_SIZE = 4096;
+
+	private final TrackastraLabelTable labels;
+
+	private final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
+
+	private final Spot[] sources = new Spot[ BATCH_SIZE ];
+
+	private final Spot[] targets = new Spot[ BATCH_SIZE ];
+
+	private final double[] weights = new double[ BATCH_SIZE ];
+
+	private final Set< Spot > vertices = Collections.newSetFromMap( new IdentityHashMap<>( 2 * BATCH_SIZE ) );
+
+	/**
+	 * Number of rows in the current batch.
+	 */
+	private int n = 0;
+
+	/**
+	 * Number of rows resolved so far.
+	 */
+	private int nResolved = 0;
+
+	private int nEdges = 0;
+
+	private long buildTime = 0;
+
+	private int nMissingFrame = 0;
+
+	private int nMissingSource = 0;
+
+	private int nMissingTarget = 0;
+
+	private final List< String > samples = new ArrayList<>( MAX_SAMPLES );
+
+	/**
+	 * Creates a builder resolving labels with the specified table.
+	 *
+	 * @param labels
+	 *            the table of frame and label to spot.
+	 * @param graph
+	 *            the graph to add the edges to.
+	 */
+	public TrackastraGraphBuilder( final TrackastraLabelTable labels, final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	{
+		this.labels = labels;
+		this.graph = graph;
+	}
+
+	/**
+	 * Resolves a row and adds it to the current batch of edges, adding the
+	 * batch to the graph if it is full.
+	 *
+	 * @param sourceFrame
+	 *            the frame of the source.
+	 * @param sourceLabel
+	 *            the label of the source.
+	 * @param targetFrame
+	 *            the frame of the target.
+	 * @param targetLabel
+	 *            the label of the target.
+	 * @param weight
+	 *            the weight of the edge.
+	 * @return <code>true</code> if both ends were found.
+	 */
+	public boolean add( final int sourceFrame, final int sourceLabel, final int targetFrame, final int targetLabel, final double weight )
+	{
+		if ( !labels.hasSpots( sourceFrame ) )
+		{
+			nMissingFrame++;
+			if ( sampling() )
+				samples.add( "no spot in frame " + sourceFrame );
+			return false;
+		}
+		if ( !labels.hasSpots( targetFrame ) )
+		{
+			nMissingFrame++;
+			if ( sampling() )
+				samples.add( "no spot in frame " + targetFrame );
+			return false;
+		}
+		final Spot source = labels.get( sourceFrame, sourceLabel );
+		if ( source == null )
+		{
+			nMissingSource++;
+			if ( sampling() )
+				samples.add( "no spot matching source label " + sourceLabel + " in frame " + sourceFrame );
+			return false;
+		}
+		final Spot target = labels.get( targetFrame, targetLabel );
+		if ( target == null )
+		{
+			nMissingTarget++;
+			if ( sampling() )
+				samples.add( "no spot matching target label " + targetLabel + " in frame " + targetFrame );
+			return false;
+		}
+
+		sources[ n ] = source;
+		targets[ n ] = target;
+		weights[ n ] = weight;
+		n++;
+		nResolved++;
+		if ( n == BATCH_SIZE )
+			flush();
+		return true;
+	}
+
+	/**
+	 * Adds the current batch to the graph, vertices first, then the edges.
+	 */
+	private void flush()
+	{
+		final long start = System.nanoTime();
+		for ( int i = 0; i < n; i++ )
+		{
+			vertices.add( sources[ i ] );
+			vertices.add( targets[ i ] );
+		}
+		for ( final Spot spot : vertices )
+			graph.addVertex( spot );
+		vertices.clear();
+
+		for ( int i = 0; i < n; i++ )
+		{
+			final DefaultWeightedEdge edge = graph.addEdge( sources[ i ], targets[ i ] );
+			if ( edge == null )
+				continue;
+			graph.setEdgeWeight( edge, weights[ i ] );
+			nEdges++;
+		}
+		Arrays.fill( sources, 0, n, null );
+		Arrays.fill( targets, 0, n, null );
+		n = 0;
+		buildTime += System.nanoTime() - start;
+	}
+
+	/**
+	 * Whether skipped rows are still sampled for the report. Checked before
+	 * building the message of a skipped row.
+	 */
+	private boolean sampling()
+	{
+		return samples.size() < MAX_SAMPLES;
+	}
+
+	/**
+	 * Returns the number of rows that could not be resolved.
+	 *
+	 * @return the number of skipped rows.
+	 */
+	public int nSkipped()
+	{
+		return nMissingFrame + nMissingSource + nMissingTarget;
+	}
+
+	/**
+	 * Adds the last batch of resolved edges to the graph.
+	 *
+	 * @return the total number of edges added to the graph.
+	 */
+	public int build()
+	{
+		flush();
+		return nEdges;
+	}
+
+	/**
+	 * Returns the time spent adding vertices and edges to the graph.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	public long buildTime()
+	{
+		return buildTime;
+	}
+
+	/**
+	 * Logs the number of skipped rows by cause, with a few samples. Logs
+	 * nothing if no row was skipped.
+	 *
+	 * @param logger
+	 *            the logger to report to.
+	 */
+	public void report( final Logger logger )
+	{
+		final int nSkipped = nSkipped();
+		if ( nSkipped == 0 )
+			return;
+
+		final StringBuilder str = new StringBuilder();
+		str.append( "Skipped " + nSkipped + " rows out of " + ( nResolved + nSkipped ) + ":\n" );
+		if ( nMissingFrame > 0 )
+			str.append( " - " + nMissingFrame + " with no spot in their frame.\n" );
+		if ( nMissingSource > 0 )
+			str.append( " - " + nMissingSource + " with no spot matching their source label.\n" );
+		if ( nMissingTarget > 0 )
+			str.append( " - " + nMissingTarget + " with no spot matching their target label.\n" );
+		str.append( "First skipped rows:\n" );
+		for ( final String sample : samples )
+			str.append( "   " + sample + ".\n" );
+		if ( nSkipped > samples.size() )
+			str.append( "   ... and " + ( nSkipped - samples.size() ) + " more.\n" );
+		logger.log( str.toString(), Color.ORANGE );
+	}
+}
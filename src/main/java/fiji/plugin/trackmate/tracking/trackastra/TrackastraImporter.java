@@ -23,15 +23,13 @@ package fiji.plugin.trackmate.tracking.trackastra;
 
 import java.awt.Color;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.util.function.IntFunction;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
-import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvException;
 
 import fiji.plugin.trackmate.Logger;
@@ -43,10 +41,41 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import ij.ImagePlus;
 import net.imagej.ImgPlus;
 import net.imglib2.IterableInterval;
-import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.RealType;
 
 public class TrackastraImporter
 {
+	/**
+	 * Imports the Trackastra edge table into the specified graph, reading the
+	 * label of each spot in the masks.
+	 * <p>
+	 * This method keeps the signature it had when edge tables were parsed
+	 * with opencsv. {@link CsvException} is not thrown anymore: parse errors
+	 * are reported as {@link TrackastraEdgeTableReader.MalformedTableException}.
+	 *
+	 * @param edges
+	 *            the path to the Trackastra edge table.
+	 * @param spots
+	 *            the spots that were exported as masks.
+	 * @param masks
+	 *            the masks, with one frame per time-point.
+	 * @param graph
+	 *            the graph to add the edges to.
+	 * @param logger
+	 *            a logger to report the number of skipped edges.
+	 * @throws FileNotFoundException
+	 *             if the edge table cannot be found.
+	 * @throws IOException
+	 *             if the edge table cannot be read or parsed.
+	 * @throws CsvException
+	 *             never.
+	 * @deprecated use
+	 *             {@link #importEdges(Path, SpotCollection, IntFunction, SimpleWeightedGraph, Logger)}
+	 *             or
+	 *             {@link #importEdges(Path, TrackastraLabelTable, SimpleWeightedGraph, Logger)}.
+	 */
+	@Deprecated
+	@SuppressWarnings( "unchecked" )
 	public static void importEdges(
 			final Path edges,
 			final SpotCollection spots,
@@ -55,80 +84,158 @@ public class TrackastraImporter
 			final Logger logger )
 			throws FileNotFoundException, IOException, CsvException
 	{
-		// Map of frame -> label -> spot.
-		@SuppressWarnings( "unchecked" )
-		final ImgPlus< UnsignedShortType > maskImg = TMUtils.rawWraps( masks );
-		final TIntObjectHashMap< TIntObjectHashMap< Spot > > idMap = new TIntObjectHashMap<>();
-		for ( final Spot spot : spots.iterable( false ) )
+		importEdges( edges, spots, TMUtils.rawWraps( masks ), graph, logger );
+	}
+
+	private static < T extends RealType< T > > void importEdges(
+			final Path edges,
+			final SpotCollection spots,
+			final ImgPlus< T > masks,
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph,
+			final Logger logger )
+			throws FileNotFoundException, IOException
+	{
+		importEdges( edges, spots, frame -> TMUtils.hyperSlice( masks, 0, frame ), graph, logger );
+	}
+
+	/**
+	 * Imports the Trackastra edge table into the specified graph, reading the
+	 * label of each spot in the masks. Labels are looked up per frame, so the
+	 * masks can be numbered per frame or over the whole movie, and stored
+	 * with any integer or real pixel type. Prefer
+	 * {@link #importEdges(Path, TrackastraLabelTable, SimpleWeightedGraph, Logger)}
+	 * when the label table recorded at export is available.
+	 *
+	 * @param edges
+	 *            the path to the Trackastra edge table.
+	 * @param spots
+	 *            the spots that were exported as masks.
+	 * @param maskFrames
+	 *            a function that returns the label image of a frame (0-based),
+	 *            or <code>null</code> if it cannot be found.
+	 * @param graph
+	 *            the graph to add the edges to.
+	 * @param logger
+	 *            a logger to report the number of skipped edges.
+	 * @param <T>
+	 *            the pixel type of the masks.
+	 * @throws FileNotFoundException
+	 *             if the edge table cannot be found.
+	 * @throws TrackastraEdgeTableReader.MalformedTableException
+	 *             if the edge table cannot be parsed.
+	 * @throws IOException
+	 *             if the edge table cannot be read.
+	 */
+	public static < T extends RealType< T > > void importEdges(
+			final Path edges,
+			final SpotCollection spots,
+			final IntFunction< ImgPlus< T > > maskFrames,
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph,
+			final Logger logger )
+			throws FileNotFoundException, IOException
+	{
+		final TrackastraLabelTable labels = new TrackastraLabelTable( spots.keySet().isEmpty() ? 0 : spots.lastKey() + 1 );
+		for ( final Integer frame : spots.keySet() )
 		{
-			final int frame = spot.getFeature( Spot.FRAME ).intValue();
-			final ImgPlus< UnsignedShortType > imgTC = TMUtils.hyperSlice( maskImg, 0, frame );
-			final IterableInterval< UnsignedShortType > it = SpotUtil.iterable( spot, imgTC );
-			final int label = it.cursor().next().get();
-			TIntObjectHashMap< Spot > map = idMap.get( frame );
-			if ( map == null )
+			if ( spots.getNSpots( frame, false ) == 0 )
+				continue;
+
+			final ImgPlus< T > imgTC = maskFrames.apply( frame );
+			if ( imgTC == null )
 			{
-				map = new TIntObjectHashMap<>();
-				idMap.put( frame, map );
+				logger.log( " - could not read the masks of frame " + frame + ".\n", Color.ORANGE );
+				continue;
 			}
-			map.put( label, spot );
-		}
 
-		try (final CSVReader reader = new CSVReader( new FileReader( edges.toFile() ) ))
-		{
-			final Iterator< String[] > it = reader.readAll().iterator();
-			// Skip header
-			it.next();
-			while ( it.hasNext() )
+			final TIntObjectHashMap< Spot > map = new TIntObjectHashMap<>();
+			int minLabel = Integer.MAX_VALUE;
+			int maxLabel = Integer.MIN_VALUE;
+			for ( final Spot spot : spots.iterable( frame, false ) )
 			{
-				final String[] strs = it.next();
-				final int sourceFrame = Integer.parseInt( strs[ 0 ] );
-				final int sourceLabel = Integer.parseInt( strs[ 1 ] );
-				final int targetFrame = Integer.parseInt( strs[ 2 ] );
-				final int targetLabel = Integer.parseInt( strs[ 3 ] );
-				final double weight = Double.parseDouble( strs[ 4 ] );
-
-				final TIntObjectHashMap< Spot > mapSource = idMap.get( sourceFrame );
-				if ( mapSource == null )
-				{
-					logger.log( " - no spot in frame " + sourceFrame + ". Skipping.\n", Color.ORANGE );
-					continue;
-				}
-				final Spot source = mapSource.get( sourceLabel );
-				if ( source == null )
-				{
-					logger.log( " - no spot matching source label " + sourceLabel + ". Skipping.\n", Color.ORANGE );
-					continue;
-				}
-
-				final TIntObjectHashMap< Spot > mapTarget = idMap.get( targetFrame );
-				if ( mapTarget == null )
-				{
-					logger.log( " - no spot in frame " + targetFrame + ". Skipping.\n", Color.ORANGE );
-					continue;
-				}
-				final Spot target = mapTarget.get( targetLabel );
-				if ( target == null )
-				{
-					logger.log( " - no spot matching target label " + targetLabel + ". Skipping.\n", Color.ORANGE );
-					continue;
-				}
-
-				addEdge( source, target, weight, graph );
+				final IterableInterval< T > it = SpotUtil.iterable( spot, imgTC );
+				final int label = ( int ) it.cursor().next().getRealDouble();
+				map.put( label, spot );
+				minLabel = Math.min( minLabel, label );
+				maxLabel = Math.max( maxLabel, label );
 			}
+			final Spot[] frameSpots = new Spot[ maxLabel - minLabel + 1 ];
+			for ( final int label : map.keys() )
+				frameSpots[ label - minLabel ] = map.get( label );
+			labels.set( frame, minLabel, frameSpots );
 		}
+		importEdges( edges, labels, graph, logger );
 	}
 
-	private static void addEdge( final Spot source, final Spot target, final double weight, final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	/**
+	 * Imports the Trackastra edge table into the specified graph, using the
+	 * label table recorded when the masks were painted. No mask is read.
+	 *
+	 * @param edges
+	 *            the path to the Trackastra edge table.
+	 * @param labels
+	 *            the table of frame and label to spot.
+	 * @param graph
+	 *            the graph to add the edges to.
+	 * @param logger
+	 *            a logger to report the number of skipped edges.
+	 * @throws FileNotFoundException
+	 *             if the edge table cannot be found.
+	 * @throws TrackastraEdgeTableReader.MalformedTableException
+	 *             if the edge table cannot be parsed.
+	 * @throws IOException
+	 *             if the edge table cannot be read.
+	 */
+	public static void importEdges(
+			final Path edges,
+			final TrackastraLabelTable labels,
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph,
+			final Logger logger )
+			throws FileNotFoundException, IOException
 	{
-		if ( !graph.containsVertex( source ) )
-			graph.addVertex( source );
-
-		if ( !graph.containsVertex( target ) )
-			graph.addVertex( target );
+		importEdges( edges, labels, graph, logger, new TrackastraRunReport() );
+	}
 
-		final DefaultWeightedEdge edge = graph.addEdge( source, target );
-		if ( edge != null )
-			graph.setEdgeWeight( edge, weight );
+	/**
+	 * Imports the Trackastra edge table into the specified graph, using the
+	 * label table recorded when the masks were painted, and reports the time
+	 * spent parsing the table and building the graph, and the number of edges
+	 * read and skipped.
+	 *
+	 * @param edges
+	 *            the path to the Trackastra edge table.
+	 * @param labels
+	 *            the table of frame and label to spot.
+	 * @param graph
+	 *            the graph to add the edges to.
+	 * @param logger
+	 *            a logger to report the number of skipped edges.
+	 * @param report
+	 *            the report to add timings and counters to.
+	 * @throws FileNotFoundException
+	 *             if the edge table cannot be found.
+	 * @throws TrackastraEdgeTableReader.MalformedTableException
+	 *             if the edge table cannot be parsed.
+	 * @throws IOException
+	 *             if the edge table cannot be read.
+	 */
+	public static void importEdges(
+			final Path edges,
+			final TrackastraLabelTable labels,
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph,
+			final Logger logger,
+			final TrackastraRunReport report )
+			throws FileNotFoundException, IOException
+	{
+		final TrackastraGraphBuilder builder = new TrackastraGraphBuilder( labels, graph );
+		final long start = System.nanoTime();
+		final long nRows = TrackastraEdgeTableReader.read( edges, builder::add );
+		final int nEdges = builder.build();
+		// Edges are added to the graph in batches, while parsing.
+		report.time( TrackastraRunReport.CSV_PARSING, System.nanoTime() - start - builder.buildTime() );
+		report.time( TrackastraRunReport.GRAPH_CONSTRUCTION, builder.buildTime() );
+		report.count( TrackastraRunReport.EDGES_READ, nRows );
+		report.count( TrackastraRunReport.EDGES_SKIPPED, builder.nSkipped() );
+		report.count( TrackastraRunReport.EDGES_ADDED, nEdges );
+		builder.report( logger );
 	}
 }
@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * The table of frame and label to spot, recorded when the masks are painted.
+ * <p>
+ * In each frame, labels are consecutive, so a label resolves to its spot with
+ * an array lookup, without reading any mask pixel.
+ */
+public class TrackastraLabelTable
+{
+
+	private final Spot[][] spots;
+
+	private final int[] firstLabels;
+
+	/**
+	 * Creates an empty table for the specified number of frames.
+	 *
+	 * @param nFrames
+	 *            the number of frames.
+	 */
+	public TrackastraLabelTable( final int nFrames )
+	{
+		this.spots = new Spot[ nFrames ][];
+		this.firstLabels = new int[ nFrames ];
+	}
+
+	/**
+	 * Returns the number of frames of this table.
+	 *
+	 * @return the number of frames.
+	 */
+	public int nFrames()
+	{
+		return spots.length;
+	}
+
+	/**
+	 * Records the spots of a frame. The spot at index <code>i</code> has the
+	 * label <code>firstLabel + i</code>. Each frame can be recorded by a
+	 * different thread.
+	 *
+	 * @param frame
+	 *            the frame, 0-based.
+	 * @param firstLabel
+	 *            the label of the first spot.
+	 * @param frameSpots
+	 *            the spots of the frame, in label order. May contain
+	 *            <code>null</code> for unused labels.
+	 */
+	public void set( final int frame, final int firstLabel, final Spot[] frameSpots )
+	{
+		firstLabels[ frame ] = firstLabel;
+		spots[ frame ] = frameSpots;
+	}
+
+	/**
+	 * Returns whether the spots of a frame have been recorded.
+	 *
+	 * @param frame
+	 *            the frame, 0-based.
+	 * @return <code>true</code> if the frame has been recorded.
+	 */
+	public boolean has( final int frame )
+	{
+		return frame >= 0 && frame < spots.length && spots[ frame ] != null;
+	}
+
+	/**
+	 * Returns whether the spots of a frame have been recorded, and there is
+	 * at least one.
+	 *
+	 * @param frame
+	 *            the frame, 0-based.
+	 * @return <code>true</code> if the frame has been recorded with spots.
+	 */
+	public boolean hasSpots( final int frame )
+	{
+		return has( frame ) && spots[ frame ].length > 0;
+	}
+
+	/**
+	 * Returns the spot with the specified label in the specified frame.
+	 *
+	 * @param frame
+	 *            the frame, 0-based.
+	 * @param label
+	 *            the label.
+	 * @return the spot, or <code>null</code> if there is no spot with this
+	 *         label in this frame.
+	 */
+	public Spot get( final int frame, final int label )
+	{
+		if ( !has( frame ) )
+			return null;
+		final Spot[] frameSpots = spots[ frame ];
+		final int index = label - firstLabels[ frame ];
+		if ( index < 0 || index >= frameSpots.length )
+			return null;
+		return frameSpots[ index ];
+	}
+}
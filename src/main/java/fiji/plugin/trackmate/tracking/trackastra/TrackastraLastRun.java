@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotMesh;
+import fiji.plugin.trackmate.SpotRoi;
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Vertices;
+
+/**
+ * The result of the last Trackastra run of the session, kept to re-track
+ * incrementally after local spot edits.
+ * <p>
+ * Each frame is summarized by a fingerprint of its spots: their IDs,
+ * positions, radii and shapes, ROI polygons or meshes. Comparing fingerprints
+ * tells which frames were edited since the last run.
+ */
+public class TrackastraLastRun
+{
+
+	private static TrackastraLastRun last;
+
+	private final String key;
+
+	private final long[] fingerprints;
+
+	private final List< Spot > sources;
+
+	private final List< Spot > targets;
+
+	private final double[] weights;
+
+	private TrackastraLastRun( final String key, final long[] fingerprints, final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	{
+		this.key = key;
+		this.fingerprints = fingerprints;
+		final int n = graph.edgeSet().size();
+		this.sources = new ArrayList<>( n );
+		this.targets = new ArrayList<>( n );
+		this.weights = new double[ n ];
+		int i = 0;
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			sources.add( graph.getEdgeSource( edge ) );
+			targets.add( graph.getEdgeTarget( edge ) );
+			weights[ i++ ] = graph.getEdgeWeight( edge );
+		}
+	}
+
+	/**
+	 * Records the result of a run.
+	 *
+	 * @param key
+	 *            a string identifying the image and the settings of the run.
+	 * @param spots
+	 *            the spots that were tracked.
+	 * @param nFrames
+	 *            the number of frames of the image.
+	 * @param graph
+	 *            the result of the run.
+	 */
+	public static synchronized void record( final String key, final SpotCollection spots, final int nFrames, final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	{
+		last = new TrackastraLastRun( key, fingerprints( spots, nFrames ), graph );
+	}
+
+	/**
+	 * Returns the last run, if it was made with the same key.
+	 *
+	 * @param key
+	 *            a string identifying the image and the settings of the run.
+	 * @return the last run, or <code>null</code>.
+	 */
+	public static synchronized TrackastraLastRun get( final String key )
+	{
+		return ( last != null && last.key.equals( key ) ) ? last : null;
+	}
+
+	/**
+	 * Forgets the last run.
+	 */
+	public static synchronized void clear()
+	{
+		last = null;
+	}
+
+	/**
+	 * Returns the frames whose spots changed since this run.
+	 *
+	 * @param spots
+	 *            the current spots.
+	 * @return the changed frames, 0-based, in increasing order.
+	 */
+	public int[] changedFrames( final SpotCollection spots )
+	{
+		final long[] current = fingerprints( spots, fingerprints.length );
+		final int[] changed = new int[ current.length ];
+		int n = 0;
+		for ( int t = 0; t < current.length; t++ )
+			if ( current[ t ] != fingerprints[ t ] )
+				changed[ n++ ] = t;
+		return Arrays.copyOf( changed, n );
+	}
+
+	/**
+	 * Returns the number of frames of this run.
+	 *
+	 * @return the number of frames.
+	 */
+	public int nFrames()
+	{
+		return fingerprints.length;
+	}
+
+	/**
+	 * Adds the edges of this run that do not touch the specified frames to
+	 * the specified stitcher.
+	 *
+	 * @param stitcher
+	 *            the stitcher.
+	 * @param changed
+	 *            whether a frame changed, indexed by frame.
+	 * @return the number of edges kept.
+	 */
+	public int keepUnchanged( final TrackastraStitcher stitcher, final boolean[] changed )
+	{
+		int n = 0;
+		for ( int i = 0; i < weights.length; i++ )
+		{
+			final Spot source = sources.get( i );
+			final Spot target = targets.get( i );
+			if ( changed[ frame( source ) ] || changed[ frame( target ) ] )
+				continue;
+			stitcher.add( source, target, weights[ i ] );
+			n++;
+		}
+		return n;
+	}
+
+	static int frame( final Spot spot )
+	{
+		return spot.getFeature( Spot.FRAME ).intValue();
+	}
+
+	private static long[] fingerprints( final SpotCollection spots, final int nFrames )
+	{
+		final long[] fingerprints = new long[ nFrames ];
+		for ( int t = 0; t < nFrames; t++ )
+		{
+			// Order-independent: the sum of the hashes of the spots.
+			long fingerprint = 0;
+			for ( final Spot spot : spots.iterable( t, false ) )
+			{
+				long h = spot.ID();
+				h = 31 * h + Double.doubleToLongBits( spot.getDoublePosition( 0 ) );
+				h = 31 * h + Double.doubleToLongBits( spot.getDoublePosition( 1 ) );
+				h = 31 * h + Double.doubleToLongBits( spot.getDoublePosition( 2 ) );
+				final Double radius = spot.getFeature( Spot.RADIUS );
+				h = 31 * h + ( radius == null ? 0 : Double.doubleToLongBits( radius ) );
+				h = 31 * h + shape( spot );
+				fingerprint += mix( h );
+			}
+			fingerprints[ t ] = fingerprint;
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * Returns a hash of the shape of a spot: its ROI polygon or its mesh, 0
+	 * for a spot with neither.
+	 */
+	private static long shape( final Spot spot )
+	{
+		long h = 0;
+		if ( spot instanceof SpotRoi )
+		{
+			final SpotRoi roi = ( SpotRoi ) spot;
+			h = roi.nPoints();
+			for ( int i = 0; i < roi.nPoints(); i++ )
+			{
+				h = 31 * h + Double.doubleToLongBits( roi.xr( i ) );
+				h = 31 * h + Double.doubleToLongBits( roi.yr( i ) );
+			}
+		}
+		else if ( spot instanceof SpotMesh )
+		{
+			final Mesh mesh = ( ( SpotMesh ) spot ).getMesh();
+			final Vertices vertices = mesh.vertices();
+			h = 31 * vertices.size() + mesh.triangles().size();
+			for ( long i = 0; i < vertices.size(); i++ )
+			{
+				h = 31 * h + Double.doubleToLongBits( vertices.x( i ) );
+				h = 31 * h + Double.doubleToLongBits( vertices.y( i ) );
+				h = 31 * h + Double.doubleToLongBits( vertices.z( i ) );
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Finalizer of SplitMix64, to spread the bits of a spot hash before
+	 * summing.
+	 */
+	private static long mix( long z )
+	{
+		z = ( z ^ ( z >>> 30 ) ) * 0xbf58476d1ce4e5b9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94d049bb133111ebL;
+		return z ^ ( z >>> 31 );
+	}
+}
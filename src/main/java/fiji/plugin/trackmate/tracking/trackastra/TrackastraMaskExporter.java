@@ -0,0 +1,259 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraTiffWriter.PixelFormat;
+import fiji.plugin.trackmate.util.SpotUtil;
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+
+/**
+ * Paints the spots of a {@link SpotCollection} as label masks, one frame at a
+ * time.
+ * <p>
+ * Contrary to {@link fiji.plugin.trackmate.action.LabelImgExporter}, the
+ * whole-movie label image is never built. Each call to
+ * {@link #paint(int, String)} allocates the planes of a single frame, so the
+ * peak memory used for masks is one frame, whatever the length of the movie.
+ * <p>
+ * Labels are numbered per frame, from 1, in the iteration order of the spot
+ * collection, like for
+ * {@link fiji.plugin.trackmate.action.LabelImgExporter.LabelIdPainting#LABEL_IS_INDEX}.
+ * Trackastra identifies objects by frame and label, so labels need not be
+ * unique over the movie, and the number of spots of a movie is not limited by
+ * the label range. Masks are 16-bit when every frame has at most 65535
+ * spots, and 32-bit otherwise.
+ * <p>
+ * The label of each spot is recorded in a {@link TrackastraLabelTable} while
+ * it is painted, so that the results of Trackastra can be imported without
+ * reading the masks back.
+ */
+public class TrackastraMaskExporter
+{
+
+	/**
+	 * The largest label a 16-bit mask can hold.
+	 */
+	private static final int MAX_LABEL_16 = 65535;
+
+	private final SpotCollection spots;
+
+	private final int width;
+
+	private final int height;
+
+	private final int nZ;
+
+	private final int nT;
+
+	private final Calibration calibration;
+
+	/**
+	 * The pixel format of the masks, chosen from the largest number of spots
+	 * in a frame.
+	 */
+	private final PixelFormat format;
+
+	/**
+	 * The label table, filled as frames are painted.
+	 */
+	private final TrackastraLabelTable labels;
+
+	/**
+	 * Creates an exporter for the specified spots, painting masks with the
+	 * size and calibration of the specified image.
+	 *
+	 * @param spots
+	 *            the spots to paint.
+	 * @param imp
+	 *            the source image.
+	 */
+	public TrackastraMaskExporter( final SpotCollection spots, final ImagePlus imp )
+	{
+		this.spots = spots;
+		this.width = imp.getWidth();
+		this.height = imp.getHeight();
+		this.nZ = imp.getNSlices();
+		this.nT = imp.getNFrames();
+		this.calibration = imp.getCalibration().copy();
+		this.labels = new TrackastraLabelTable( nT );
+		int maxSpots = 0;
+		for ( int frame = 0; frame < nT; frame++ )
+			maxSpots = Math.max( maxSpots, spots.getNSpots( frame, false ) );
+		this.format = ( maxSpots <= MAX_LABEL_16 ) ? PixelFormat.GRAY16 : PixelFormat.GRAY32_UINT;
+	}
+
+	/**
+	 * Returns the number of frames this exporter can paint.
+	 *
+	 * @return the number of frames.
+	 */
+	public int getNFrames()
+	{
+		return nT;
+	}
+
+	/**
+	 * Returns the pixel format of the planes returned by
+	 * {@link #paintPlanes(int)}: {@link PixelFormat#GRAY16} if every frame
+	 * has at most 65535 spots, {@link PixelFormat#GRAY32_UINT} otherwise.
+	 *
+	 * @return the pixel format of the masks.
+	 */
+	public PixelFormat pixelFormat()
+	{
+		return format;
+	}
+
+	/**
+	 * Returns the table of frame and label to spot, for the labels this
+	 * exporter paints. Frames painted with {@link #paint(int, String)} were
+	 * recorded while painting; the others are recorded now, without painting
+	 * any pixel.
+	 *
+	 * @return the label table.
+	 */
+	public TrackastraLabelTable labelTable()
+	{
+		for ( int frame = 0; frame < nT; frame++ )
+			if ( !labels.has( frame ) )
+				record( frame );
+		return labels;
+	}
+
+	private Spot[] record( final int frame )
+	{
+		final Spot[] frameSpots = new Spot[ spots.getNSpots( frame, false ) ];
+		int i = 0;
+		for ( final Spot spot : spots.iterable( frame, false ) )
+			frameSpots[ i++ ] = spot;
+		labels.set( frame, 1, frameSpots );
+		return frameSpots;
+	}
+
+	/**
+	 * Paints the spots of the specified frame in a new label image.
+	 * <p>
+	 * The returned image has the width, height, number of Z slices and the
+	 * spatial calibration of the source image, and a single frame. It is
+	 * 16-bit if the masks are {@link PixelFormat#GRAY16}. Otherwise, the
+	 * labels are painted as unsigned ints, as by {@link #paintPlanes(int)},
+	 * and converted to a 32-bit float image, since ImageJ has no 32-bit
+	 * integer type. The float image holds labels exactly up to
+	 * 2<sup>24</sup>. The masks written for Trackastra do not go through this
+	 * image, and hold every label exactly.
+	 *
+	 * @param frame
+	 *            the frame to paint, 0-based.
+	 * @param title
+	 *            the title of the image to return.
+	 * @return a new label image.
+	 */
+	public ImagePlus paint( final int frame, final String title )
+	{
+		final ImageStack stack = new ImageStack( width, height );
+		if ( format == PixelFormat.GRAY16 )
+		{
+			for ( int z = 0; z < nZ; z++ )
+				stack.addSlice( null, new short[ width * height ] );
+		}
+		else
+		{
+			for ( final Object plane : paintPlanes( frame ) )
+			{
+				final int[] labels = ( int[] ) plane;
+				final float[] pixels = new float[ labels.length ];
+				for ( int i = 0; i < labels.length; i++ )
+					pixels[ i ] = labels[ i ] & 0xffffffffL;
+				stack.addSlice( null, pixels );
+			}
+		}
+
+		final ImagePlus mask = new ImagePlus( title, stack );
+		mask.setDimensions( 1, nZ, 1 );
+		mask.setCalibration( calibration );
+
+		if ( format == PixelFormat.GRAY16 )
+			paint( record( frame ), TMUtils.rawWraps( mask ) );
+		return mask;
+	}
+
+	/**
+	 * Paints the spots of the specified frame, and returns the pixel arrays
+	 * of the Z planes, ready to be written in the format returned by
+	 * {@link #pixelFormat()}: <code>short[]</code> for 16-bit masks,
+	 * <code>int[]</code> for 32-bit masks.
+	 *
+	 * @param frame
+	 *            the frame to paint, 0-based.
+	 * @return the planes of the frame.
+	 */
+	public List< Object > paintPlanes( final int frame )
+	{
+		if ( format == PixelFormat.GRAY16 )
+			return TrackastraFrameStore.planes( paint( frame, "" ), 1, 1 );
+
+		// 32-bit: paint unsigned ints directly, exact whatever the label.
+		final PlanarImg< UnsignedIntType, IntArray > img = ( nZ > 1 )
+				? PlanarImgs.unsignedInts( width, height, nZ )
+				: PlanarImgs.unsignedInts( width, height );
+		final AxisType[] axes = ( nZ > 1 )
+				? new AxisType[] { Axes.X, Axes.Y, Axes.Z }
+				: new AxisType[] { Axes.X, Axes.Y };
+		final double[] cal = ( nZ > 1 )
+				? new double[] { calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth }
+				: new double[] { calibration.pixelWidth, calibration.pixelHeight };
+		paint( record( frame ), new ImgPlus<>( img, "", axes, cal ) );
+
+		final List< Object > planes = new ArrayList<>( nZ );
+		for ( int z = 0; z < nZ; z++ )
+			planes.add( img.getPlane( z ).getCurrentStorageArray() );
+		return planes;
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static void paint( final Spot[] frameSpots, final ImgPlus img )
+	{
+		int label = 0;
+		for ( final Spot spot : frameSpots )
+		{
+			label++;
+			for ( final Object pixel : SpotUtil.iterable( spot, img ) )
+				( ( RealType ) pixel ).setReal( label );
+		}
+	}
+}
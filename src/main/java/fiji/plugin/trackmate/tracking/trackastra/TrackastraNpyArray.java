@@ -0,0 +1,314 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraTiffWriter.PixelFormat;
+
+/**
+ * Exchanges a whole movie as a single, contiguous NumPy <code>.npy</code>
+ * array of shape <code>(T, Y, X)</code> or <code>(T, Z, Y, X)</code>.
+ * <p>
+ * The file is created once with its final size, and each plane is written at
+ * its own offset with positional writes, so that frames can be written
+ * concurrently. No region of the file is memory-mapped, so that the file can
+ * be deleted as soon as it is closed, including on Windows. On the Python
+ * side, the array can be opened without copy with
+ * <code>numpy.load( path, mmap_mode='r' )</code>.
+ */
+public class TrackastraNpyArray implements TrackastraFrameStore
+{
+
+	private static final byte[] MAGIC = new byte[] { ( byte ) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0 };
+
+	private static final int ALIGNMENT = 64;
+
+	/**
+	 * Size of the buffer planes are converted to bytes through.
+	 */
+	private static final int CHUNK_BYTES = 1 << 20;
+
+	private final Path path;
+
+	private final FileChannel channel;
+
+	private final PixelFormat format;
+
+	private final int nZ;
+
+	private final int width;
+
+	private final int height;
+
+	private final long headerLength;
+
+	private final long planeBytes;
+
+	private TrackastraNpyArray(
+			final Path path,
+			final FileChannel channel,
+			final PixelFormat format,
+			final int nZ,
+			final int height,
+			final int width,
+			final long headerLength )
+	{
+		this.path = path;
+		this.channel = channel;
+		this.format = format;
+		this.nZ = nZ;
+		this.height = height;
+		this.width = width;
+		this.headerLength = headerLength;
+		this.planeBytes = ( long ) width * height * format.bytesPerPixel();
+	}
+
+	/**
+	 * Creates a new <code>.npy</code> file with the specified shape, and
+	 * allocates its full size.
+	 *
+	 * @param path
+	 *            the path of the file to create.
+	 * @param format
+	 *            the pixel format. RGB is not supported.
+	 * @param nT
+	 *            the number of frames.
+	 * @param nZ
+	 *            the number of Z slices. If 1, the Z axis is omitted.
+	 * @param height
+	 *            the height of the planes.
+	 * @param width
+	 *            the width of the planes.
+	 * @return a new array.
+	 * @throws IOException
+	 *             if the file cannot be created.
+	 */
+	public static TrackastraNpyArray create(
+			final Path path,
+			final PixelFormat format,
+			final int nT,
+			final int nZ,
+			final int height,
+			final int width ) throws IOException
+	{
+		final long planeBytes = ( long ) width * height * format.bytesPerPixel();
+		final byte[] header = header( format, nT, nZ, height, width );
+		final FileChannel channel = FileChannel.open( path,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING );
+		try
+		{
+			final ByteBuffer buffer = ByteBuffer.wrap( header );
+			while ( buffer.hasRemaining() )
+				channel.write( buffer );
+			// Allocate the full size by writing the last byte.
+			final long size = header.length + planeBytes * nZ * nT;
+			if ( size > header.length )
+				channel.write( ByteBuffer.allocate( 1 ), size - 1 );
+		}
+		catch ( final IOException e )
+		{
+			channel.close();
+			throw e;
+		}
+		return new TrackastraNpyArray( path, channel, format, nZ, height, width, header.length );
+	}
+
+	@Override
+	public long write( final int t, final List< Object > planes ) throws IOException
+	{
+		final ByteBuffer buffer = chunk();
+		for ( int z = 0; z < nZ; z++ )
+		{
+			final Object pixels = planes.get( z );
+			long position = offset( t, z );
+			for ( int start = 0; start < width * height; start += buffer.capacity() / format.bytesPerPixel() )
+			{
+				buffer.clear();
+				final int n = Math.min( buffer.capacity() / format.bytesPerPixel(), width * height - start );
+				switch ( format )
+				{
+				case GRAY8:
+					buffer.put( ( byte[] ) pixels, start, n );
+					break;
+				case GRAY16:
+					buffer.asShortBuffer().put( ( short[] ) pixels, start, n );
+					break;
+				case GRAY32_FLOAT:
+					buffer.asFloatBuffer().put( ( float[] ) pixels, start, n );
+					break;
+				case GRAY32_UINT:
+					buffer.asIntBuffer().put( ( int[] ) pixels, start, n );
+					break;
+				default:
+					throw new IllegalArgumentException( "Unsupported pixel format: " + format );
+				}
+				buffer.position( 0 ).limit( n * format.bytesPerPixel() );
+				while ( buffer.hasRemaining() )
+					position += channel.write( buffer, position );
+			}
+		}
+		return nZ * planeBytes;
+	}
+
+	@Override
+	public List< Object > read( final int t ) throws IOException
+	{
+		final List< Object > planes = new ArrayList<>( nZ );
+		final ByteBuffer buffer = chunk();
+		try (final FileChannel in = FileChannel.open( path, StandardOpenOption.READ ))
+		{
+			for ( int z = 0; z < nZ; z++ )
+			{
+				final Object pixels = newPlane( format, width * height );
+				long position = offset( t, z );
+				for ( int start = 0; start < width * height; start += buffer.capacity() / format.bytesPerPixel() )
+				{
+					final int n = Math.min( buffer.capacity() / format.bytesPerPixel(), width * height - start );
+					buffer.clear().limit( n * format.bytesPerPixel() );
+					while ( buffer.hasRemaining() )
+					{
+						final int read = in.read( buffer, position );
+						if ( read < 0 )
+							throw new IOException( "Unexpected end of file in " + path );
+						position += read;
+					}
+					buffer.flip();
+					switch ( format )
+					{
+					case GRAY8:
+						buffer.get( ( byte[] ) pixels, start, n );
+						break;
+					case GRAY16:
+						buffer.asShortBuffer().get( ( short[] ) pixels, start, n );
+						break;
+					case GRAY32_FLOAT:
+						buffer.asFloatBuffer().get( ( float[] ) pixels, start, n );
+						break;
+					case GRAY32_UINT:
+						buffer.asIntBuffer().get( ( int[] ) pixels, start, n );
+						break;
+					default:
+						throw new IllegalArgumentException( "Unsupported pixel format: " + format );
+					}
+				}
+				planes.add( pixels );
+			}
+		}
+		return planes;
+	}
+
+	private static Object newPlane( final PixelFormat format, final int n )
+	{
+		switch ( format )
+		{
+		case GRAY8:
+			return new byte[ n ];
+		case GRAY16:
+			return new short[ n ];
+		case GRAY32_FLOAT:
+			return new float[ n ];
+		case GRAY32_UINT:
+			return new int[ n ];
+		default:
+			throw new IllegalArgumentException( "Unsupported pixel format: " + format );
+		}
+	}
+
+	/**
+	 * Returns a new buffer to convert planes through, one chunk at a time.
+	 */
+	private ByteBuffer chunk()
+	{
+		return ByteBuffer.allocate( ( int ) Math.min( planeBytes, CHUNK_BYTES ) ).order( ByteOrder.LITTLE_ENDIAN );
+	}
+
+	@Override
+	public Path location()
+	{
+		return path;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	private long offset( final int t, final int z )
+	{
+		return headerLength + ( ( long ) ( t - 1 ) * nZ + z ) * planeBytes;
+	}
+
+	/**
+	 * Builds a version 1.0 <code>.npy</code> header, padded so that the data
+	 * starts on a 64-byte boundary.
+	 */
+	private static byte[] header( final PixelFormat format, final int nT, final int nZ, final int height, final int width )
+	{
+		final String descr;
+		switch ( format )
+		{
+		case GRAY8:
+			descr = "|u1";
+			break;
+		case GRAY16:
+			descr = "<u2";
+			break;
+		case GRAY32_FLOAT:
+			descr = "<f4";
+			break;
+		case GRAY32_UINT:
+			descr = "<u4";
+			break;
+		default:
+			throw new IllegalArgumentException( "Unsupported pixel format for a .npy array: " + format );
+		}
+		final String shape = ( nZ > 1 )
+				? "(" + nT + ", " + nZ + ", " + height + ", " + width + ")"
+				: "(" + nT + ", " + height + ", " + width + ")";
+		final StringBuilder dict = new StringBuilder( "{'descr': '" + descr + "', 'fortran_order': False, 'shape': " + shape + ", }" );
+		final int unpadded = MAGIC.length + 2 + dict.length() + 1;
+		final int padding = ( ALIGNMENT - unpadded % ALIGNMENT ) % ALIGNMENT;
+		for ( int i = 0; i < padding; i++ )
+			dict.append( ' ' );
+		dict.append( '\n' );
+
+		final byte[] dictBytes = dict.toString().getBytes( StandardCharsets.US_ASCII );
+		final ByteBuffer buffer = ByteBuffer.allocate( MAGIC.length + 2 + dictBytes.length ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.put( MAGIC );
+		buffer.putShort( ( short ) dictBytes.length );
+		buffer.put( dictBytes );
+		return buffer.array();
+	}
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fiji.plugin.trackmate.Logger;
+
+/**
+ * Reads the output of a Trackastra process from its pipe, on a dedicated
+ * thread, and forwards it to a {@link Logger} as it comes.
+ * <p>
+ * Progress bars printed by Trackastra, with tqdm, are parsed into calls to
+ * {@link Logger#setProgress(double)} and {@link Logger#setStatus(String)}.
+ * tqdm redraws its bar by ending lines with a carriage return; these updates
+ * are not logged, only the last state of each bar is. The raw output is also
+ * mirrored to a log file.
+ */
+public class TrackastraOutputReader implements AutoCloseable
+{
+
+	/**
+	 * Matches a tqdm progress bar, like
+	 * <code>Predicting windows:  45%|####5     | 45/100 [00:10&lt;00:12]</code>,
+	 * capturing the description and the percentage.
+	 */
+	private static final Pattern TQDM = Pattern.compile( "^\\s*(?:(.*?):\\s*)?(\\d{1,3})%\\|" );
+
+	private final Thread thread;
+
+	/**
+	 * Starts reading the specified stream.
+	 *
+	 * @param in
+	 *            the output of the process, typically with the error stream
+	 *            redirected to it.
+	 * @param mirror
+	 *            the file to append the raw output to. Can be
+	 *            <code>null</code>.
+	 * @param logger
+	 *            the logger to forward the output to.
+	 */
+	public TrackastraOutputReader( final InputStream in, final File mirror, final Logger logger )
+	{
+		this.thread = new Thread( () -> read( in, mirror, logger ), "Trackastra output reader" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Waits for the reader to reach the end of the stream, that is closed when
+	 * the process exits.
+	 */
+	@Override
+	public void close() throws InterruptedException
+	{
+		thread.join( 5000 );
+	}
+
+	private static void read( final InputStream in, final File mirror, final Logger logger )
+	{
+		try (final Reader reader = new InputStreamReader( in, StandardCharsets.UTF_8 );
+				final Writer out = ( mirror == null )
+						? new StringWriter( 0 )
+						: new BufferedWriter( new OutputStreamWriter( new FileOutputStream( mirror, true ), StandardCharsets.UTF_8 ) ))
+		{
+			final char[] buffer = new char[ 8192 ];
+			final StringBuilder line = new StringBuilder();
+			int n;
+			while ( ( n = reader.read( buffer ) ) >= 0 )
+			{
+				if ( mirror != null )
+					out.write( buffer, 0, n );
+				for ( int i = 0; i < n; i++ )
+				{
+					final char c = buffer[ i ];
+					if ( c != '\n' && c != '\r' )
+					{
+						line.append( c );
+						continue;
+					}
+					segment( line.toString(), c == '\n', logger );
+					line.setLength( 0 );
+				}
+				out.flush();
+			}
+			if ( line.length() > 0 )
+				segment( line.toString(), true, logger );
+		}
+		catch ( final IOException e )
+		{
+			// The pipe is closed when the process is killed.
+		}
+	}
+
+	/**
+	 * Handles one segment of output, ended by a new line or by a carriage
+	 * return.
+	 *
+	 * @param segment
+	 *            the segment, without its end character.
+	 * @param newLine
+	 *            whether the segment was ended by a new line. Segments ended
+	 *            by a carriage return are redrawn by the next one.
+	 * @param logger
+	 *            the logger to forward the segment to.
+	 */
+	static void segment( final String segment, final boolean newLine, final Logger logger )
+	{
+		if ( segment.isEmpty() )
+			return;
+		final Matcher m = TQDM.matcher( segment );
+		if ( !m.find() )
+		{
+			logger.log( segment + '\n' );
+			return;
+		}
+		final String stage = m.group( 1 );
+		final int percent = Math.min( 100, Integer.parseInt( m.group( 2 ) ) );
+		if ( stage != null && !stage.isEmpty() )
+			logger.setStatus( stage.trim() );
+		logger.setProgress( percent / 100. );
+		if ( newLine )
+			logger.log( segment.trim() + '\n' );
+	}
+}
@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/**
+ * Reads the planes of one channel of a virtual image, one at a time, for
+ * export.
+ * <p>
+ * The planes of a frame are returned as a lazy list: each plane is loaded
+ * from the stack when it is got from the list, for instance on the source
+ * stage of a {@link TrackastraExportPipeline}, and is not referenced by the
+ * list afterwards, so that it can be released as soon as it is written. This
+ * applies to ImageJ virtual stacks as well as to ImgLib2 cached images
+ * wrapped as an {@link ImagePlus}.
+ * <p>
+ * Optionally, the next planes, in frame and Z order, are loaded on a
+ * background thread while the current one is written. At most
+ * <code>prefetch</code> planes are loaded ahead, so the memory used by the
+ * export stays at a few planes per writing thread. Each plane must be read
+ * once.
+ */
+public class TrackastraPlaneReader implements AutoCloseable
+{
+
+	private final ImagePlus imp;
+
+	private final int c;
+
+	private final int nZ;
+
+	private final int nPlanes;
+
+	private final int prefetch;
+
+	private final ExecutorService prefetcher;
+
+	/**
+	 * Planes loaded ahead, by position in frame and Z order.
+	 */
+	private final Map< Integer, Future< Object > > pending = new HashMap<>();
+
+	/**
+	 * Positions of the planes already read.
+	 */
+	private final BitSet read;
+
+	/**
+	 * Position of the next plane to load ahead.
+	 */
+	private int next;
+
+	/**
+	 * Creates a reader for one channel of an image.
+	 *
+	 * @param imp
+	 *            the image, typically backed by a virtual stack.
+	 * @param c
+	 *            the channel to read, 1-based.
+	 * @param prefetch
+	 *            the maximal number of planes loaded ahead on a background
+	 *            thread. If 0, planes are only loaded when they are read.
+	 */
+	public TrackastraPlaneReader( final ImagePlus imp, final int c, final int prefetch )
+	{
+		this.imp = imp;
+		this.c = c;
+		this.nZ = imp.getNSlices();
+		this.nPlanes = nZ * imp.getNFrames();
+		this.prefetch = Math.max( 0, prefetch );
+		this.read = new BitSet( nPlanes );
+		if ( this.prefetch > 0 )
+		{
+			this.prefetcher = Executors.newSingleThreadExecutor( r -> {
+				final Thread thread = new Thread( r, "Trackastra plane prefetcher" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		else
+		{
+			this.prefetcher = null;
+		}
+	}
+
+	/**
+	 * Returns the planes of one frame, loaded when they are read. Each plane
+	 * of the returned list must be read once.
+	 *
+	 * @param t
+	 *            the frame, 1-based.
+	 * @return a lazy list of the pixel arrays of the Z planes of the frame.
+	 */
+	public List< Object > planes( final int t )
+	{
+		return new AbstractList< Object >()
+		{
+
+			@Override
+			public Object get( final int z )
+			{
+				if ( z < 0 || z >= nZ )
+					throw new IndexOutOfBoundsException( "Z index " + z + " out of [0, " + nZ + "[." );
+				return read( ( t - 1 ) * nZ + z );
+			}
+
+			@Override
+			public int size()
+			{
+				return nZ;
+			}
+		};
+	}
+
+	/**
+	 * Returns the plane at the specified position, waiting for it if it is
+	 * being loaded ahead, and loads the next ones ahead.
+	 */
+	private Object read( final int position )
+	{
+		final Future< Object > future;
+		synchronized ( this )
+		{
+			read.set( position );
+			future = pending.remove( position );
+			prefetchFrom( position + 1 );
+		}
+
+		if ( future == null )
+			return load( position );
+		try
+		{
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			return load( position );
+		}
+		catch ( final ExecutionException | CancellationException e )
+		{
+			// Retry on this thread, to report the error to the writer.
+			return load( position );
+		}
+	}
+
+	/**
+	 * Schedules the loading of the planes after the specified position that
+	 * are not read nor loaded yet, up to the prefetch limit.
+	 */
+	private void prefetchFrom( final int position )
+	{
+		if ( prefetcher == null )
+			return;
+
+		next = Math.max( next, position );
+		while ( next < nPlanes && pending.size() < prefetch )
+		{
+			final int p = next++;
+			if ( read.get( p ) || pending.containsKey( p ) )
+				continue;
+			pending.put( p, prefetcher.submit( () -> load( p ) ) );
+		}
+	}
+
+	private Object load( final int position )
+	{
+		final int t = position / nZ + 1;
+		final int z = position % nZ + 1;
+		final ImageStack stack = imp.getStack();
+		return stack.getPixels( imp.getStackIndex( c, z, t ) );
+	}
+
+	/**
+	 * Stops loading planes ahead, and drops the planes loaded but not read.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized ( this )
+		{
+			pending.values().forEach( f -> f.cancel( true ) );
+			pending.clear();
+		}
+		if ( prefetcher != null )
+			prefetcher.shutdownNow();
+	}
+}
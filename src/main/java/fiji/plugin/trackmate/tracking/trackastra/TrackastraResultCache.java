@@ -0,0 +1,425 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import ij.ImagePlus;
+import ij.measure.Calibration;
+
+/**
+ * A content-addressed, on-disk cache of Trackastra edge tables.
+ * <p>
+ * Entries are keyed by a SHA-256 hash of everything Trackastra sees: the
+ * painted masks, which capture the frames, labels and shapes of the spots,
+ * the pixels of the exported image channel, and the values of the arguments
+ * that change the results. The value is the edge table returned by
+ * Trackastra.
+ * <p>
+ * The cache is bounded in size. When it grows larger than its maximal size,
+ * the least recently used entries are evicted.
+ */
+public class TrackastraResultCache
+{
+
+	private static final String EXTENSION = ".csv";
+
+	private final Path folder;
+
+	private final long maxSize;
+
+	/**
+	 * Creates a cache in the specified folder.
+	 *
+	 * @param folder
+	 *            the cache folder. It is created if it does not exist.
+	 * @param maxSize
+	 *            the maximal size of the cache, in bytes.
+	 */
+	public TrackastraResultCache( final Path folder, final long maxSize )
+	{
+		this.folder = folder;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the cached edge table for the specified key, and marks it as
+	 * recently used.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the path to the cached edge table, or <code>null</code> if
+	 *         there is none.
+	 */
+	public Path lookup( final String key )
+	{
+		final Path path = folder.resolve( key + EXTENSION );
+		if ( !Files.isRegularFile( path ) )
+			return null;
+		try
+		{
+			Files.setLastModifiedTime( path, FileTime.fromMillis( System.currentTimeMillis() ) );
+		}
+		catch ( final IOException e )
+		{}
+		return path;
+	}
+
+	/**
+	 * Stores a copy of the specified edge table under the specified key, then
+	 * evicts the least recently used entries if the cache is too large.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param edgeTable
+	 *            the edge table to cache.
+	 * @throws IOException
+	 *             if the edge table cannot be copied to the cache.
+	 */
+	public void store( final String key, final Path edgeTable ) throws IOException
+	{
+		Files.createDirectories( folder );
+		final Path tmp = Files.createTempFile( folder, key, ".tmp" );
+		try
+		{
+			Files.copy( edgeTable, tmp, StandardCopyOption.REPLACE_EXISTING );
+			Files.move( tmp, folder.resolve( key + EXTENSION ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		finally
+		{
+			Files.deleteIfExists( tmp );
+		}
+		evict();
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache fits in its
+	 * maximal size.
+	 *
+	 * @throws IOException
+	 *             if the cache folder cannot be listed.
+	 */
+	public void evict() throws IOException
+	{
+		final List< Path > entries;
+		try (Stream< Path > stream = Files.list( folder ))
+		{
+			entries = stream
+					.filter( p -> p.getFileName().toString().endsWith( EXTENSION ) )
+					.sorted( Comparator.comparing( TrackastraResultCache::lastModified ) )
+					.collect( Collectors.toList() );
+		}
+		long size = 0;
+		for ( final Path entry : entries )
+			size += Files.size( entry );
+
+		for ( final Path entry : entries )
+		{
+			if ( size <= maxSize )
+				break;
+			final long entrySize = Files.size( entry );
+			if ( Files.deleteIfExists( entry ) )
+				size -= entrySize;
+		}
+	}
+
+	private static long lastModified( final Path path )
+	{
+		try
+		{
+			return Files.getLastModifiedTime( path ).toMillis();
+		}
+		catch ( final IOException e )
+		{
+			return 0L;
+		}
+	}
+
+	/**
+	 * Computes the cache key of a Trackastra run.
+	 * <p>
+	 * Masks are painted and hashed one frame at a time, so that memory stays
+	 * bounded. Frames are hashed in parallel. To hash the frames while they
+	 * are exported instead, without painting the masks twice, use a
+	 * {@link KeyBuilder}.
+	 * <p>
+	 * If Trackastra reads the source image from its files, the image frames
+	 * are identified by their file, as with
+	 * {@link KeyBuilder#imageFile(int, Path)}, and their pixels are not
+	 * read.
+	 *
+	 * @param exporter
+	 *            the mask exporter of the run.
+	 * @param imp
+	 *            the source image.
+	 * @param c
+	 *            the exported channel, 1-based.
+	 * @param sourceFiles
+	 *            the files Trackastra reads the source image from, one per
+	 *            frame, or <code>null</code> if the image is exported.
+	 * @param arguments
+	 *            a string representation of the arguments that change the
+	 *            results.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return the key, as an hexadecimal string.
+	 * @throws ExecutionException
+	 *             if a frame cannot be hashed, or the attributes of its file
+	 *             cannot be read.
+	 * @throws InterruptedException
+	 *             if interrupted while hashing.
+	 */
+	public static String key(
+			final TrackastraMaskExporter exporter,
+			final ImagePlus imp,
+			final int c,
+			final List< Path > sourceFiles,
+			final String arguments,
+			final int numThreads ) throws InterruptedException, ExecutionException
+	{
+		final int nT = imp.getNFrames();
+		final KeyBuilder builder = new KeyBuilder( imp, arguments );
+		final ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
+		try
+		{
+			final List< Future< ? > > futures = new ArrayList<>( nT );
+			for ( int t = 1; t <= nT; t++ )
+			{
+				final int frame = t;
+				futures.add( executor.submit( () -> {
+					builder.mask( frame, exporter.paintPlanes( frame - 1 ) );
+					if ( sourceFiles == null )
+						builder.image( frame, TrackastraFrameStore.planes( imp, c, frame ) );
+					else
+						builder.imageFile( frame, sourceFiles.get( frame - 1 ) );
+					return null;
+				} ) );
+			}
+			for ( final Future< ? > future : futures )
+				future.get();
+			return builder.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Builds the cache key of a run from the planes of its frames, given in
+	 * any order and from any thread, for instance as they are exported. The
+	 * key is the same as the one returned by
+	 * {@link TrackastraResultCache#key(TrackastraMaskExporter, ImagePlus, int, List, String, int)}
+	 * for the same content.
+	 * <p>
+	 * When Trackastra reads the source image from its files, the image frames
+	 * can be identified by their file instead, with
+	 * {@link #imageFile(int, Path)}. The key then differs from the one of the
+	 * pixels, so it only matches runs reading the same files.
+	 */
+	public static class KeyBuilder
+	{
+
+		private final String header;
+
+		private final byte[][] masks;
+
+		private final byte[][] images;
+
+		/**
+		 * Creates a key builder for the frames of the specified image.
+		 *
+		 * @param imp
+		 *            the source image.
+		 * @param arguments
+		 *            a string representation of the arguments that change
+		 *            the results.
+		 */
+		public KeyBuilder( final ImagePlus imp, final String arguments )
+		{
+			final int nT = imp.getNFrames();
+			final Calibration cal = imp.getCalibration();
+			this.header = imp.getWidth() + "x" + imp.getHeight() + "x" + imp.getNSlices() + "x" + nT
+					+ "|" + imp.getBitDepth()
+					+ "|" + cal.pixelWidth + "," + cal.pixelHeight + "," + cal.pixelDepth
+					+ "|" + arguments;
+			this.masks = new byte[ nT ][];
+			this.images = new byte[ nT ][];
+		}
+
+		/**
+		 * Hashes the mask planes of one frame.
+		 *
+		 * @param t
+		 *            the frame, 1-based.
+		 * @param planes
+		 *            the pixel arrays of the Z planes of the mask.
+		 */
+		public void mask( final int t, final List< Object > planes )
+		{
+			final MessageDigest md = sha256();
+			update( md, planes );
+			set( masks, t, md.digest() );
+		}
+
+		/**
+		 * Hashes the image planes of one frame.
+		 *
+		 * @param t
+		 *            the frame, 1-based.
+		 * @param planes
+		 *            the pixel arrays of the Z planes of the image.
+		 */
+		public void image( final int t, final List< Object > planes )
+		{
+			final MessageDigest md = sha256();
+			update( md, planes );
+			set( images, t, md.digest() );
+		}
+
+		/**
+		 * Identifies the image of one frame by the file it is read from: its
+		 * path, size and last modification time.
+		 *
+		 * @param t
+		 *            the frame, 1-based.
+		 * @param file
+		 *            the file of the frame.
+		 * @throws IOException
+		 *             if the attributes of the file cannot be read.
+		 */
+		public void imageFile( final int t, final Path file ) throws IOException
+		{
+			final MessageDigest md = sha256();
+			md.update( ( "file|" + file.toAbsolutePath() + "|" + Files.size( file ) + "|" + Files.getLastModifiedTime( file ).toMillis() )
+					.getBytes( StandardCharsets.UTF_8 ) );
+			set( images, t, md.digest() );
+		}
+
+		private synchronized void set( final byte[][] digests, final int t, final byte[] digest )
+		{
+			digests[ t - 1 ] = digest;
+		}
+
+		/**
+		 * Returns the key, or <code>null</code> if a frame was not hashed,
+		 * for instance because its export failed.
+		 *
+		 * @return the key, as an hexadecimal string, or <code>null</code>.
+		 */
+		public synchronized String get()
+		{
+			final MessageDigest md = sha256();
+			md.update( header.getBytes( StandardCharsets.UTF_8 ) );
+			for ( int t = 0; t < masks.length; t++ )
+			{
+				if ( masks[ t ] == null || images[ t ] == null )
+					return null;
+				md.update( masks[ t ] );
+				md.update( images[ t ] );
+			}
+
+			final StringBuilder str = new StringBuilder();
+			for ( final byte b : md.digest() )
+				str.append( String.format( "%02x", b ) );
+			return str.toString();
+		}
+	}
+
+	private static void update( final MessageDigest md, final List< Object > planes )
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( 1 << 16 ).order( ByteOrder.LITTLE_ENDIAN );
+		for ( final Object pixels : planes )
+		{
+			if ( pixels instanceof byte[] )
+			{
+				md.update( ( byte[] ) pixels );
+			}
+			else if ( pixels instanceof short[] )
+			{
+				final short[] arr = ( short[] ) pixels;
+				final int chunk = buffer.capacity() / 2;
+				for ( int start = 0; start < arr.length; start += chunk )
+				{
+					final int n = Math.min( chunk, arr.length - start );
+					buffer.clear();
+					buffer.asShortBuffer().put( arr, start, n );
+					md.update( buffer.array(), 0, 2 * n );
+				}
+			}
+			else if ( pixels instanceof float[] )
+			{
+				final float[] arr = ( float[] ) pixels;
+				final int chunk = buffer.capacity() / 4;
+				for ( int start = 0; start < arr.length; start += chunk )
+				{
+					final int n = Math.min( chunk, arr.length - start );
+					buffer.clear();
+					buffer.asFloatBuffer().put( arr, start, n );
+					md.update( buffer.array(), 0, 4 * n );
+				}
+			}
+			else if ( pixels instanceof int[] )
+			{
+				final int[] arr = ( int[] ) pixels;
+				final int chunk = buffer.capacity() / 4;
+				for ( int start = 0; start < arr.length; start += chunk )
+				{
+					final int n = Math.min( chunk, arr.length - start );
+					buffer.clear();
+					buffer.asIntBuffer().put( arr, start, n );
+					md.update( buffer.array(), 0, 4 * n );
+				}
+			}
+		}
+	}
+
+	private static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance( "SHA-256" );
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			throw new IllegalStateException( e );
+		}
+	}
+}
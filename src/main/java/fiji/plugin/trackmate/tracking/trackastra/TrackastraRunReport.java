@@ -0,0 +1,314 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Logger;
+
+/**
+ * Timings and counters of one Trackastra run, to tell whether a slow run was
+ * bound by I/O or by inference.
+ * <p>
+ * Phases are timed in nanoseconds and reported in milliseconds. Phases run
+ * by several threads at once, like rasterizing and writing frames, are
+ * summed over threads, and can therefore exceed the wall time of the run.
+ * The time spent in each stage of inference is measured from the progress
+ * bars printed by Trackastra, forwarded through the logger returned by
+ * {@link #wrap(Logger)}.
+ */
+public class TrackastraRunReport
+{
+
+	public static final String TOTAL = "total";
+
+	public static final String MASK_RASTERIZATION = "mask_rasterization";
+
+	public static final String MASK_EXPORT = "mask_export";
+
+	public static final String IMAGE_EXPORT = "image_export";
+
+	public static final String EXPORT = "export";
+
+	public static final String STARTUP = "startup";
+
+	public static final String INFERENCE = "inference";
+
+	public static final String CSV_PARSING = "csv_parsing";
+
+	public static final String GRAPH_CONSTRUCTION = "graph_construction";
+
+	public static final String SPOTS = "spots";
+
+	public static final String FRAMES = "frames";
+
+	public static final String BYTES_WRITTEN = "bytes_written";
+
+	public static final String EDGES_READ = "edges_read";
+
+	public static final String EDGES_SKIPPED = "edges_skipped";
+
+	public static final String EDGES_ADDED = "edges_added";
+
+	private final Map< String, Long > times = new LinkedHashMap<>();
+
+	private final Map< String, Long > counters = new LinkedHashMap<>();
+
+	/**
+	 * For each inference stage, the time of its first and of its last
+	 * progress update.
+	 */
+	private final Map< String, long[] > stages = new LinkedHashMap<>();
+
+	private String stage = "";
+
+	private long firstProgress = -1;
+
+	/**
+	 * Adds time to a phase.
+	 *
+	 * @param phase
+	 *            the phase.
+	 * @param nanos
+	 *            the time to add, in nanoseconds.
+	 */
+	public synchronized void time( final String phase, final long nanos )
+	{
+		times.merge( phase, nanos, Long::sum );
+	}
+
+	/**
+	 * Adds the time elapsed since the specified start to a phase.
+	 *
+	 * @param phase
+	 *            the phase.
+	 * @param start
+	 *            the start of the phase, as returned by
+	 *            {@link System#nanoTime()}.
+	 */
+	public void since( final String phase, final long start )
+	{
+		time( phase, System.nanoTime() - start );
+	}
+
+	/**
+	 * Adds to a counter.
+	 *
+	 * @param counter
+	 *            the counter.
+	 * @param n
+	 *            the value to add.
+	 */
+	public synchronized void count( final String counter, final long n )
+	{
+		counters.merge( counter, n, Long::sum );
+	}
+
+	/**
+	 * Adds the timings and counters of another report to this one.
+	 *
+	 * @param other
+	 *            the report to add.
+	 */
+	public void merge( final TrackastraRunReport other )
+	{
+		final Map< String, Long > otherTimes;
+		final Map< String, Long > otherCounters;
+		final Map< String, long[] > otherStages;
+		synchronized ( other )
+		{
+			otherTimes = new LinkedHashMap<>( other.times );
+			otherCounters = new LinkedHashMap<>( other.counters );
+			otherStages = new LinkedHashMap<>( other.stages );
+		}
+		synchronized ( this )
+		{
+			otherTimes.forEach( this::time );
+			otherCounters.forEach( this::count );
+			// Stages of parts are summed, as their durations.
+			otherStages.forEach( ( k, v ) -> stages.merge( k, new long[] { 0, v[ 1 ] - v[ 0 ] },
+					( a, b ) -> new long[] { a[ 0 ], a[ 1 ] + b[ 1 ] } ) );
+		}
+	}
+
+	/**
+	 * Splits the time taken by Trackastra between startup, until its first
+	 * progress bar, and inference, after it.
+	 *
+	 * @param start
+	 *            when Trackastra was started, as returned by
+	 *            {@link System#nanoTime()}.
+	 */
+	public synchronized void ran( final long start )
+	{
+		final long end = System.nanoTime();
+		if ( firstProgress < start )
+		{
+			time( STARTUP, end - start );
+			return;
+		}
+		time( STARTUP, firstProgress - start );
+		time( INFERENCE, end - firstProgress );
+	}
+
+	/**
+	 * Returns a logger that forwards everything to the specified logger, and
+	 * times the inference stages from the progress it reports. The stage is
+	 * the last status set.
+	 *
+	 * @param logger
+	 *            the logger to forward to.
+	 * @return a new logger.
+	 */
+	public Logger wrap( final Logger logger )
+	{
+		return new Logger()
+		{
+
+			@Override
+			public void log( final String message, final Color color )
+			{
+				logger.log( message, color );
+			}
+
+			@Override
+			public void error( final String message )
+			{
+				logger.error( message );
+			}
+
+			@Override
+			public void setProgress( final double val )
+			{
+				progress();
+				logger.setProgress( val );
+			}
+
+			@Override
+			public void setStatus( final String status )
+			{
+				synchronized ( TrackastraRunReport.this )
+				{
+					stage = status;
+				}
+				logger.setStatus( status );
+			}
+		};
+	}
+
+	private synchronized void progress()
+	{
+		final long now = System.nanoTime();
+		if ( firstProgress < 0 )
+			firstProgress = now;
+		final long[] span = stages.computeIfAbsent( stage, s -> new long[] { now, now } );
+		span[ 1 ] = now;
+	}
+
+	/**
+	 * Returns the time spent in each phase.
+	 *
+	 * @return a new map of phase to time in milliseconds, in the order
+	 *         phases were first timed.
+	 */
+	public synchronized Map< String, Double > getTimes()
+	{
+		final Map< String, Double > out = new LinkedHashMap<>();
+		times.forEach( ( k, v ) -> out.put( k, v / 1e6 ) );
+		return out;
+	}
+
+	/**
+	 * Returns the time spent in each inference stage, from its first to its
+	 * last progress update.
+	 *
+	 * @return a new map of stage name to time in milliseconds.
+	 */
+	public synchronized Map< String, Double > getStageTimes()
+	{
+		final Map< String, Double > out = new LinkedHashMap<>();
+		stages.forEach( ( k, v ) -> out.put( k, ( v[ 1 ] - v[ 0 ] ) / 1e6 ) );
+		return out;
+	}
+
+	/**
+	 * Returns the counters.
+	 *
+	 * @return a new map of counter to value.
+	 */
+	public synchronized Map< String, Long > getCounters()
+	{
+		return new LinkedHashMap<>( counters );
+	}
+
+	/**
+	 * Returns this report as a JSON object.
+	 *
+	 * @return a JSON string.
+	 */
+	public String toJson()
+	{
+		final StringBuilder str = new StringBuilder( "{\n" );
+		str.append( "  \"times_ms\": " );
+		append( str, getTimes() );
+		str.append( ",\n  \"inference_stages_ms\": " );
+		append( str, getStageTimes() );
+		str.append( ",\n  \"counters\": " );
+		append( str, getCounters() );
+		return str.append( "\n}\n" ).toString();
+	}
+
+	/**
+	 * Writes this report as JSON to the specified file.
+	 *
+	 * @param file
+	 *            the file to write.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public void write( final Path file ) throws IOException
+	{
+		Files.write( file, toJson().getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private static void append( final StringBuilder str, final Map< String, ? extends Number > map )
+	{
+		str.append( '{' );
+		boolean first = true;
+		for ( final Map.Entry< String, ? extends Number > entry : map.entrySet() )
+		{
+			str.append( first ? "\n    " : ",\n    " );
+			first = false;
+			final Number value = entry.getValue();
+			str.append( TrackastraWorker.quote( entry.getKey() ) ).append( ": " )
+					.append( value instanceof Double ? String.format( Locale.US, "%.3f", value.doubleValue() ) : value.toString() );
+		}
+		str.append( first ? "}" : "\n  }" );
+	}
+}
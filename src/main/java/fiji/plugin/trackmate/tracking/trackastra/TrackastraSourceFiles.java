@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+
+/**
+ * Finds the TIFF files a source image was opened from, so that Trackastra can
+ * read them in place of an exported copy of the image.
+ * <p>
+ * Trackastra reads a folder with one TIFF file per frame. The files of an
+ * image can be reused when each frame of the tracked channel was opened from
+ * its own file, holding exactly the Z planes of this frame with the same
+ * size and pixel type. This is the case for:
+ * <ul>
+ * <li>a time-lapse opened as an image sequence, virtual or not, with one 2D
+ * plane per file;</li>
+ * <li>a single frame opened from a single file.</li>
+ * </ul>
+ * Images edited since they were opened, and multi-frame stacks stored in a
+ * single file, are always exported.
+ */
+public class TrackastraSourceFiles
+{
+
+	private TrackastraSourceFiles()
+	{}
+
+	/**
+	 * Returns the files holding the frames of the specified channel, one per
+	 * frame in frame order, or <code>null</code> if the image was not opened
+	 * from files Trackastra can read as they are.
+	 *
+	 * @param imp
+	 *            the source image.
+	 * @param c
+	 *            the channel to track, 1-based.
+	 * @return the files of the frames, or <code>null</code>.
+	 */
+	public static List< Path > find( final ImagePlus imp, final int c )
+	{
+		if ( imp.changes )
+			return null;
+
+		final List< Path > files = candidates( imp, c );
+		if ( files == null || new HashSet<>( files ).size() != files.size() )
+			return null;
+
+		for ( final Path file : files )
+			if ( !matches( file, imp ) )
+				return null;
+		return files;
+	}
+
+	/**
+	 * Returns a folder Trackastra can read the specified frame files from.
+	 * This is the folder of the files if it holds no other TIFF file and
+	 * their names sort in frame order. Otherwise, symbolic links to the
+	 * files, named <code>prefixNNNN.tif</code> with <code>NNNN</code> the
+	 * 1-based frame, are created in the specified folder.
+	 * <p>
+	 * Deleting the folder of links later does not delete the source files.
+	 *
+	 * @param files
+	 *            the files of the frames, in frame order.
+	 * @param folder
+	 *            the folder where to create links, if needed.
+	 * @param prefix
+	 *            the prefix of the link names.
+	 * @return the folder to pass to Trackastra.
+	 * @throws IOException
+	 *             if the links cannot be created, for instance on a file
+	 *             system that does not support them.
+	 */
+	public static Path link( final List< Path > files, final Path folder, final String prefix ) throws IOException
+	{
+		final Path source = files.get( 0 ).getParent();
+		if ( sameFolderInOrder( files, source ) )
+			return source;
+
+		for ( int t = 1; t <= files.size(); t++ )
+		{
+			final Path link = folder.resolve( String.format( "%s%04d.tif", prefix, t ) );
+			try
+			{
+				Files.createSymbolicLink( link, files.get( t - 1 ).toAbsolutePath() );
+			}
+			catch ( final UnsupportedOperationException | SecurityException e )
+			{
+				throw new IOException( "Could not create link " + link + ": " + e.getMessage() );
+			}
+		}
+		return folder;
+	}
+
+	/**
+	 * Returns the files the frames of the specified channel were opened from,
+	 * without checking their content.
+	 */
+	private static List< Path > candidates( final ImagePlus imp, final int c )
+	{
+		final int nT = imp.getNFrames();
+		final ImageStack stack = imp.getStack();
+		final List< Path > files = new ArrayList<>( nT );
+
+		// Virtual image sequence: one file per plane.
+		if ( stack instanceof VirtualStack )
+		{
+			final VirtualStack vs = ( VirtualStack ) stack;
+			if ( imp.getNSlices() != 1 || vs.getDirectory() == null )
+				return null;
+			for ( int t = 1; t <= nT; t++ )
+			{
+				final String name = vs.getFileName( imp.getStackIndex( c, 1, t ) );
+				if ( name == null || name.isEmpty() )
+					return null;
+				files.add( Paths.get( vs.getDirectory(), name ) );
+			}
+			return files;
+		}
+
+		final FileInfo fi = imp.getOriginalFileInfo();
+		if ( fi == null || fi.directory == null || fi.directory.isEmpty() )
+			return null;
+
+		// Single frame opened from a single file.
+		if ( nT == 1 && imp.getNChannels() == 1 )
+		{
+			if ( fi.fileName == null || fi.fileName.isEmpty() )
+				return null;
+			files.add( Paths.get( fi.directory, fi.fileName ) );
+			return files;
+		}
+
+		// Image sequence in memory: one file per plane, named by the slice labels.
+		if ( imp.getNSlices() != 1 )
+			return null;
+		for ( int t = 1; t <= nT; t++ )
+		{
+			final String label = stack.getSliceLabel( imp.getStackIndex( c, 1, t ) );
+			if ( label == null || label.isEmpty() )
+				return null;
+			// Slice labels may carry extra info after the file name.
+			files.add( Paths.get( fi.directory, label.split( "\n" )[ 0 ].trim() ) );
+		}
+		return files;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified file is a TIFF file with the
+	 * Z planes of one frame of the specified image, stored with the same size
+	 * and pixel type.
+	 */
+	private static boolean matches( final Path file, final ImagePlus imp )
+	{
+		if ( !Files.isRegularFile( file ) || !isTiff( file ) )
+			return false;
+
+		final FileInfo[] info;
+		try
+		{
+			info = new TiffDecoder( file.getParent().toString() + file.getFileSystem().getSeparator(),
+					file.getFileName().toString() ).getTiffInfo();
+		}
+		catch ( final IOException e )
+		{
+			return false;
+		}
+		if ( info == null || info.length == 0 )
+			return false;
+
+		final FileInfo first = info[ 0 ];
+		final int nImages = ( info.length == 1 ) ? Math.max( 1, first.nImages ) : info.length;
+		return first.width == imp.getWidth()
+				&& first.height == imp.getHeight()
+				&& nImages == imp.getNSlices()
+				&& first.fileType == fileType( imp.getBitDepth() );
+	}
+
+	/**
+	 * Returns the TIFF pixel type ImageJ opens as the specified bit depth,
+	 * without converting values.
+	 */
+	private static int fileType( final int bitDepth )
+	{
+		switch ( bitDepth )
+		{
+		case 8:
+			return FileInfo.GRAY8;
+		case 16:
+			return FileInfo.GRAY16_UNSIGNED;
+		case 32:
+			return FileInfo.GRAY32_FLOAT;
+		default:
+			return -1;
+		}
+	}
+
+	private static boolean isTiff( final Path file )
+	{
+		final String name = file.getFileName().toString().toLowerCase( Locale.ROOT );
+		return name.endsWith( ".tif" ) || name.endsWith( ".tiff" );
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified files are all the TIFF files
+	 * of the specified folder, and their names sort in frame order.
+	 */
+	private static boolean sameFolderInOrder( final List< Path > files, final Path folder )
+	{
+		for ( final Path file : files )
+			if ( !folder.equals( file.getParent() ) || !file.getFileName().toString().endsWith( ".tif" ) )
+				return false;
+
+		final Set< Path > inFolder;
+		try (Stream< Path > list = Files.list( folder ))
+		{
+			inFolder = list.filter( TrackastraSourceFiles::isTiff ).collect( Collectors.toSet() );
+		}
+		catch ( final IOException e )
+		{
+			return false;
+		}
+		if ( !inFolder.equals( new HashSet<>( files ) ) )
+			return false;
+
+		for ( int i = 1; i < files.size(); i++ )
+			if ( files.get( i - 1 ).getFileName().toString().compareTo( files.get( i ).getFileName().toString() ) >= 0 )
+				return false;
+		return true;
+	}
+}
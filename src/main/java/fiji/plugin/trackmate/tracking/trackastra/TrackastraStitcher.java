@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Stitches the links found by independent Trackastra runs on parts of the
+ * same movie.
+ * <p>
+ * Each run contributes the links it owns. Links are then accepted by
+ * decreasing score, so that when runs disagree near their borders, a spot
+ * keeps at most one parent and at most the allowed number of children, with
+ * the best scoring links.
+ */
+public class TrackastraStitcher
+{
+
+	private static final class Link
+	{
+		private final Spot source;
+
+		private final Spot target;
+
+		private final double weight;
+
+		private Link( final Spot source, final Spot target, final double weight )
+		{
+			this.source = source;
+			this.target = target;
+			this.weight = weight;
+		}
+	}
+
+	private final List< Link > links = new ArrayList<>();
+
+	private final int maxChildren;
+
+	/**
+	 * Creates a stitcher.
+	 *
+	 * @param maxChildren
+	 *            the maximal number of children of a spot, 2 when divisions
+	 *            are allowed, 1 otherwise.
+	 */
+	public TrackastraStitcher( final int maxChildren )
+	{
+		this.maxChildren = maxChildren;
+	}
+
+	/**
+	 * Adds the links found on a subset, mapped back to the original spots.
+	 *
+	 * @param subset
+	 *            the subset the links were found on.
+	 * @param result
+	 *            the graph found on the subset.
+	 * @param owned
+	 *            decides whether the subset owns a link, given its original
+	 *            source and target spots.
+	 * @return the number of links added.
+	 */
+	public synchronized int add( final TrackastraSubset subset, final SimpleWeightedGraph< Spot, DefaultWeightedEdge > result, final BiPredicate< Spot, Spot > owned )
+	{
+		int n = 0;
+		for ( final DefaultWeightedEdge edge : result.edgeSet() )
+		{
+			final Spot source = subset.original( result.getEdgeSource( edge ) );
+			final Spot target = subset.original( result.getEdgeTarget( edge ) );
+			if ( source == null || target == null || !owned.test( source, target ) )
+				continue;
+			links.add( new Link( source, target, result.getEdgeWeight( edge ) ) );
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Adds a single link between original spots.
+	 *
+	 * @param source
+	 *            the source spot.
+	 * @param target
+	 *            the target spot.
+	 * @param weight
+	 *            the score of the link.
+	 */
+	public synchronized void add( final Spot source, final Spot target, final double weight )
+	{
+		links.add( new Link( source, target, weight ) );
+	}
+
+	/**
+	 * Adds the stitched links to the specified graph.
+	 *
+	 * @param graph
+	 *            the graph to add the links to.
+	 * @return the number of links rejected because of a conflict.
+	 */
+	public synchronized int stitch( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	{
+		links.sort( Comparator.comparingDouble( ( final Link l ) -> l.weight ).reversed() );
+		final Map< Spot, Integer > nChildren = new IdentityHashMap<>();
+		final Map< Spot, Boolean > hasParent = new IdentityHashMap<>();
+		int nRejected = 0;
+		for ( final Link link : links )
+		{
+			final int children = nChildren.getOrDefault( link.source, 0 );
+			if ( children >= maxChildren || hasParent.containsKey( link.target ) )
+			{
+				nRejected++;
+				continue;
+			}
+			nChildren.put( link.source, children + 1 );
+			hasParent.put( link.target, Boolean.TRUE );
+			graph.addVertex( link.source );
+			graph.addVertex( link.target );
+			final DefaultWeightedEdge edge = graph.addEdge( link.source, link.target );
+			if ( edge != null )
+				graph.setEdgeWeight( edge, link.weight );
+		}
+		return nRejected;
+	}
+}
@@ -0,0 +1,244 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.awt.Rectangle;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+/**
+ * A part of a tracking problem, that Trackastra can process on its own: a
+ * sub-image of the source image, and copies of the spots it contains.
+ * <p>
+ * The spots are copied, so that adding them to the sub-collection does not
+ * change the frame of the original spots. Results found on the subset are
+ * mapped back to the original spots with {@link #original(Spot)}.
+ */
+public class TrackastraSubset
+{
+
+	private final ImagePlus imp;
+
+	private final SpotCollection spots;
+
+	private final Map< Spot, Spot > originals;
+
+	private final int firstFrame;
+
+	private TrackastraSubset( final ImagePlus imp, final SpotCollection spots, final Map< Spot, Spot > originals, final int firstFrame )
+	{
+		this.imp = imp;
+		this.spots = spots;
+		this.originals = originals;
+		this.firstFrame = firstFrame;
+	}
+
+	/**
+	 * Returns the sub-image.
+	 *
+	 * @return the sub-image.
+	 */
+	public ImagePlus imp()
+	{
+		return imp;
+	}
+
+	/**
+	 * Returns the copies of the spots in the subset, with frames relative to
+	 * the sub-image.
+	 *
+	 * @return the spot collection of the subset.
+	 */
+	public SpotCollection spots()
+	{
+		return spots;
+	}
+
+	/**
+	 * Returns the frame, in the source image, of the first frame of the
+	 * subset.
+	 *
+	 * @return the first frame, 0-based.
+	 */
+	public int firstFrame()
+	{
+		return firstFrame;
+	}
+
+	/**
+	 * Returns the original spot of a spot of the subset.
+	 *
+	 * @param copy
+	 *            a spot of the subset.
+	 * @return the original spot, or <code>null</code> if the spot does not
+	 *         belong to the subset.
+	 */
+	public Spot original( final Spot copy )
+	{
+		return originals.get( copy );
+	}
+
+	/**
+	 * Creates the subset made of a time window of the source image.
+	 * <p>
+	 * The planes of the sub-image share their pixels with the source image;
+	 * nothing is copied.
+	 *
+	 * @param imp
+	 *            the source image.
+	 * @param spots
+	 *            the spots of the source image.
+	 * @param t0
+	 *            the first frame of the window, 0-based, inclusive.
+	 * @param t1
+	 *            the last frame of the window, 0-based, exclusive.
+	 * @return a new subset.
+	 */
+	public static TrackastraSubset frames( final ImagePlus imp, final SpotCollection spots, final int t0, final int t1 )
+	{
+		final int nC = imp.getNChannels();
+		final int nZ = imp.getNSlices();
+		final ImageStack source = imp.getStack();
+		final ImageStack stack = new ImageStack( imp.getWidth(), imp.getHeight() );
+		for ( int t = t0; t < t1; t++ )
+		{
+			for ( int z = 0; z < nZ; z++ )
+			{
+				for ( int c = 0; c < nC; c++ )
+				{
+					final int index = imp.getStackIndex( c + 1, z + 1, t + 1 );
+					stack.addSlice( source.getSliceLabel( index ), source.getPixels( index ) );
+				}
+			}
+		}
+		final ImagePlus sub = new ImagePlus( imp.getShortTitle(), stack );
+		sub.setDimensions( nC, nZ, t1 - t0 );
+		sub.setCalibration( imp.getCalibration().copy() );
+		sub.setOpenAsHyperStack( true );
+
+		final SpotCollection subSpots = new SpotCollection();
+		final Map< Spot, Spot > originals = new IdentityHashMap<>();
+		for ( int t = t0; t < t1; t++ )
+		{
+			for ( final Spot spot : spots.iterable( t, false ) )
+			{
+				final Spot copy = spot.copy();
+				subSpots.add( copy, t - t0 );
+				originals.put( copy, spot );
+			}
+		}
+		return new TrackastraSubset( sub, subSpots, originals, t0 );
+	}
+
+	/**
+	 * Creates the subset made of a rectangular region of the source image,
+	 * over all frames. It contains the spots whose center lies in the region,
+	 * with their positions shifted to the region.
+	 * <p>
+	 * The planes of the sub-image are cropped when they are requested, so
+	 * that a single cropped plane is in memory at a time.
+	 *
+	 * @param imp
+	 *            the source image.
+	 * @param spots
+	 *            the spots of the source image.
+	 * @param region
+	 *            the region, in pixels.
+	 * @return a new subset.
+	 */
+	public static TrackastraSubset region( final ImagePlus imp, final SpotCollection spots, final Rectangle region )
+	{
+		final ImagePlus sub = new ImagePlus( imp.getShortTitle(), new CropStack( imp.getStack(), region ) );
+		sub.setDimensions( imp.getNChannels(), imp.getNSlices(), imp.getNFrames() );
+		final Calibration calibration = imp.getCalibration().copy();
+		sub.setCalibration( calibration );
+		sub.setOpenAsHyperStack( true );
+
+		final double dx = region.x * calibration.pixelWidth;
+		final double dy = region.y * calibration.pixelHeight;
+		final SpotCollection subSpots = new SpotCollection();
+		final Map< Spot, Spot > originals = new IdentityHashMap<>();
+		for ( final Integer frame : spots.keySet() )
+		{
+			for ( final Spot spot : spots.iterable( frame, false ) )
+			{
+				final int x = ( int ) Math.floor( spot.getDoublePosition( 0 ) / calibration.pixelWidth );
+				final int y = ( int ) Math.floor( spot.getDoublePosition( 1 ) / calibration.pixelHeight );
+				if ( !region.contains( x, y ) )
+					continue;
+
+				final Spot copy = spot.copy();
+				copy.putFeature( Spot.POSITION_X, spot.getDoublePosition( 0 ) - dx );
+				copy.putFeature( Spot.POSITION_Y, spot.getDoublePosition( 1 ) - dy );
+				subSpots.add( copy, frame );
+				originals.put( copy, spot );
+			}
+		}
+		return new TrackastraSubset( sub, subSpots, originals, 0 );
+	}
+
+	/**
+	 * A virtual stack that crops the planes of another stack on demand.
+	 */
+	private static final class CropStack extends VirtualStack
+	{
+
+		private final ImageStack source;
+
+		private final Rectangle region;
+
+		private CropStack( final ImageStack source, final Rectangle region )
+		{
+			super( region.width, region.height, source.getColorModel(), null );
+			this.source = source;
+			this.region = region;
+		}
+
+		@Override
+		public ImageProcessor getProcessor( final int n )
+		{
+			final ImageProcessor ip = source.getProcessor( n );
+			ip.setRoi( region );
+			return ip.crop();
+		}
+
+		@Override
+		public int getSize()
+		{
+			return source.getSize();
+		}
+
+		@Override
+		public String getSliceLabel( final int n )
+		{
+			return source.getSliceLabel( n );
+		}
+	}
+}
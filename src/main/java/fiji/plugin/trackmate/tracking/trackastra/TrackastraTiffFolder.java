@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraTiffWriter.PixelFormat;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+
+/**
+ * Exchanges frames as a folder of TIFF files, one per frame, named
+ * <code>prefixNNNN.tif</code> with <code>NNNN</code> the 1-based frame. This is
+ * the layout expected by the <code>--imgs</code> and <code>--masks</code>
+ * arguments of Trackastra.
+ */
+public class TrackastraTiffFolder implements TrackastraFrameStore
+{
+
+	private final Path folder;
+
+	private final String prefix;
+
+	private final int width;
+
+	private final int height;
+
+	private final PixelFormat format;
+
+	private final Calibration calibration;
+
+	private final boolean compress;
+
+	public TrackastraTiffFolder(
+			final Path folder,
+			final String prefix,
+			final int width,
+			final int height,
+			final PixelFormat format,
+			final Calibration calibration )
+	{
+		this( folder, prefix, width, height, format, calibration, false );
+	}
+
+	/**
+	 * Creates a TIFF folder store.
+	 *
+	 * @param folder
+	 *            the folder to write the files to.
+	 * @param prefix
+	 *            the prefix of the file names.
+	 * @param width
+	 *            the width of the frames.
+	 * @param height
+	 *            the height of the frames.
+	 * @param format
+	 *            the pixel format of the frames.
+	 * @param calibration
+	 *            the spatial calibration to store in the files.
+	 * @param compress
+	 *            if <code>true</code>, the files are compressed with
+	 *            deflate.
+	 */
+	public TrackastraTiffFolder(
+			final Path folder,
+			final String prefix,
+			final int width,
+			final int height,
+			final PixelFormat format,
+			final Calibration calibration,
+			final boolean compress )
+	{
+		this.folder = folder;
+		this.prefix = prefix;
+		this.width = width;
+		this.height = height;
+		this.format = format;
+		this.calibration = calibration;
+		this.compress = compress;
+	}
+
+	/**
+	 * Returns the path of the file of the specified frame.
+	 *
+	 * @param t
+	 *            the frame, 1-based.
+	 * @return the file path.
+	 */
+	public Path path( final int t )
+	{
+		return folder.resolve( String.format( "%s%04d.tif", prefix, t ) );
+	}
+
+	@Override
+	public long write( final int t, final List< Object > planes ) throws IOException
+	{
+		return TrackastraTiffWriter.write( path( t ), planes, width, height, format, calibration, compress );
+	}
+
+	/**
+	 * Compressed frames are encoded in memory, and only written by the
+	 * returned frame. Uncompressed frames are streamed to disk when the
+	 * returned frame is written, without a copy of the pixels.
+	 */
+	@Override
+	public EncodedFrame encode( final int t, final List< Object > planes ) throws IOException
+	{
+		if ( !compress )
+			return () -> write( t, planes );
+
+		final List< ByteBuffer > encoded = TrackastraTiffWriter.encode( planes, width, height, format, calibration, true );
+		return () -> TrackastraTiffWriter.write( path( t ), encoded );
+	}
+
+	/**
+	 * Only compressed frames are encoded before they are written.
+	 */
+	@Override
+	public boolean encodes()
+	{
+		return compress;
+	}
+
+	@Override
+	public List< Object > read( final int t ) throws IOException
+	{
+		final ImagePlus imp = IJ.openImage( path( t ).toString() );
+		if ( imp == null )
+			throw new IOException( "Could not read " + path( t ) );
+		return TrackastraFrameStore.planes( imp, 1, 1 );
+	}
+
+	@Override
+	public Path location()
+	{
+		return folder;
+	}
+}
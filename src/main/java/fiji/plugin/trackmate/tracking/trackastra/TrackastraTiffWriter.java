@@ -0,0 +1,745 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.zip.Deflater;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+/**
+ * Minimal writer for little-endian, ImageJ-flavored TIFF files, used to write
+ * the Trackastra exchange folders.
+ * <p>
+ * Pixels are streamed straight from the pixel arrays of the source
+ * {@link ImageStack} to a {@link FileChannel}, through a small reusable
+ * buffer. Contrary to going through {@link ij.plugin.Duplicator} and
+ * {@link IJ#saveAsTiff(ImagePlus, String)}, no copy of the frame is made.
+ * <p>
+ * Each Z slice is written as one page. Uncompressed pages have a single
+ * strip. Pages can also be compressed with deflate, which ImageJ and tifffile
+ * both read: they are then split in strips of about
+ * {@value #STRIP_BYTES} bytes, each compressed on its own. Label masks,
+ * mostly made of zeros and runs of the same label, shrink by one or two
+ * orders of magnitude. The first page holds an ImageJ description so that
+ * the files are read back as Z-stacks by ImageJ and by tifffile.
+ */
+public class TrackastraTiffWriter
+{
+
+	/**
+	 * The pixel formats this writer supports.
+	 */
+	public enum PixelFormat
+	{
+		GRAY8( 1, 1, 1 ),
+		GRAY16( 2, 1, 1 ),
+		GRAY32_FLOAT( 4, 1, 3 ),
+		GRAY32_UINT( 4, 1, 1 ),
+		RGB( 1, 3, 1 );
+
+		private final int bytesPerSample;
+
+		private final int samplesPerPixel;
+
+		private final int sampleFormat;
+
+		private PixelFormat( final int bytesPerSample, final int samplesPerPixel, final int sampleFormat )
+		{
+			this.bytesPerSample = bytesPerSample;
+			this.samplesPerPixel = samplesPerPixel;
+			this.sampleFormat = sampleFormat;
+		}
+
+		public int bytesPerPixel()
+		{
+			return bytesPerSample * samplesPerPixel;
+		}
+
+		/**
+		 * Returns the pixel format matching an ImageJ bit depth.
+		 *
+		 * @param bitDepth
+		 *            the bit depth, as returned by
+		 *            {@link ImagePlus#getBitDepth()}.
+		 * @return the pixel format.
+		 */
+		public static PixelFormat of( final int bitDepth )
+		{
+			switch ( bitDepth )
+			{
+			case 8:
+				return GRAY8;
+			case 16:
+				return GRAY16;
+			case 24:
+				return RGB;
+			case 32:
+				return GRAY32_FLOAT;
+			default:
+				throw new IllegalArgumentException( "Unsupported bit depth: " + bitDepth );
+			}
+		}
+	}
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Target uncompressed size of the strips of compressed pages.
+	 */
+	private static final int STRIP_BYTES = 1 << 18;
+
+	/**
+	 * The deflate level. The fastest level already compresses label masks
+	 * well, as they are mostly made of long runs.
+	 */
+	private static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+
+	private static final int COMPRESSION_NONE = 1;
+
+	private static final int COMPRESSION_DEFLATE = 8;
+
+	private static final ThreadLocal< ByteBuffer > BUFFER = ThreadLocal.withInitial(
+			() -> ByteBuffer.allocateDirect( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN ) );
+
+	private static final int TAG_IMAGE_WIDTH = 256;
+
+	private static final int TAG_IMAGE_LENGTH = 257;
+
+	private static final int TAG_BITS_PER_SAMPLE = 258;
+
+	private static final int TAG_COMPRESSION = 259;
+
+	private static final int TAG_PHOTOMETRIC = 262;
+
+	private static final int TAG_IMAGE_DESCRIPTION = 270;
+
+	private static final int TAG_STRIP_OFFSETS = 273;
+
+	private static final int TAG_SAMPLES_PER_PIXEL = 277;
+
+	private static final int TAG_ROWS_PER_STRIP = 278;
+
+	private static final int TAG_STRIP_BYTE_COUNTS = 279;
+
+	private static final int TAG_X_RESOLUTION = 282;
+
+	private static final int TAG_Y_RESOLUTION = 283;
+
+	private static final int TAG_RESOLUTION_UNIT = 296;
+
+	private static final int TAG_SAMPLE_FORMAT = 339;
+
+	private static final short TYPE_ASCII = 2;
+
+	private static final short TYPE_SHORT = 3;
+
+	private static final short TYPE_LONG = 4;
+
+	private static final short TYPE_RATIONAL = 5;
+
+	private TrackastraTiffWriter()
+	{}
+
+	/**
+	 * Writes all the Z slices of one channel and one frame of an image to a
+	 * TIFF file.
+	 *
+	 * @param path
+	 *            the path of the file to write.
+	 * @param imp
+	 *            the source image.
+	 * @param c
+	 *            the channel to write, 1-based.
+	 * @param t
+	 *            the frame to write, 1-based.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static long write( final Path path, final ImagePlus imp, final int c, final int t ) throws IOException
+	{
+		final List< Object > planes = TrackastraFrameStore.planes( imp, c, t );
+		return write( path, planes, imp.getWidth(), imp.getHeight(), PixelFormat.of( imp.getBitDepth() ), imp.getCalibration() );
+	}
+
+	/**
+	 * Writes a list of planes, one page per plane, to a TIFF file.
+	 *
+	 * @param path
+	 *            the path of the file to write.
+	 * @param planes
+	 *            the pixel arrays of the planes. Must be <code>byte[]</code>
+	 *            for {@link PixelFormat#GRAY8}, <code>short[]</code> for
+	 *            {@link PixelFormat#GRAY16}, <code>float[]</code> for
+	 *            {@link PixelFormat#GRAY32_FLOAT} and <code>int[]</code> for
+	 *            {@link PixelFormat#GRAY32_UINT} and {@link PixelFormat#RGB}.
+	 * @param width
+	 *            the width of the planes.
+	 * @param height
+	 *            the height of the planes.
+	 * @param format
+	 *            the pixel format.
+	 * @param calibration
+	 *            the spatial calibration to store in the file.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static long write(
+			final Path path,
+			final List< Object > planes,
+			final int width,
+			final int height,
+			final PixelFormat format,
+			final Calibration calibration ) throws IOException
+	{
+		return write( path, planes, width, height, format, calibration, false );
+	}
+
+	/**
+	 * Writes a list of planes, one page per plane, to a TIFF file, optionally
+	 * compressed with deflate.
+	 *
+	 * @param path
+	 *            the path of the file to write.
+	 * @param planes
+	 *            the pixel arrays of the planes, as for
+	 *            {@link #write(Path, List, int, int, PixelFormat, Calibration)}.
+	 * @param width
+	 *            the width of the planes.
+	 * @param height
+	 *            the height of the planes.
+	 * @param format
+	 *            the pixel format.
+	 * @param calibration
+	 *            the spatial calibration to store in the file.
+	 * @param compress
+	 *            if <code>true</code>, the pages are compressed with deflate.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static long write(
+			final Path path,
+			final List< Object > planes,
+			final int width,
+			final int height,
+			final PixelFormat format,
+			final Calibration calibration,
+			final boolean compress ) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( path,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING ))
+		{
+			return pages( new Sink()
+			{
+
+				@Override
+				public void put( final ByteBuffer buffer ) throws IOException
+				{
+					writeFully( channel, buffer );
+				}
+
+				@Override
+				public void pixels( final Object pixels ) throws IOException
+				{
+					writePixels( channel, pixels, format );
+				}
+			}, planes, width, height, format, calibration, compress );
+		}
+	}
+
+	/**
+	 * Encodes a list of planes as the content of a TIFF file, in memory, to
+	 * be written later with {@link #write(Path, List)}. This separates the
+	 * CPU work of a compressed file from the disk write. For an uncompressed
+	 * file, this makes a copy of the pixels: prefer
+	 * {@link #write(Path, List, int, int, PixelFormat, Calibration, boolean)}
+	 * then.
+	 *
+	 * @param planes
+	 *            the pixel arrays of the planes, as for
+	 *            {@link #write(Path, List, int, int, PixelFormat, Calibration)}.
+	 * @param width
+	 *            the width of the planes.
+	 * @param height
+	 *            the height of the planes.
+	 * @param format
+	 *            the pixel format.
+	 * @param calibration
+	 *            the spatial calibration to store in the file.
+	 * @param compress
+	 *            if <code>true</code>, the pages are compressed with deflate.
+	 * @return the content of the file, as a list of buffers to write in
+	 *         order.
+	 * @throws IOException
+	 *             if the planes do not fit in a classic TIFF file.
+	 */
+	public static List< ByteBuffer > encode(
+			final List< Object > planes,
+			final int width,
+			final int height,
+			final PixelFormat format,
+			final Calibration calibration,
+			final boolean compress ) throws IOException
+	{
+		final List< ByteBuffer > buffers = new ArrayList<>();
+		pages( new Sink()
+		{
+
+			@Override
+			public void put( final ByteBuffer buffer )
+			{
+				buffers.add( buffer );
+			}
+
+			@Override
+			public void pixels( final Object pixels )
+			{
+				final int n = width * height;
+				final ByteBuffer buffer = ByteBuffer.allocate( n * format.bytesPerPixel() ).order( ByteOrder.LITTLE_ENDIAN );
+				putPixels( buffer, pixels, format, 0, n );
+				buffer.clear();
+				buffers.add( buffer );
+			}
+		}, planes, width, height, format, calibration, compress );
+		return buffers;
+	}
+
+	/**
+	 * Writes the content of a TIFF file encoded with
+	 * {@link #encode(List, int, int, PixelFormat, Calibration, boolean)}.
+	 *
+	 * @param path
+	 *            the path of the file to write.
+	 * @param encoded
+	 *            the content of the file.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static long write( final Path path, final List< ByteBuffer > encoded ) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( path,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING ))
+		{
+			long n = 0;
+			for ( final ByteBuffer buffer : encoded )
+			{
+				final ByteBuffer b = buffer.duplicate();
+				n += b.remaining();
+				writeFully( channel, b );
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Where the bytes of a TIFF file go, in order.
+	 */
+	private interface Sink
+	{
+		public void put( ByteBuffer buffer ) throws IOException;
+
+		public void pixels( Object pixels ) throws IOException;
+	}
+
+	/**
+	 * Lays out the header, the pages and the pixels of a TIFF file, and
+	 * sends them to a sink.
+	 *
+	 * @return the number of bytes of the file.
+	 */
+	private static long pages(
+			final Sink sink,
+			final List< Object > planes,
+			final int width,
+			final int height,
+			final PixelFormat format,
+			final Calibration calibration,
+			final boolean compress ) throws IOException
+	{
+		final long planeBytes = ( long ) width * height * format.bytesPerPixel();
+		final int rowsPerStrip = compress
+				? ( int ) Math.max( 1, Math.min( height, STRIP_BYTES / ( ( long ) width * format.bytesPerPixel() ) ) )
+				: height;
+		final byte[] description = description( planes.size(), calibration );
+		final long[] xResolution = rational( calibration.pixelWidth );
+		final long[] yResolution = rational( calibration.pixelHeight );
+		final long[] resolution = new long[] { xResolution[ 0 ], xResolution[ 1 ], yResolution[ 0 ], yResolution[ 1 ] };
+
+		// Header.
+		final ByteBuffer header = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+		header.put( ( byte ) 'I' ).put( ( byte ) 'I' ).putShort( ( short ) 42 ).putInt( 8 );
+		header.flip();
+		sink.put( header );
+
+		long offset = 8;
+		for ( int i = 0; i < planes.size(); i++ )
+		{
+			final boolean first = i == 0;
+			final boolean last = i == planes.size() - 1;
+			final List< byte[] > strips = compress
+					? deflate( planes.get( i ), format, width, height, rowsPerStrip )
+					: null;
+			final long[] stripBytes = compress
+					? strips.stream().mapToLong( strip -> strip.length ).toArray()
+					: new long[] { planeBytes };
+			final long dataBytes = LongStream.of( stripBytes ).sum();
+			final ByteBuffer ifd = ifd( offset, width, height, format, rowsPerStrip, stripBytes,
+					compress ? COMPRESSION_DEFLATE : COMPRESSION_NONE,
+					first ? description : null, resolution, last );
+			offset += ifd.remaining();
+			final long dataOffset = offset;
+			sink.put( ifd );
+			if ( compress )
+			{
+				for ( final byte[] strip : strips )
+					sink.put( ByteBuffer.wrap( strip ) );
+			}
+			else
+			{
+				sink.pixels( planes.get( i ) );
+			}
+			offset = dataOffset + dataBytes;
+			// IFDs must start on a word boundary.
+			if ( ( offset & 1 ) != 0 )
+			{
+				sink.put( ByteBuffer.allocate( 1 ) );
+				offset++;
+			}
+			if ( offset > 0xFFFFFFFFL )
+				throw new IOException( "Frame too large for a classic TIFF file." );
+		}
+		return offset;
+	}
+
+	/**
+	 * Builds one IFD with its out-of-line values. The strips are expected
+	 * right after it, one after the other, and the next IFD right after the
+	 * last strip.
+	 */
+	private static ByteBuffer ifd(
+			final long ifdOffset,
+			final int width,
+			final int height,
+			final PixelFormat format,
+			final int rowsPerStrip,
+			final long[] stripBytes,
+			final int compression,
+			final byte[] description,
+			final long[] resolution,
+			final boolean last )
+	{
+		final int nEntries = ( description == null ) ? 13 : 14;
+		final int ifdSize = 2 + 12 * nEntries + 4;
+		final boolean rgb = format.samplesPerPixel > 1;
+		final int nStrips = stripBytes.length;
+		final int stripArraySize = ( nStrips > 1 ) ? 4 * nStrips : 0;
+		final int extraSize = 16 + ( rgb ? 8 : 0 ) + ( description == null ? 0 : pad( description.length ) ) + 2 * stripArraySize;
+		final long extraOffset = ifdOffset + ifdSize;
+		final long resolutionOffset = extraOffset;
+		final long bitsOffset = resolutionOffset + 16;
+		final long descriptionOffset = bitsOffset + ( rgb ? 8 : 0 );
+		final long stripOffsetsOffset = descriptionOffset + ( description == null ? 0 : pad( description.length ) );
+		final long stripBytesOffset = stripOffsetsOffset + stripArraySize;
+		final long dataOffset = extraOffset + extraSize;
+		final long dataBytes = LongStream.of( stripBytes ).sum();
+		final long nextIFD = last ? 0 : dataOffset + dataBytes + ( ( dataOffset + dataBytes ) & 1 );
+
+		final ByteBuffer buffer = ByteBuffer.allocate( ifdSize + extraSize ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.putShort( ( short ) nEntries );
+		entry( buffer, TAG_IMAGE_WIDTH, TYPE_LONG, 1, width );
+		entry( buffer, TAG_IMAGE_LENGTH, TYPE_LONG, 1, height );
+		if ( rgb )
+			entry( buffer, TAG_BITS_PER_SAMPLE, TYPE_SHORT, 3, bitsOffset );
+		else
+			entry( buffer, TAG_BITS_PER_SAMPLE, TYPE_SHORT, 1, 8 * format.bytesPerSample );
+		entry( buffer, TAG_COMPRESSION, TYPE_SHORT, 1, compression );
+		entry( buffer, TAG_PHOTOMETRIC, TYPE_SHORT, 1, rgb ? 2 : 1 );
+		if ( description != null )
+			entry( buffer, TAG_IMAGE_DESCRIPTION, TYPE_ASCII, description.length, descriptionOffset );
+		entry( buffer, TAG_STRIP_OFFSETS, TYPE_LONG, nStrips, ( nStrips > 1 ) ? stripOffsetsOffset : dataOffset );
+		entry( buffer, TAG_SAMPLES_PER_PIXEL, TYPE_SHORT, 1, format.samplesPerPixel );
+		entry( buffer, TAG_ROWS_PER_STRIP, TYPE_LONG, 1, rowsPerStrip );
+		entry( buffer, TAG_STRIP_BYTE_COUNTS, TYPE_LONG, nStrips, ( nStrips > 1 ) ? stripBytesOffset : stripBytes[ 0 ] );
+		entry( buffer, TAG_X_RESOLUTION, TYPE_RATIONAL, 1, resolutionOffset );
+		entry( buffer, TAG_Y_RESOLUTION, TYPE_RATIONAL, 1, resolutionOffset + 8 );
+		entry( buffer, TAG_RESOLUTION_UNIT, TYPE_SHORT, 1, 1 );
+		entry( buffer, TAG_SAMPLE_FORMAT, TYPE_SHORT, 1, format.sampleFormat );
+		buffer.putInt( ( int ) nextIFD );
+
+		// Out-of-line values.
+		for ( final long r : resolution )
+			buffer.putInt( ( int ) r );
+		if ( rgb )
+			buffer.putShort( ( short ) 8 ).putShort( ( short ) 8 ).putShort( ( short ) 8 ).putShort( ( short ) 0 );
+		if ( description != null )
+		{
+			buffer.put( description );
+			for ( int i = description.length; i < pad( description.length ); i++ )
+				buffer.put( ( byte ) 0 );
+		}
+		if ( nStrips > 1 )
+		{
+			long stripOffset = dataOffset;
+			for ( final long bytes : stripBytes )
+			{
+				buffer.putInt( ( int ) stripOffset );
+				stripOffset += bytes;
+			}
+			for ( final long bytes : stripBytes )
+				buffer.putInt( ( int ) bytes );
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void entry( final ByteBuffer buffer, final int tag, final short type, final int count, final long value )
+	{
+		buffer.putShort( ( short ) tag );
+		buffer.putShort( type );
+		buffer.putInt( count );
+		if ( type == TYPE_SHORT && count == 1 )
+			buffer.putShort( ( short ) value ).putShort( ( short ) 0 );
+		else
+			buffer.putInt( ( int ) value );
+	}
+
+	/**
+	 * Streams the pixels of a plane to the channel, converting them to
+	 * little-endian bytes through a reusable buffer.
+	 */
+	private static void writePixels( final FileChannel channel, final Object pixels, final PixelFormat format ) throws IOException
+	{
+		final ByteBuffer buffer = BUFFER.get();
+		switch ( format )
+		{
+		case GRAY8:
+		{
+			final byte[] arr = ( byte[] ) pixels;
+			for ( int start = 0; start < arr.length; start += BUFFER_SIZE )
+			{
+				buffer.clear();
+				buffer.put( arr, start, Math.min( BUFFER_SIZE, arr.length - start ) );
+				buffer.flip();
+				writeFully( channel, buffer );
+			}
+			break;
+		}
+		case GRAY16:
+		{
+			final short[] arr = ( short[] ) pixels;
+			final int chunk = BUFFER_SIZE / 2;
+			for ( int start = 0; start < arr.length; start += chunk )
+			{
+				final int n = Math.min( chunk, arr.length - start );
+				buffer.clear();
+				buffer.asShortBuffer().put( arr, start, n );
+				buffer.limit( 2 * n );
+				writeFully( channel, buffer );
+			}
+			break;
+		}
+		case GRAY32_FLOAT:
+		{
+			final float[] arr = ( float[] ) pixels;
+			final int chunk = BUFFER_SIZE / 4;
+			for ( int start = 0; start < arr.length; start += chunk )
+			{
+				final int n = Math.min( chunk, arr.length - start );
+				buffer.clear();
+				buffer.asFloatBuffer().put( arr, start, n );
+				buffer.limit( 4 * n );
+				writeFully( channel, buffer );
+			}
+			break;
+		}
+		case GRAY32_UINT:
+		{
+			final int[] arr = ( int[] ) pixels;
+			final int chunk = BUFFER_SIZE / 4;
+			for ( int start = 0; start < arr.length; start += chunk )
+			{
+				final int n = Math.min( chunk, arr.length - start );
+				buffer.clear();
+				buffer.asIntBuffer().put( arr, start, n );
+				buffer.limit( 4 * n );
+				writeFully( channel, buffer );
+			}
+			break;
+		}
+		case RGB:
+		{
+			final int[] arr = ( int[] ) pixels;
+			final int chunk = BUFFER_SIZE / 3;
+			for ( int start = 0; start < arr.length; start += chunk )
+			{
+				final int n = Math.min( chunk, arr.length - start );
+				buffer.clear();
+				for ( int i = start; i < start + n; i++ )
+				{
+					final int rgb = arr[ i ];
+					buffer.put( ( byte ) ( rgb >> 16 ) ).put( ( byte ) ( rgb >> 8 ) ).put( ( byte ) rgb );
+				}
+				buffer.flip();
+				writeFully( channel, buffer );
+			}
+			break;
+		}
+		}
+	}
+
+	/**
+	 * Compresses the pixels of a plane with deflate, in strips of
+	 * <code>rowsPerStrip</code> rows, each converted to little-endian bytes
+	 * and compressed on its own.
+	 */
+	private static List< byte[] > deflate( final Object pixels, final PixelFormat format, final int width, final int height, final int rowsPerStrip )
+	{
+		final int rowBytes = width * format.bytesPerPixel();
+		final ByteBuffer raw = ByteBuffer.allocate( rowsPerStrip * rowBytes ).order( ByteOrder.LITTLE_ENDIAN );
+		final byte[] chunk = new byte[ 1 << 16 ];
+		final Deflater deflater = new Deflater( DEFLATE_LEVEL );
+		final List< byte[] > strips = new ArrayList<>();
+		try
+		{
+			for ( int y = 0; y < height; y += rowsPerStrip )
+			{
+				final int nRows = Math.min( rowsPerStrip, height - y );
+				raw.clear();
+				putPixels( raw, pixels, format, y * width, nRows * width );
+
+				deflater.reset();
+				deflater.setInput( raw.array(), 0, nRows * rowBytes );
+				deflater.finish();
+				final ByteArrayOutputStream out = new ByteArrayOutputStream( nRows * rowBytes / 16 + 64 );
+				while ( !deflater.finished() )
+				{
+					final int n = deflater.deflate( chunk );
+					out.write( chunk, 0, n );
+				}
+				strips.add( out.toByteArray() );
+			}
+		}
+		finally
+		{
+			deflater.end();
+		}
+		return strips;
+	}
+
+	/**
+	 * Copies a range of pixels to a heap buffer, as little-endian bytes,
+	 * starting at the beginning of the buffer.
+	 */
+	private static void putPixels( final ByteBuffer buffer, final Object pixels, final PixelFormat format, final int start, final int n )
+	{
+		switch ( format )
+		{
+		case GRAY8:
+			buffer.put( ( byte[] ) pixels, start, n );
+			break;
+		case GRAY16:
+			buffer.asShortBuffer().put( ( short[] ) pixels, start, n );
+			break;
+		case GRAY32_FLOAT:
+			buffer.asFloatBuffer().put( ( float[] ) pixels, start, n );
+			break;
+		case GRAY32_UINT:
+			buffer.asIntBuffer().put( ( int[] ) pixels, start, n );
+			break;
+		case RGB:
+		{
+			final int[] arr = ( int[] ) pixels;
+			for ( int i = start; i < start + n; i++ )
+			{
+				final int rgb = arr[ i ];
+				buffer.put( ( byte ) ( rgb >> 16 ) ).put( ( byte ) ( rgb >> 8 ) ).put( ( byte ) rgb );
+			}
+			break;
+		}
+		}
+	}
+
+	private static void writeFully( final FileChannel channel, final ByteBuffer buffer ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
+
+	/**
+	 * Returns the ImageJ description of a stack, NUL-terminated.
+	 */
+	private static byte[] description( final int nSlices, final Calibration calibration )
+	{
+		final StringBuilder str = new StringBuilder();
+		str.append( "ImageJ=" + IJ.getVersion() + "\n" );
+		if ( nSlices > 1 )
+		{
+			str.append( "images=" + nSlices + "\n" );
+			str.append( "slices=" + nSlices + "\n" );
+		}
+		final String unit = calibration.getUnit();
+		if ( unit != null && !unit.isEmpty() && !unit.equals( "pixel" ) )
+			str.append( "unit=" + unit.replace( '\n', ' ' ) + "\n" );
+		if ( nSlices > 1 )
+			str.append( "spacing=" + calibration.pixelDepth + "\n" );
+		str.append( "loop=false\n" );
+		str.append( '\0' );
+		return str.toString().getBytes( StandardCharsets.US_ASCII );
+	}
+
+	/**
+	 * Encodes the pixel size as a rational resolution, in pixels per unit,
+	 * the same way ImageJ does.
+	 */
+	private static long[] rational( final double pixelSize )
+	{
+		final double resolution = ( pixelSize > 0 ) ? 1. / pixelSize : 1.;
+		final double scale = ( resolution > 1000. ) ? 1000. : 1000000.;
+		return new long[] { Math.min( 0xFFFFFFFFL, Math.round( resolution * scale ) ), ( long ) scale };
+	}
+
+	private static int pad( final int length )
+	{
+		return length + ( length & 1 );
+	}
+}
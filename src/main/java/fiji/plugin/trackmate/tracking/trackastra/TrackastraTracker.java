@@ -21,41 +21,54 @@
  */
 package fiji.plugin.trackmate.tracking.trackastra;
 
+import java.awt.Color;
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Duration;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-import org.apache.commons.io.input.Tailer;
+import org.apache.commons.io.FileUtils;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
-
-import com.opencsv.exceptions.CsvException;
+import org.scijava.Cancelable;
 
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
-import fiji.plugin.trackmate.action.LabelImgExporter;
-import fiji.plugin.trackmate.action.LabelImgExporter.LabelIdPainting;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraExportPipeline.Frame;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraTiffWriter.PixelFormat;
 import fiji.plugin.trackmate.util.cli.CLIUtils;
-import fiji.plugin.trackmate.util.cli.CLIUtils.LoggerTailerListener;
 import fiji.plugin.trackmate.util.cli.CommandBuilder;
-import fiji.plugin.trackmate.visualization.GlasbeyLut;
-import ij.IJ;
 import ij.ImagePlus;
-import ij.plugin.Duplicator;
-import net.imagej.ImgPlus;
+import ij.io.FileInfo;
 import net.imglib2.algorithm.Benchmark;
-import net.imglib2.img.display.imagej.ImageJFunctions;
-import net.imglib2.type.numeric.integer.UnsignedShortType;
 
-public class TrackastraTracker implements SpotTracker, Benchmark
+public class TrackastraTracker implements SpotTracker, Benchmark, Cancelable
 {
 
 	final static String BASE_ERROR_MESSAGE = "[Trackastra] ";
@@ -64,6 +77,45 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 
 	private static final String TRACKASTRA_LOG_FILENAME = "trackastra-log.txt";
 
+	private static final String MASK_TITLE = "masks";
+
+	private static final String MASK_SUFFIX = "-mask-t";
+
+	private static final String IMG_SUFFIX = "-img-t";
+
+	private static final String MASK_ARRAY_FILENAME = "trackastra-masks.npy";
+
+	private static final String IMG_ARRAY_FILENAME = "trackastra-imgs.npy";
+
+	private static final String CANDIDATE_CSV_FILENAME = "trackastra-candidate-table.csv";
+
+	private static final String CANDIDATE_SUFFIX = "-candidates";
+
+	private static final String RUN_REPORT_PREFIX = "trackastra-run-report_";
+
+	private static final String RUN_REPORT_SUFFIX = ".json";
+
+	private static final String RUN_REPORT_FILENAME = "trackastra-run-report.json";
+
+	/**
+	 * The candidate graph of the last run that produced one, and the key of
+	 * its input. Softly referenced, so that it can be reclaimed if memory is
+	 * short.
+	 */
+	private static SoftReference< TrackastraCandidateGraph > lastCandidates = new SoftReference<>( null );
+
+	private static String lastCandidatesKey;
+
+	/**
+	 * Temp folders not deleted yet, deleted when the JVM exits.
+	 */
+	private static final Set< Path > PENDING_DELETION = ConcurrentHashMap.newKeySet();
+
+	static
+	{
+		Runtime.getRuntime().addShutdownHook( new Thread( () -> PENDING_DELETION.forEach( p -> FileUtils.deleteQuietly( p.toFile() ) ) ) );
+	}
+
 	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
 
 	private Logger logger = Logger.VOID_LOGGER;
@@ -78,11 +130,58 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 
 	private final ImagePlus imp;
 
+	private int numThreads;
+
+	private volatile boolean isCanceled;
+
+	private String cancelReason;
+
+	/**
+	 * The Trackastra process currently running, if any.
+	 */
+	private volatile Process process;
+
+	/**
+	 * The persistent worker currently running a job, if any.
+	 */
+	private volatile TrackastraWorker worker;
+
+	/**
+	 * Whether the last Trackastra run was killed, because it was canceled or
+	 * timed out.
+	 */
+	private boolean killed;
+
+	/**
+	 * The trackers of the chunks or tiles currently running, if any.
+	 */
+	private final Set< TrackastraTracker > parts = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Whether this tracker tracks a chunk or a tile for another tracker, that
+	 * reports for it.
+	 */
+	private boolean isPart;
+
+	private TrackastraRunReport report = new TrackastraRunReport();
+
+	/**
+	 * The temp folder holding the Trackastra output of the last run, if any.
+	 */
+	private Path runFolder;
+
+	/**
+	 * If not <code>null</code>, the permits to run Trackastra, shared with
+	 * other trackers.
+	 */
+	private Semaphore runSlots;
+
 	public TrackastraTracker( final TrackastraCLI cli, final SpotCollection spots, final ImagePlus imp )
 	{
 		this.cli = cli;
 		this.spots = spots;
 		this.imp = imp;
+		setNumThreads();
 	}
 
 	@Override
@@ -122,54 +221,95 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 		 * Process.
 		 */
 
-		final long start = System.currentTimeMillis();
-
-		/*
-		 * 1. Export masks to tmp folder.
-		 */
+		report = new TrackastraRunReport();
+		runFolder = null;
+		final long start = System.nanoTime();
+		final boolean ok = cli.incremental().getValue() ? processLastRun() : processAll();
+		report.since( TrackastraRunReport.TOTAL, start );
+		if ( !isPart )
+			writeRunReport();
+		return ok;
+	}
 
-		final int[] dimensions = imp.getDimensions();
-		final long[] dims = new long[] { dimensions[ 0 ], dimensions[ 1 ], dimensions[ 3 ], dimensions[ 4 ] };
-		final double[] calibration = new double[] {
-				imp.getCalibration().pixelWidth,
-				imp.getCalibration().pixelHeight,
-				imp.getCalibration().pixelDepth,
-				imp.getCalibration().frameInterval
-		};
-		final boolean exportSpotsAsDots = false;
-		final LabelIdPainting labelIdPainting = LabelIdPainting.LABEL_IS_INDEX_MOVIE_UNIQUE;
-		final ImgPlus< UnsignedShortType > masks = LabelImgExporter.createLabelImg(
-				spots, dims, calibration, exportSpotsAsDots, labelIdPainting,
-				new UnsignedShortType(), logger );
-		final ImagePlus maskImp = ImageJFunctions.wrap( masks, "masks" );
-		maskImp.setDimensions( 1, imp.getNSlices(), imp.getNFrames() );
-		maskImp.setLut( GlasbeyLut.toLUT() );
-		maskImp.setDisplayRange( 0, 255 );
-		maskImp.setOpenAsHyperStack( true );
+	/**
+	 * Re-tracks the last run incrementally if it was made on the same image
+	 * with the same settings, tracks all the frames otherwise, and records
+	 * the result as the last run.
+	 *
+	 * @return <code>true</code> if the movie was tracked.
+	 */
+	private boolean processLastRun()
+	{
+		final String key = lastRunKey();
+		final TrackastraLastRun last = TrackastraLastRun.get( key );
+		final boolean ok = ( last != null && last.nFrames() == imp.getNFrames() )
+				? processIncremental( last )
+				: processAll();
+		if ( ok )
+			TrackastraLastRun.record( key, spots, imp.getNFrames(), graph );
+		return ok;
+	}
 
-		Path maskTmpFolder;
+	/**
+	 * Writes the report of the run to the run report folder, if one is set,
+	 * with a name made unique with the title of the image, the time of the
+	 * run and a random number, so that concurrent runs and the runs of a
+	 * batch each keep their own report. Otherwise, the report is written next
+	 * to the Trackastra output if the temp files are kept, and not written at
+	 * all if not: it is still available from {@link #getRunReport()}.
+	 */
+	private void writeRunReport()
+	{
+		final String folder = cli.runReportFolder().getValue();
+		final Path file;
 		try
 		{
-			maskTmpFolder = Files.createTempDirectory( "TrackMate-Trackastra-masks_" );
-			CLIUtils.recursiveDeleteOnShutdownHook( maskTmpFolder );
-			logger.setStatus( "Saving masks" );
-			logger.log( "Saving masks to " + maskTmpFolder + "\n" );
-			final boolean ok = writeStackList( maskImp, 1, maskTmpFolder.toString(), "-mask-t" );
-			if ( !ok )
+			if ( folder != null && !folder.isEmpty() )
 			{
-				errorMessage = BASE_ERROR_MESSAGE + "Problem saving masks.\n";
-				return false;
+				final Path dir = Paths.get( folder );
+				final String title = imp.getShortTitle().replaceAll( "[^A-Za-z0-9._-]", "_" );
+				final String time = new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( new Date() );
+				Files.createDirectories( dir );
+				file = Files.createTempFile( dir, RUN_REPORT_PREFIX + title + "_" + time + "_", RUN_REPORT_SUFFIX );
+			}
+			else if ( cli.keepTempFiles().getValue() && runFolder != null && Files.isDirectory( runFolder ) )
+			{
+				file = runFolder.resolve( RUN_REPORT_FILENAME );
+			}
+			else
+			{
+				return;
 			}
+			report.write( file );
+			logger.log( "Run report written to " + file + "\n" );
 		}
 		catch ( final IOException e )
 		{
-			errorMessage = BASE_ERROR_MESSAGE + "Could not create temp folder to save masks:\n" + e.getMessage();
-			return false;
+			logger.log( "Could not write the run report:\n" + e.getMessage() + "\n", Color.ORANGE );
 		}
+	}
 
-		/*
-		 * 2. Export input image to tmp folder.
-		 */
+	/**
+	 * Tracks all the frames of the movie.
+	 *
+	 * @return <code>true</code> if the movie was tracked.
+	 */
+	private boolean processAll()
+	{
+		final long start = System.currentTimeMillis();
+
+		final int tileSize = cli.tileSize().getValue();
+		final int chunkSize = cli.chunkSize().getValue();
+		final boolean tiled = tileSize > 0 && ( imp.getWidth() > tileSize || imp.getHeight() > tileSize );
+		final boolean chunked = chunkSize > 0 && imp.getNFrames() > chunkSize;
+		if ( tiled || chunked )
+		{
+			final boolean ok = tiled ? processTiles( tileSize ) : processChunks( chunkSize );
+			logger.setProgress( 1d );
+			logger.setStatus( "" );
+			processingTime = System.currentTimeMillis() - start;
+			return ok;
+		}
 
 		final int c;
 		if ( imp.getNChannels() == 1 )
@@ -181,36 +321,207 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 			// Get the right channel.
 			c = cli.imageChannel().getValue();
 		}
+		final TrackastraMaskExporter maskExporter = new TrackastraMaskExporter( spots, imp );
+		report.count( TrackastraRunReport.SPOTS, spots.getNSpots( false ) );
+		report.count( TrackastraRunReport.FRAMES, imp.getNFrames() );
 
-		Path imgTmpFolder;
+		final boolean npy = TrackastraCLI.EXCHANGE_FORMAT_NPY.equals( cli.exchangeFormat().getValue() );
+		List< Path > sourceFiles = ( !npy && cli.reuseSourceFiles().getValue() )
+				? TrackastraSourceFiles.find( imp, c )
+				: null;
+
+		/*
+		 * 0. Look for the results of an identical run in the cache, or for
+		 * candidates we can prune in Java, before exporting anything. When
+		 * there is nothing to reuse, the key is only needed to keep the
+		 * candidates of this run, and it is computed while the frames are
+		 * exported, instead of in a pass of its own.
+		 */
+
+		final String mode = cli.trackingMode().getValue();
+		final boolean useCache = cli.useCache().getValue();
+		final TrackastraResultCache cache = useCache
+				? new TrackastraResultCache( Paths.get( cli.cacheFolder().getValue() ), cli.cacheMaxSize().getValue() * 1024L * 1024L )
+				: null;
+		String contentKey = null;
+		if ( useCache || ( hasLastCandidates() && TrackastraCandidateGraph.canPrune( mode ) ) )
+		{
+			try
+			{
+				logger.setStatus( "Hashing masks and source image" );
+				contentKey = TrackastraResultCache.key( maskExporter, imp, c, sourceFiles, cacheArguments(), numThreads );
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				logger.log( "Could not compute the cache key, running Trackastra:\n" + e.getMessage() + "\n", Color.ORANGE );
+			}
+		}
+		if ( contentKey != null && reuse( contentKey, mode, cache, maskExporter ) )
+		{
+			logger.setProgress( 1d );
+			logger.setStatus( "" );
+			processingTime = System.currentTimeMillis() - start;
+			return true;
+		}
+
+		/*
+		 * 1. Create tmp folders for masks and input image.
+		 */
+
+		final Path scratch = Paths.get( cli.scratchFolder().getValue() );
 		try
 		{
-			imgTmpFolder = Files.createTempDirectory( "TrackMate-Trackastra-imgs_" );
-			CLIUtils.recursiveDeleteOnShutdownHook( imgTmpFolder );
-			logger.setStatus( "Saving source image" );
-			if ( c < 0 )
-				logger.log( "Saving source image to " + imgTmpFolder + "\n" );
-			else
-				logger.log( "Saving channel " + c + " of the source image to " + imgTmpFolder + "\n" );
-			final boolean ok = writeStackList( imp, c, imgTmpFolder.toString(), "-img-t" );
-			if ( !ok )
+			Files.createDirectories( scratch );
+			final long required = estimateExportSize( maskExporter.pixelFormat(), sourceFiles == null );
+			final long usable = Files.getFileStore( scratch ).getUsableSpace();
+			if ( usable < required )
 			{
-				errorMessage = BASE_ERROR_MESSAGE + "Problem saving masks.\n";
+				errorMessage = BASE_ERROR_MESSAGE + "Not enough space in " + scratch + " to save masks and input image: "
+						+ ( required >> 20 ) + " MB required, " + ( usable >> 20 ) + " MB available.";
 				return false;
 			}
 		}
 		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not use the scratch folder " + scratch + ":\n" + e.getMessage();
+			return false;
+		}
+
+		Path maskTmpFolder;
+		try
+		{
+			maskTmpFolder = Files.createTempDirectory( scratch, "TrackMate-Trackastra-masks_" );
+			deleteOnExit( maskTmpFolder );
+			runFolder = maskTmpFolder;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not create temp folder to save masks:\n" + e.getMessage();
+			return false;
+		}
+
+		Path imgTmpFolder;
+		try
+		{
+			imgTmpFolder = Files.createTempDirectory( scratch, "TrackMate-Trackastra-imgs_" );
+			deleteOnExit( imgTmpFolder );
+		}
+		catch ( final IOException e )
 		{
 			errorMessage = BASE_ERROR_MESSAGE + "Could not create temp folder to save input image:\n" + e.getMessage();
 			return false;
 		}
 
+		/*
+		 * 2. Export masks and input image to tmp folders, in parallel. The
+		 * input image is not exported if Trackastra can read the files it was
+		 * opened from.
+		 */
+
+		Path imageFolder = imgTmpFolder;
+		if ( sourceFiles != null )
+		{
+			try
+			{
+				imageFolder = TrackastraSourceFiles.link( sourceFiles, imgTmpFolder, imp.getShortTitle() + IMG_SUFFIX );
+				if ( imageFolder.equals( imgTmpFolder ) )
+					logger.log( "Linking the " + sourceFiles.size() + " source image files in " + imgTmpFolder + "\n" );
+				else
+					logger.log( "Reading the source image from its files in " + imageFolder + "\n" );
+			}
+			catch ( final IOException e )
+			{
+				logger.log( "Could not reuse the source image files, exporting the image:\n" + e.getMessage() + "\n", Color.ORANGE );
+				try
+				{
+					FileUtils.cleanDirectory( imgTmpFolder.toFile() );
+				}
+				catch ( final IOException e2 )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "Could not create temp folder to save input image:\n" + e2.getMessage();
+					return false;
+				}
+				sourceFiles = null;
+			}
+		}
+
+		TrackastraResultCache.KeyBuilder keyBuilder = ( contentKey == null && cli.useWorker().getValue() && cli.keepCandidates().getValue() )
+				? new TrackastraResultCache.KeyBuilder( imp, cacheArguments() )
+				: null;
+		if ( keyBuilder != null && sourceFiles != null )
+		{
+			try
+			{
+				for ( int t = 1; t <= sourceFiles.size(); t++ )
+					keyBuilder.imageFile( t, sourceFiles.get( t - 1 ) );
+			}
+			catch ( final IOException e )
+			{
+				keyBuilder = null;
+			}
+		}
+
+		final TrackastraFrameStore maskStore;
+		final TrackastraFrameStore imgStore;
+		try
+		{
+			maskStore = createStore( maskTmpFolder, MASK_TITLE + MASK_SUFFIX, MASK_ARRAY_FILENAME, maskExporter.pixelFormat(), npy,
+					cli.compressMasks().getValue() );
+			imgStore = ( sourceFiles == null )
+					? createStore( imgTmpFolder, imp.getShortTitle() + IMG_SUFFIX, IMG_ARRAY_FILENAME, PixelFormat.of( imp.getBitDepth() ), npy, false )
+					: null;
+		}
+		catch ( final IOException | IllegalArgumentException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not create the exchange files:\n" + e.getMessage();
+			return false;
+		}
+
+		logger.setStatus( imgStore == null ? "Saving masks" : "Saving masks and source image" );
+		logger.log( "Saving masks to " + maskStore.location() + "\n" );
+		if ( imgStore != null )
+		{
+			if ( c < 0 )
+				logger.log( "Saving source image to " + imgStore.location() + "\n" );
+			else
+				logger.log( "Saving channel " + c + " of the source image to " + imgStore.location() + "\n" );
+		}
+
+		final long exportStart = System.nanoTime();
+		final List< String > exportErrors;
+		try (TrackastraPlaneReader reader = ( imgStore == null ) ? null : planeReader( imp, c ))
+		{
+			final List< Frame > maskFrames = maskFrames( maskExporter, maskStore, report, keyBuilder );
+			final List< Frame > imgFrames = ( imgStore == null )
+					? Collections.emptyList()
+					: stackFrames( imp, c, imgStore, reader, keyBuilder );
+			exportErrors = export( interleave( maskFrames, imgFrames ) );
+		}
+		close( maskStore, exportErrors );
+		if ( imgStore != null )
+			close( imgStore, exportErrors );
+		report.since( TrackastraRunReport.EXPORT, exportStart );
+		if ( isCanceled() )
+			return abort( maskTmpFolder, imgTmpFolder );
+		if ( !exportErrors.isEmpty() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Problem saving masks and source image:\n" + summarize( exportErrors );
+			return false;
+		}
+		if ( keyBuilder != null )
+			contentKey = keyBuilder.get();
+
 		/*
 		 * 3. Launch Trackastra
 		 */
 
 		cli.maskFolder().set( maskTmpFolder.toString() );
-		cli.imageFolder().set( imgTmpFolder.toString() );
+		cli.imageFolder().set( imageFolder.toString() );
+		if ( npy )
+		{
+			cli.maskArrayFile().set( maskStore.location().toString() );
+			cli.imageArrayFile().set( imgStore.location().toString() );
+		}
 		final Path edgeCSVTablePath = maskTmpFolder.resolve( EDGE_CSV_FILENAME );
 		cli.outputEdgeFile().set( edgeCSVTablePath.toString() );
 		final String executableName = cli.getCommand();
@@ -224,19 +535,580 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 			return false;
 		}
 
-		// Redirect log to logger.
+		// Run Trackastra, once or on a persistent worker.
 		final File logFile = maskTmpFolder.resolve( TRACKASTRA_LOG_FILENAME ).toFile();
-		final Tailer tailer = Tailer.builder()
-				.setFile( logFile )
-				.setTailerListener( new LoggerTailerListener( logger ) )
-				.setDelayDuration( Duration.ofMillis( 200 ) )
-				.setTailFromEnd( true )
-				.get();
-		Process process;
+		if ( !acquireRunSlot() )
+			return abort( maskTmpFolder, imgTmpFolder );
+		final boolean ran;
+		try
+		{
+			ran = cli.useWorker().getValue()
+					? runOnWorker( executableName, logFile )
+					: runProcess( executableName, logFile );
+		}
+		finally
+		{
+			if ( runSlots != null )
+				runSlots.release();
+		}
+		// Canceling kills the run directly, possibly before the watchdog notices.
+		if ( isCanceled() )
+			return abort( maskTmpFolder, imgTmpFolder );
+		if ( !ran )
+		{
+			if ( killed )
+				deleteQuietly( maskTmpFolder, imgTmpFolder );
+			return false;
+		}
+
+		/*
+		 * 4. Read Trackastra results and pass it to the new graph.
+		 */
+
+		logger.setStatus( "Importing Trackastra results" );
+		logger.log( "Importing Trackastra results file " + edgeCSVTablePath + "\n" );
+		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		try
+		{
+			TrackastraImporter.importEdges( edgeCSVTablePath, maskExporter.labelTable(), graph, logger, report );
+			if ( contentKey != null )
+				keep( contentKey, mode, cache, edgeCSVTablePath, maskTmpFolder.resolve( CANDIDATE_CSV_FILENAME ) );
+			if ( cli.keepTempFiles().getValue() )
+				logger.log( "Keeping temp files in " + maskTmpFolder + " and " + imgTmpFolder + "\n" );
+			else
+				deleteQuietly( maskTmpFolder, imgTmpFolder );
+		}
+		catch ( final FileNotFoundException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not find Trackastra output file " + EDGE_CSV_FILENAME + "\n"
+					+ "Trackastra did not execute properly?\n"
+					+ e.getMessage();
+			try
+			{
+				errorMessage = errorMessage + '\n' + new String( Files.readAllBytes( logFile.toPath() ) );
+			}
+			catch ( final IOException e1 )
+			{}
+			return false;
+		}
+		catch ( final TrackastraEdgeTableReader.MalformedTableException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Issue with the Trackastra output file " + EDGE_CSV_FILENAME + "\n"
+					+ e.getMessage();
+			return false;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not read Trackastra output file " + EDGE_CSV_FILENAME + "\n"
+					+ e.getMessage();
+			return false;
+		}
+		finally
+		{
+			logger.setProgress( 1d );
+			logger.setStatus( "" );
+
+			final long end = System.currentTimeMillis();
+			processingTime = end - start;
+		}
+		return true;
+	}
+
+	/**
+	 * Tracks a long movie in overlapping time windows, each by its own
+	 * Trackastra run, and stitches the results. A window owns the links
+	 * whose target is between the middle of its overlap with the previous
+	 * window and the middle of its overlap with the next one.
+	 *
+	 * @return <code>true</code> if all the windows were tracked.
+	 */
+	private boolean processChunks( final int chunkSize )
+	{
+		final int nT = imp.getNFrames();
+		final int overlap = Math.min( cli.chunkOverlap().getValue(), chunkSize - 1 );
+		final List< int[] > windows = chunkWindows( nT, chunkSize, overlap );
+		logger.log( "Tracking " + nT + " frames in " + windows.size() + " chunks of " + chunkSize
+				+ " frames overlapping by " + overlap + " frames.\n" );
+
+		final List< Part > parts = new ArrayList<>( windows.size() );
+		for ( int i = 0; i < windows.size(); i++ )
+		{
+			final int[] window = windows.get( i );
+			final int from = ( i == 0 ) ? 0 : ownershipBoundary( windows.get( i - 1 ), window );
+			final int to = ( i == windows.size() - 1 ) ? nT : ownershipBoundary( window, windows.get( i + 1 ) );
+			parts.add( new Part(
+					"frames " + window[ 0 ] + " to " + ( window[ 1 ] - 1 ),
+					() -> TrackastraSubset.frames( imp, spots, window[ 0 ], window[ 1 ] ),
+					( source, target ) -> {
+						final int t = target.getFeature( Spot.FRAME ).intValue();
+						return t >= from && t < to;
+					},
+					partCli -> partCli.chunkSize().set( 0 ) ) );
+		}
+		return processParts( "chunks", parts, newStitcher() );
+	}
+
+	/**
+	 * Tracks a large field of view in overlapping tiles, each by its own
+	 * Trackastra run, and stitches the results. Each tile owns the links
+	 * whose target center lies in its core, the tile without its overlap.
+	 * Spots of the overlaps are tracked in several tiles, and deduplicated
+	 * by identity when the results are stitched.
+	 *
+	 * @return <code>true</code> if all the tiles were tracked.
+	 */
+	private boolean processTiles( final int tileSize )
+	{
+		final int width = imp.getWidth();
+		final int height = imp.getHeight();
+		final int overlap = cli.tileOverlap().getValue();
+		final double pixelWidth = imp.getCalibration().pixelWidth;
+		final double pixelHeight = imp.getCalibration().pixelHeight;
+
+		final List< Part > parts = new ArrayList<>();
+		for ( int y = 0; y < height; y += tileSize )
+		{
+			for ( int x = 0; x < width; x += tileSize )
+			{
+				final Rectangle core = new Rectangle( x, y, Math.min( tileSize, width - x ), Math.min( tileSize, height - y ) );
+				final Rectangle tile = new Rectangle( core.x - overlap, core.y - overlap, core.width + 2 * overlap, core.height + 2 * overlap )
+						.intersection( new Rectangle( 0, 0, width, height ) );
+				parts.add( new Part(
+						"tile " + core.x + "," + core.y,
+						() -> TrackastraSubset.region( imp, spots, tile ),
+						( source, target ) -> core.contains(
+								( int ) Math.floor( target.getDoublePosition( 0 ) / pixelWidth ),
+								( int ) Math.floor( target.getDoublePosition( 1 ) / pixelHeight ) ),
+						partCli -> partCli.tileSize().set( 0 ) ) );
+			}
+		}
+		logger.log( "Tracking a " + width + " x " + height + " field of view in " + parts.size() + " tiles of "
+				+ tileSize + " pixels overlapping by " + overlap + " pixels.\n" );
+		return processParts( "tiles", parts, newStitcher() );
+	}
+
+	/**
+	 * Re-tracks only the frames whose spots changed since the last run, in
+	 * windows extended by the chunk overlap on each side, and splices the new
+	 * links into the result of the last run. Links of the last run that touch
+	 * a changed frame are replaced by the links found on the windows; the
+	 * others are kept. Falls back to tracking the whole movie when more than
+	 * half of the frames changed.
+	 *
+	 * @return <code>true</code> if the movie was tracked.
+	 */
+	private boolean processIncremental( final TrackastraLastRun last )
+	{
+		final long start = System.currentTimeMillis();
+		final int nT = imp.getNFrames();
+		final int[] changedFrames = last.changedFrames( spots );
+		if ( changedFrames.length > nT / 2 )
+		{
+			logger.log( changedFrames.length + " frames out of " + nT + " changed since the last run, tracking the whole movie.\n" );
+			return processAll();
+		}
+
+		final boolean[] changed = new boolean[ nT ];
+		for ( final int t : changedFrames )
+			changed[ t ] = true;
+
+		// Merge the windows around changed frames when they overlap.
+		final int context = cli.chunkOverlap().getValue();
+		final List< int[] > windows = new ArrayList<>();
+		for ( final int t : changedFrames )
+		{
+			final int t0 = Math.max( 0, t - context );
+			final int t1 = Math.min( nT, t + context + 1 );
+			final int[] previous = windows.isEmpty() ? null : windows.get( windows.size() - 1 );
+			if ( previous != null && t0 <= previous[ 1 ] )
+				previous[ 1 ] = t1;
+			else
+				windows.add( new int[] { t0, t1 } );
+		}
+
+		final TrackastraStitcher stitcher = newStitcher();
+		final int nKept = last.keepUnchanged( stitcher, changed );
+		logger.log( changedFrames.length + " frames changed since the last run. Keeping " + nKept
+				+ " links and re-tracking " + windows.size() + " windows.\n" );
+
+		final List< Part > parts = new ArrayList<>( windows.size() );
+		for ( final int[] window : windows )
+		{
+			parts.add( new Part(
+					"frames " + window[ 0 ] + " to " + ( window[ 1 ] - 1 ),
+					() -> TrackastraSubset.frames( imp, spots, window[ 0 ], window[ 1 ] ),
+					( source, target ) -> changed[ TrackastraLastRun.frame( source ) ] || changed[ TrackastraLastRun.frame( target ) ],
+					partCli -> partCli.chunkSize().set( 0 ) ) );
+		}
+		final boolean ok = processParts( "windows", parts, stitcher );
+		logger.setProgress( 1d );
+		logger.setStatus( "" );
+		processingTime = System.currentTimeMillis() - start;
+		return ok;
+	}
+
+	/**
+	 * Returns a string identifying the image and the settings of a run, to
+	 * decide whether the last run can be re-tracked incrementally. The image
+	 * is identified by the file it was opened from, or by its title, and its
+	 * dimensions, so that the key survives reopening the image.
+	 */
+	private String lastRunKey()
+	{
+		final FileInfo fi = imp.getOriginalFileInfo();
+		final String source = ( fi != null && fi.directory != null && fi.fileName != null && !fi.fileName.isEmpty() )
+				? Paths.get( fi.directory, fi.fileName ).toString()
+				: imp.getTitle();
+		return source + "|" + imp.getBitDepth()
+				+ "|" + imp.getWidth() + "x" + imp.getHeight() + "x" + imp.getNChannels() + "x" + imp.getNSlices() + "x" + imp.getNFrames()
+				+ "|channel=" + cli.imageChannel().getValue()
+				+ "|" + cacheArguments()
+				+ "|mode=" + cli.trackingMode().getValue()
+				+ "|threshold=" + cli.linkThreshold().getValue();
+	}
+
+	/**
+	 * A part of the tracking problem, tracked by its own Trackastra run.
+	 */
+	private static final class Part
+	{
+
+		private final String name;
+
+		private final Supplier< TrackastraSubset > subset;
+
+		private final BiPredicate< Spot, Spot > owned;
+
+		private final Consumer< TrackastraCLI > configure;
+
+		private Part( final String name, final Supplier< TrackastraSubset > subset, final BiPredicate< Spot, Spot > owned, final Consumer< TrackastraCLI > configure )
+		{
+			this.name = name;
+			this.subset = subset;
+			this.owned = owned;
+			this.configure = configure;
+		}
+	}
+
+	/**
+	 * Returns a new stitcher, allowing divisions unless the tracking mode
+	 * forbids them.
+	 */
+	private TrackastraStitcher newStitcher()
+	{
+		final boolean divisions = !TrackastraCLI.MODE_GREEDY_NODIV.equals( cli.trackingMode().getValue() );
+		return new TrackastraStitcher( divisions ? 2 : 1 );
+	}
+
+	/**
+	 * Tracks the specified parts, possibly in parallel, and stitches the
+	 * links they own with the links already in the stitcher, in a new graph.
+	 *
+	 * @return <code>true</code> if all the parts were tracked.
+	 */
+	private boolean processParts( final String kind, final List< Part > parts, final TrackastraStitcher stitcher )
+	{
+		final int nParallel = Math.max( 1, Math.min( cli.parallelChunks().getValue(), parts.size() ) );
+		final int nThreadsPerPart = Math.max( 1, numThreads / nParallel );
+		final AtomicInteger nDone = new AtomicInteger( 0 );
+		final List< String > errors = new ArrayList<>();
+		final ExecutorService executor = Executors.newFixedThreadPool( nParallel );
+		try
+		{
+			final List< Future< String > > futures = new ArrayList<>( parts.size() );
+			for ( final Part part : parts )
+			{
+				futures.add( executor.submit( () -> {
+					final String error = trackPart( part, stitcher, nThreadsPerPart );
+					logger.setProgress( ( double ) nDone.incrementAndGet() / parts.size() );
+					return error;
+				} ) );
+			}
+			for ( final Future< String > future : futures )
+			{
+				final String error = future.get();
+				if ( error != null )
+					errors.add( error );
+			}
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			errors.add( e.getMessage() );
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		if ( isCanceled() )
+			return abort();
+		if ( !errors.isEmpty() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Problem tracking " + errors.size() + " out of " + parts.size() + " " + kind + ":\n" + summarize( errors );
+			return false;
+		}
+
+		logger.setStatus( "Stitching " + kind );
+		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final int nRejected = stitcher.stitch( graph );
+		if ( nRejected > 0 )
+			logger.log( "Rejected " + nRejected + " conflicting links while stitching " + kind + ".\n" );
+		return true;
+	}
+
+	/**
+	 * Tracks one part and adds the links it owns to the stitcher. A part that
+	 * fails is retried once.
+	 *
+	 * @return <code>null</code> if the part was tracked, an error message
+	 *         otherwise.
+	 */
+	private String trackPart( final Part part, final TrackastraStitcher stitcher, final int nThreadsPerPart )
+	{
+		if ( isCanceled() )
+			return part.name + ": canceled.";
+		final TrackastraSubset subset = part.subset.get();
+		if ( subset.spots().getNSpots( false ) == 0 )
+			return null;
+
+		String error = null;
+		for ( int attempt = 0; attempt < 2; attempt++ )
+		{
+			final TrackastraCLI partCli = cli.copy( imp.getNChannels() );
+			part.configure.accept( partCli );
+			partCli.incremental().set( false );
+			final TrackastraTracker tracker = new TrackastraTracker( partCli, subset.spots(), subset.imp() );
+			tracker.setNumThreads( nThreadsPerPart );
+			tracker.setLogger( partLogger( logger, part.name ) );
+			tracker.isPart = true;
+			tracker.runSlots = runSlots;
+			parts.add( tracker );
+			if ( isCanceled() )
+				tracker.cancel( cancelReason );
+			final boolean ok;
+			try
+			{
+				ok = tracker.process();
+			}
+			finally
+			{
+				parts.remove( tracker );
+				report.merge( tracker.getRunReport() );
+			}
+			if ( ok )
+			{
+				stitcher.add( subset, tracker.getResult(), part.owned );
+				return null;
+			}
+			error = tracker.getErrorMessage();
+			if ( isCanceled() )
+				break;
+			logger.log( "Tracking " + part.name + " failed" + ( attempt == 0 ? ", retrying.\n" : ".\n" ), Color.ORANGE );
+		}
+		return part.name + ": " + error;
+	}
+
+	/**
+	 * Splits <code>nT</code> frames in windows of the specified size,
+	 * overlapping by the specified number of frames. Windows are returned as
+	 * <code>[start, end)</code> pairs of 0-based frames.
+	 */
+	static List< int[] > chunkWindows( final int nT, final int size, final int overlap )
+	{
+		final List< int[] > windows = new ArrayList<>();
+		final int step = Math.max( 1, size - overlap );
+		for ( int t0 = 0;; t0 += step )
+		{
+			final int t1 = Math.min( nT, t0 + size );
+			windows.add( new int[] { t0, t1 } );
+			if ( t1 >= nT )
+				break;
+		}
+		return windows;
+	}
+
+	/**
+	 * Returns the first frame owned by the second of two consecutive windows:
+	 * the middle of their overlap, leaving at least one frame of context
+	 * before it in the second window.
+	 */
+	private static int ownershipBoundary( final int[] previous, final int[] next )
+	{
+		final int overlap = previous[ 1 ] - next[ 0 ];
+		return next[ 0 ] + Math.max( 1, overlap / 2 );
+	}
+
+	/**
+	 * Returns a logger that forwards the messages of a part to the specified
+	 * logger, but not its progress.
+	 */
+	static Logger partLogger( final Logger logger, final String name )
+	{
+		return new Logger()
+		{
+
+			@Override
+			public void log( final String message, final Color color )
+			{
+				logger.log( message, color );
+			}
+
+			@Override
+			public void error( final String message )
+			{
+				logger.error( message );
+			}
+
+			@Override
+			public void setProgress( final double val )
+			{}
+
+			@Override
+			public void setStatus( final String status )
+			{
+				logger.setStatus( status.isEmpty() ? status : name + ": " + status );
+			}
+		};
+	}
+
+	/**
+	 * Returns a string representation of the arguments that change the
+	 * candidate graph predicted by Trackastra, to be used in the cache key.
+	 * The tracking mode is not part of it.
+	 */
+	private String cacheArguments()
+	{
+		final Object model = cli.selectPretrainedOrCustom().getSelection() == cli.customModelPath()
+				? cli.customModelPath().getValue()
+				: cli.modelPretrained().getValue();
+		return "model=" + model
+				+ "|device=" + cli.useDevice().getValue();
+	}
+
+	/**
+	 * Tries to build the graph without running Trackastra: first from the
+	 * cached results of the same run, then by pruning in Java the candidate
+	 * graph of a previous run on the same data, with a greedy mode.
+	 *
+	 * @return <code>true</code> if the graph was built.
+	 */
+	private boolean reuse( final String contentKey, final String mode, final TrackastraResultCache cache, final TrackastraMaskExporter maskExporter )
+	{
+		if ( cache != null )
+		{
+			final Path cached = cache.lookup( contentKey + "-" + mode );
+			if ( cached != null )
+			{
+				logger.log( "Importing cached Trackastra results file " + cached + "\n" );
+				graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+				try
+				{
+					TrackastraImporter.importEdges( cached, maskExporter.labelTable(), graph, logger );
+					return true;
+				}
+				catch ( final IOException e )
+				{
+					logger.log( "Could not read the cached results:\n" + e.getMessage() + "\n", Color.ORANGE );
+				}
+			}
+		}
+
+		if ( !TrackastraCandidateGraph.canPrune( mode ) )
+			return false;
+
+		TrackastraCandidateGraph candidates = lastCandidates( contentKey );
+		if ( candidates == null && cache != null )
+		{
+			final Path cached = cache.lookup( contentKey + CANDIDATE_SUFFIX );
+			if ( cached != null )
+			{
+				try
+				{
+					candidates = TrackastraCandidateGraph.read( cached );
+					setLastCandidates( contentKey, candidates );
+				}
+				catch ( final IOException e )
+				{
+					logger.log( "Could not read the cached candidate graph:\n" + e.getMessage() + "\n", Color.ORANGE );
+				}
+			}
+		}
+		if ( candidates == null )
+			return false;
+
+		logger.log( "Pruning the candidate graph of a previous run with the " + mode + " mode.\n" );
+		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final int nEdges = candidates.prune( mode, cli.linkThreshold().getValue(), maskExporter.labelTable(), graph, logger );
+		logger.log( "Accepted " + nEdges + " links out of " + candidates.size() + " candidates.\n" );
+		return true;
+	}
+
+	/**
+	 * Keeps the results and the candidate graph of a successful run, in
+	 * memory for the candidates, and in the cache if there is one.
+	 */
+	private void keep( final String contentKey, final String mode, final TrackastraResultCache cache, final Path edges, final Path candidates )
+	{
+		final boolean hasCandidates = Files.isRegularFile( candidates );
+		if ( hasCandidates )
+		{
+			try
+			{
+				setLastCandidates( contentKey, TrackastraCandidateGraph.read( candidates ) );
+			}
+			catch ( final IOException e )
+			{
+				logger.log( "Could not read the candidate graph:\n" + e.getMessage() + "\n", Color.ORANGE );
+			}
+		}
+		if ( cache == null )
+			return;
+
+		try
+		{
+			cache.store( contentKey + "-" + mode, edges );
+			if ( hasCandidates )
+				cache.store( contentKey + CANDIDATE_SUFFIX, candidates );
+		}
+		catch ( final IOException e )
+		{
+			logger.log( "Could not store the results in the cache:\n" + e.getMessage() + "\n", Color.ORANGE );
+		}
+	}
+
+	private static synchronized boolean hasLastCandidates()
+	{
+		return lastCandidates.get() != null;
+	}
+
+	private static synchronized TrackastraCandidateGraph lastCandidates( final String contentKey )
+	{
+		return contentKey.equals( lastCandidatesKey ) ? lastCandidates.get() : null;
+	}
+
+	private static synchronized void setLastCandidates( final String contentKey, final TrackastraCandidateGraph candidates )
+	{
+		lastCandidatesKey = contentKey;
+		lastCandidates = new SoftReference<>( candidates );
+	}
+
+	/**
+	 * Runs Trackastra once, as a new process, and waits for it to complete.
+	 *
+	 * @return <code>true</code> if the process ran.
+	 */
+	private boolean runProcess( final String executableName, final File logFile )
+	{
+		killed = false;
+		final TrackastraWatchdog watchdog = new TrackastraWatchdog(
+				cli.timeout().getValue(),
+				cli.idleTimeout().getValue(),
+				this::isCanceled,
+				() -> TrackastraWatchdog.killTree( process ) );
+		TrackastraOutputReader reader = null;
 		try
 		{
 
-			final List< String > cmd = CommandBuilder.build( cli );
+			final List< String > cmd = command();
 			logger.setStatus( "Running " + executableName );
 			logger.log( "Running " + executableName + " with args:\n" );
 			cmd.forEach( t -> {
@@ -248,17 +1120,24 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 			logger.log( "\n" );
 
 			final ProcessBuilder pb = new ProcessBuilder( cmd );
-			pb.redirectOutput( ProcessBuilder.Redirect.appendTo( logFile ) );
-			pb.redirectError( ProcessBuilder.Redirect.appendTo( logFile ) );
+			pb.redirectErrorStream( true );
 			// Env variables.
-			final Map< String, String > env = new HashMap<>();
-			final String condaRootPrefix = CLIUtils.getCondaRootPrefix();
-			env.put( "MAMBA_ROOT_PREFIX", condaRootPrefix );
-			env.put( "CONDA_ROOT_PREFIX", condaRootPrefix );
-			pb.environment().putAll( env );
+			pb.environment().putAll( condaEnvironment() );
 
+			final long runStart = System.nanoTime();
 			process = pb.start();
+			// Read the output from the pipe, mirrored to the log file.
+			reader = new TrackastraOutputReader( process.getInputStream(), logFile, report.wrap( watchdog.wrap( logger ) ) );
+			if ( isCanceled() )
+				TrackastraWatchdog.killTree( process );
 			process.waitFor();
+			report.ran( runStart );
+			if ( watchdog.reason() != null )
+			{
+				killed = true;
+				errorMessage = BASE_ERROR_MESSAGE + executableName + " was killed: " + watchdog.reason() + "\n";
+				return false;
+			}
 		}
 		catch ( final IOException e )
 		{
@@ -281,6 +1160,14 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 			e.printStackTrace();
 			return false;
 		}
+		catch ( final InterruptedException e )
+		{
+			TrackastraWatchdog.killTree( process );
+			Thread.currentThread().interrupt();
+			killed = true;
+			errorMessage = BASE_ERROR_MESSAGE + "Interrupted while running " + executableName + ".\n";
+			return false;
+		}
 		catch ( final Exception e )
 		{
 			errorMessage = BASE_ERROR_MESSAGE + "Problem running " + executableName + ":\n" + e.getMessage();
@@ -295,55 +1182,207 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 		}
 		finally
 		{
-			tailer.close();
+			watchdog.close();
+			if ( reader != null )
+			{
+				try
+				{
+					reader.close();
+				}
+				catch ( final InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
 			process = null;
 		}
+		return true;
+	}
 
-		/*
-		 * 4. Read Trackastra results and pass it to the new graph.
-		 */
-
-		logger.setStatus( "Importing Trackastra results" );
-		logger.log( "Importing Trackastra results file " + edgeCSVTablePath + "\n" );
-		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+	/**
+	 * Runs Trackastra on the persistent worker matching the current
+	 * configuration, starting it if needed. Falls back to a one-shot run if
+	 * no worker command can be derived from the Trackastra command.
+	 *
+	 * @return <code>true</code> if the job ran.
+	 */
+	private boolean runOnWorker( final String executableName, final File logFile )
+	{
 		try
 		{
-			TrackastraImporter.importEdges( edgeCSVTablePath, spots, maskImp, graph, logger );
-		}
-		catch ( final FileNotFoundException e )
-		{
-			errorMessage = BASE_ERROR_MESSAGE + "Could not find Trackastra output file " + EDGE_CSV_FILENAME + "\n"
-					+ "Trackastra did not execute properly?\n"
-					+ e.getMessage();
-			try
+			final List< String > workerCmd = TrackastraWorker.workerCommand( command() );
+			if ( workerCmd == null )
 			{
-				errorMessage = errorMessage + '\n' + new String( Files.readAllBytes( logFile.toPath() ) );
+				logger.log( "Could not derive a worker command from the " + executableName + " command. Running it once.\n" );
+				return runProcess( executableName, logFile );
 			}
-			catch ( final IOException e1 )
-			{}
-			return false;
+			worker = TrackastraWorker.get( workerCmd, condaEnvironment(), cli.workerIdleTimeout().getValue() );
 		}
 		catch ( final IOException e )
 		{
-			errorMessage = BASE_ERROR_MESSAGE + "Could not read Trackastra output file " + EDGE_CSV_FILENAME + "\n"
-					+ e.getMessage();
+			errorMessage = BASE_ERROR_MESSAGE + "Problem running " + executableName + " on a persistent worker:\n" + e.getMessage();
 			return false;
 		}
-		catch ( final CsvException e )
+
+		killed = false;
+		final TrackastraWorker w = worker;
+		final TrackastraWatchdog watchdog = new TrackastraWatchdog(
+				cli.timeout().getValue(),
+				cli.idleTimeout().getValue(),
+				this::isCanceled,
+				w::kill );
+		try
 		{
-			errorMessage = BASE_ERROR_MESSAGE + "Issue with the Trackastra output file " + EDGE_CSV_FILENAME + "\n"
-					+ e.getMessage();
+			logger.setStatus( "Running " + executableName + " on a persistent worker" );
+			logger.log( "Running " + executableName + " on a persistent worker.\n" );
+			final long runStart = System.nanoTime();
+			w.run( workerJob(), report.wrap( watchdog.wrap( logger ) ) );
+			report.ran( runStart );
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			if ( watchdog.reason() != null )
+			{
+				killed = true;
+				errorMessage = BASE_ERROR_MESSAGE + "The persistent worker was killed: " + watchdog.reason() + "\n";
+			}
+			else
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Problem running " + executableName + " on a persistent worker:\n" + e.getMessage();
+			}
 			return false;
 		}
 		finally
 		{
-			logger.setProgress( 1d );
-			logger.setStatus( "" );
+			watchdog.close();
+			worker = null;
+		}
+	}
 
-			final long end = System.currentTimeMillis();
-			processingTime = end - start;
+	/**
+	 * Returns the per-job arguments sent to a persistent worker.
+	 */
+	private Map< String, String > workerJob()
+	{
+		final Map< String, String > job = new LinkedHashMap<>();
+		job.put( "imgs", cli.imageFolder().getValue() );
+		job.put( "masks", cli.maskFolder().getValue() );
+		if ( cli.imageArrayFile().getValue() != null )
+			job.put( "imgs_npy", cli.imageArrayFile().getValue() );
+		if ( cli.maskArrayFile().getValue() != null )
+			job.put( "masks_npy", cli.maskArrayFile().getValue() );
+		job.put( "output_edge_table", cli.outputEdgeFile().getValue() );
+		if ( cli.keepCandidates().getValue() )
+			job.put( "output_candidate_table", Paths.get( cli.outputEdgeFile().getValue() ).resolveSibling( CANDIDATE_CSV_FILENAME ).toString() );
+		job.put( "mode", cli.trackingMode().getValue() );
+		return job;
+	}
+
+	/**
+	 * Returns the command that runs Trackastra once, with the arguments
+	 * currently set in the configurator. Test harnesses override it to run a
+	 * stand-in executable instead.
+	 *
+	 * @return the command, as a list of tokens.
+	 */
+	protected List< String > command()
+	{
+		return CommandBuilder.build( cli );
+	}
+
+	/**
+	 * Returns the configurator of this tracker.
+	 *
+	 * @return the configurator.
+	 */
+	protected TrackastraCLI cli()
+	{
+		return cli;
+	}
+
+	private static Map< String, String > condaEnvironment()
+	{
+		final Map< String, String > env = new HashMap<>();
+		final String condaRootPrefix = CLIUtils.getCondaRootPrefix();
+		env.put( "MAMBA_ROOT_PREFIX", condaRootPrefix );
+		env.put( "CONDA_ROOT_PREFIX", condaRootPrefix );
+		return env;
+	}
+
+	@Override
+	public boolean isCanceled()
+	{
+		return isCanceled;
+	}
+
+	/**
+	 * Cancels the run. The Trackastra process and all its descendants are
+	 * killed, as well as the job running on a persistent worker. The temp
+	 * folders of the run are deleted.
+	 */
+	@Override
+	public void cancel( final String reason )
+	{
+		cancelReason = reason;
+		isCanceled = true;
+		parts.forEach( part -> part.cancel( reason ) );
+		final Process p = process;
+		if ( p != null )
+			new Thread( () -> TrackastraWatchdog.killTree( p ), "Trackastra cancel" ).start();
+		final TrackastraWorker w = worker;
+		if ( w != null )
+			w.kill();
+	}
+
+	@Override
+	public String getCancelReason()
+	{
+		return cancelReason;
+	}
+
+	/**
+	 * Stops a canceled run: deletes its temp folders and reports the
+	 * cancellation.
+	 *
+	 * @return <code>false</code>.
+	 */
+	private boolean abort( final Path... folders )
+	{
+		deleteQuietly( folders );
+		errorMessage = BASE_ERROR_MESSAGE + "Canceled" + ( cancelReason == null ? "." : ": " + cancelReason );
+		return false;
+	}
+
+	/**
+	 * Estimates the size, in bytes, of the masks and, if it is exported, of
+	 * the channel of the source image saved for Trackastra, with a 10% margin
+	 * for headers and the Trackastra output.
+	 */
+	private long estimateExportSize( final PixelFormat maskFormat, final boolean exportImage )
+	{
+		final long nPixels = ( long ) imp.getWidth() * imp.getHeight() * imp.getNSlices() * imp.getNFrames();
+		final int imageBytes = exportImage ? PixelFormat.of( imp.getBitDepth() ).bytesPerPixel() : 0;
+		final long bytes = nPixels * ( maskFormat.bytesPerPixel() + imageBytes );
+		return bytes + bytes / 10;
+	}
+
+	private static void deleteQuietly( final Path... folders )
+	{
+		for ( final Path folder : folders )
+		{
+			FileUtils.deleteQuietly( folder.toFile() );
+			PENDING_DELETION.remove( folder );
 		}
-		return true;
+	}
+
+	/**
+	 * Registers a temp folder to be deleted when the JVM exits, if it has
+	 * not been deleted before.
+	 */
+	private static void deleteOnExit( final Path folder )
+	{
+		PENDING_DELETION.add( folder );
 	}
 
 	@Override
@@ -352,6 +1391,63 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 		return processingTime;
 	}
 
+	/**
+	 * Shares the permits to run Trackastra with other trackers. The masks and
+	 * the source image are exported without a permit; a permit is then
+	 * acquired before running Trackastra and released after. This bounds the
+	 * number of Trackastra processes running at once, while other trackers
+	 * export their data.
+	 *
+	 * @param runSlots
+	 *            the permits, or <code>null</code> to run without.
+	 */
+	public void setRunSlots( final Semaphore runSlots )
+	{
+		this.runSlots = runSlots;
+	}
+
+	/**
+	 * Waits for a permit to run Trackastra, if permits are shared.
+	 *
+	 * @return <code>false</code> if the run was canceled or interrupted while
+	 *         waiting.
+	 */
+	private boolean acquireRunSlot()
+	{
+		if ( runSlots == null )
+			return true;
+		logger.setStatus( "Waiting for a free Trackastra slot" );
+		try
+		{
+			while ( !runSlots.tryAcquire( 250, TimeUnit.MILLISECONDS ) )
+				if ( isCanceled() )
+					return false;
+			if ( isCanceled() )
+			{
+				runSlots.release();
+				return false;
+			}
+			return true;
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			cancel( "Interrupted." );
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the timings and counters of the last run. For a movie tracked
+	 * in chunks or tiles, the report sums the reports of all the parts.
+	 *
+	 * @return the run report.
+	 */
+	public TrackastraRunReport getRunReport()
+	{
+		return report;
+	}
+
 	@Override
 	public String getErrorMessage()
 	{
@@ -360,16 +1456,20 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 
 	@Override
 	public void setNumThreads()
-	{}
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
 
 	@Override
 	public void setNumThreads( final int numThreads )
-	{}
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
 
 	@Override
 	public int getNumThreads()
 	{
-		return 1;
+		return numThreads;
 	}
 
 	@Override
@@ -378,23 +1478,192 @@ public class TrackastraTracker implements SpotTracker, Benchmark
 		this.logger = logger;
 	}
 
+	/**
+	 * Paints and writes the masks one frame at a time, on
+	 * {@link #getNumThreads()} threads.
+	 *
+	 * @param exporter
+	 *            the mask exporter.
+	 * @param folder
+	 *            the folder to write the masks to.
+	 * @return <code>true</code> if all the frames were written.
+	 */
+	public boolean writeMasks( final TrackastraMaskExporter exporter, final String folder )
+	{
+		final TrackastraFrameStore store = new TrackastraTiffFolder( Paths.get( folder ), MASK_TITLE + MASK_SUFFIX,
+				imp.getWidth(), imp.getHeight(), exporter.pixelFormat(), imp.getCalibration(), cli.compressMasks().getValue() );
+		final List< String > errors = export( maskFrames( exporter, store, report, null ) );
+		errors.forEach( e -> logger.error( e + '\n' ) );
+		return errors.isEmpty();
+	}
+
+	/**
+	 * Writes the specified channel of an image as a series of TIFF files, one
+	 * per frame, on {@link #getNumThreads()} threads.
+	 *
+	 * @param imp
+	 *            the image to write.
+	 * @param c
+	 *            the channel to write, 1-based.
+	 * @param folder
+	 *            the folder to write the files to.
+	 * @param suffix
+	 *            the suffix appended to the image title to name the files.
+	 * @return <code>true</code> if all the frames were written.
+	 */
 	public boolean writeStackList( final ImagePlus imp, final int c, final String folder, final String suffix )
+	{
+		final TrackastraFrameStore store = new TrackastraTiffFolder( Paths.get( folder ), imp.getShortTitle() + suffix,
+				imp.getWidth(), imp.getHeight(), PixelFormat.of( imp.getBitDepth() ), imp.getCalibration() );
+		final List< String > errors;
+		try (TrackastraPlaneReader reader = planeReader( imp, c ))
+		{
+			errors = export( stackFrames( imp, c, store, reader, null ) );
+		}
+		errors.forEach( e -> logger.error( e + '\n' ) );
+		return errors.isEmpty();
+	}
+
+	/**
+	 * Returns a reader loading the planes of a virtual image one at a time,
+	 * or <code>null</code> if the image is in memory.
+	 */
+	private TrackastraPlaneReader planeReader( final ImagePlus imp, final int c )
+	{
+		if ( !imp.getStack().isVirtual() )
+			return null;
+		return new TrackastraPlaneReader( imp, c, cli.prefetchPlanes().getValue() );
+	}
+
+	/**
+	 * Creates the store frames are exchanged through: a folder of TIFF files
+	 * named after the prefix, compressed or not, or a single
+	 * <code>.npy</code> array in the specified folder.
+	 */
+	private TrackastraFrameStore createStore(
+			final Path folder,
+			final String prefix,
+			final String arrayName,
+			final PixelFormat format,
+			final boolean npy,
+			final boolean compress ) throws IOException
+	{
+		if ( npy )
+			return TrackastraNpyArray.create( folder.resolve( arrayName ), format,
+					imp.getNFrames(), imp.getNSlices(), imp.getHeight(), imp.getWidth() );
+
+		return new TrackastraTiffFolder( folder, prefix, imp.getWidth(), imp.getHeight(), format, imp.getCalibration(), compress );
+	}
+
+	private static void close( final TrackastraFrameStore store, final List< String > errors )
+	{
+		try
+		{
+			store.close();
+		}
+		catch ( final IOException e )
+		{
+			errors.add( "Problem closing " + store.location() + ": " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Returns the mask frames to export. If a key builder is specified, the
+	 * masks are hashed as they are painted.
+	 */
+	private static List< Frame > maskFrames(
+			final TrackastraMaskExporter exporter,
+			final TrackastraFrameStore store,
+			final TrackastraRunReport report,
+			final TrackastraResultCache.KeyBuilder keyBuilder )
+	{
+		final int nT = exporter.getNFrames();
+		final List< Frame > frames = new ArrayList<>( nT );
+		for ( int t = 1; t <= nT; t++ )
+		{
+			final int frame = t;
+			frames.add( new Frame( store, frame, () -> {
+				final long start = System.nanoTime();
+				final List< Object > mask = exporter.paintPlanes( frame - 1 );
+				report.since( TrackastraRunReport.MASK_RASTERIZATION, start );
+				if ( keyBuilder != null )
+					keyBuilder.mask( frame, mask );
+				return mask;
+			}, TrackastraRunReport.MASK_EXPORT ) );
+		}
+		return frames;
+	}
+
+	/**
+	 * Returns the image frames to export. The planes of a frame are loaded
+	 * when the frame is sourced and, if a key builder is specified, hashed.
+	 */
+	private static List< Frame > stackFrames(
+			final ImagePlus imp,
+			final int c,
+			final TrackastraFrameStore store,
+			final TrackastraPlaneReader reader,
+			final TrackastraResultCache.KeyBuilder keyBuilder )
 	{
 		final int nT = imp.getNFrames();
-		final int nZ = imp.getNSlices();
+		final List< Frame > frames = new ArrayList<>( nT );
 		for ( int t = 1; t <= nT; t++ )
 		{
-			final String name = String.format( imp.getShortTitle() + suffix + "%04d", t );
-			final ImagePlus dup = new Duplicator().run( imp, c, c, 1, nZ, t, t );
-			dup.setTitle( name );
-			final String path = folder + File.separator + name + ".tif";
-			final boolean ok = IJ.saveAsTiff( dup, path );
-			if (!ok)
-			{
-				logger.error( "Problem saving to " + path + '\n' );
-				return false;
-			}
+			final int frame = t;
+			frames.add( new Frame( store, frame, () -> {
+				final List< Object > planes = ( reader == null )
+						? TrackastraFrameStore.planes( imp, c, frame )
+						: new ArrayList<>( reader.planes( frame ) );
+				if ( keyBuilder != null )
+					keyBuilder.image( frame, planes );
+				return planes;
+			}, TrackastraRunReport.IMAGE_EXPORT ) );
 		}
-		return true;
+		return frames;
+	}
+
+	/**
+	 * Exports the specified frames through a {@link TrackastraExportPipeline}
+	 * of {@link #getNumThreads()} threads. The failure of one frame does not
+	 * stop the others.
+	 *
+	 * @param frames
+	 *            the frames to export.
+	 * @return the list of error messages, empty if all frames were exported.
+	 */
+	private List< String > export( final List< Frame > frames )
+	{
+		return new TrackastraExportPipeline( numThreads, report, logger, this::isCanceled ).run( frames );
+	}
+
+	/**
+	 * Merges two frame lists, alternating between them, so that masks and
+	 * image frames are written at the same time.
+	 */
+	private static < T > List< T > interleave( final List< T > l1, final List< T > l2 )
+	{
+		final List< T > out = new ArrayList<>( l1.size() + l2.size() );
+		final int n = Math.max( l1.size(), l2.size() );
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( i < l1.size() )
+				out.add( l1.get( i ) );
+			if ( i < l2.size() )
+				out.add( l2.get( i ) );
+		}
+		return out;
+	}
+
+	/**
+	 * Joins error messages, keeping only the first ones.
+	 */
+	private static String summarize( final List< String > errors )
+	{
+		final int max = 10;
+		final StringBuilder str = new StringBuilder();
+		errors.stream().limit( max ).forEach( e -> str.append( " - " + e + '\n' ) );
+		if ( errors.size() > max )
+			str.append( " ... and " + ( errors.size() - max ) + " more.\n" );
+		return str.toString();
 	}
 }
@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.awt.Color;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import fiji.plugin.trackmate.Logger;
+
+/**
+ * Watches a running Trackastra process and kills it when the run is
+ * canceled, when it runs longer than a wall-clock timeout, or when it does
+ * not log anything for longer than an idle timeout.
+ * <p>
+ * Output activity is tracked through the logger returned by
+ * {@link #wrap(Logger)}, which the process output must be forwarded to.
+ */
+public class TrackastraWatchdog implements AutoCloseable
+{
+
+	private static final long CHECK_PERIOD_MILLIS = 250;
+
+	private static final long KILL_GRACE_MILLIS = 3000;
+
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor( r -> {
+		final Thread thread = new Thread( r, "Trackastra watchdog" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
+	private final long start;
+
+	private final long wallTimeoutMillis;
+
+	private final long idleTimeoutMillis;
+
+	private final BooleanSupplier canceled;
+
+	private final Runnable kill;
+
+	private final ScheduledFuture< ? > check;
+
+	private volatile long lastActivity;
+
+	private volatile String reason;
+
+	/**
+	 * Creates and starts a watchdog.
+	 *
+	 * @param wallTimeout
+	 *            the maximal duration of the run, in seconds, or 0 for no
+	 *            limit.
+	 * @param idleTimeout
+	 *            the maximal time without output, in seconds, or 0 for no
+	 *            limit.
+	 * @param canceled
+	 *            returns <code>true</code> when the run is canceled.
+	 * @param kill
+	 *            kills the run. Called at most once, on a thread of its own.
+	 */
+	public TrackastraWatchdog( final long wallTimeout, final long idleTimeout, final BooleanSupplier canceled, final Runnable kill )
+	{
+		this.start = System.currentTimeMillis();
+		this.lastActivity = start;
+		this.wallTimeoutMillis = wallTimeout * 1000L;
+		this.idleTimeoutMillis = idleTimeout * 1000L;
+		this.canceled = canceled;
+		this.kill = kill;
+		this.check = SCHEDULER.scheduleWithFixedDelay( this::check, CHECK_PERIOD_MILLIS, CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * Returns a logger that forwards to the specified logger, and records
+	 * each message as output activity.
+	 *
+	 * @param logger
+	 *            the logger to forward to.
+	 * @return a new logger.
+	 */
+	public Logger wrap( final Logger logger )
+	{
+		return new Logger()
+		{
+
+			@Override
+			public void log( final String message, final Color color )
+			{
+				lastActivity = System.currentTimeMillis();
+				logger.log( message, color );
+			}
+
+			@Override
+			public void error( final String message )
+			{
+				lastActivity = System.currentTimeMillis();
+				logger.error( message );
+			}
+
+			@Override
+			public void setProgress( final double val )
+			{
+				lastActivity = System.currentTimeMillis();
+				logger.setProgress( val );
+			}
+
+			@Override
+			public void setStatus( final String status )
+			{
+				logger.setStatus( status );
+			}
+		};
+	}
+
+	/**
+	 * Returns why the run was killed.
+	 *
+	 * @return the reason, or <code>null</code> if the run was not killed.
+	 */
+	public String reason()
+	{
+		return reason;
+	}
+
+	@Override
+	public void close()
+	{
+		check.cancel( false );
+	}
+
+	private void check()
+	{
+		if ( reason != null )
+			return;
+
+		final long now = System.currentTimeMillis();
+		final String why;
+		if ( canceled.getAsBoolean() )
+			why = "Canceled.";
+		else if ( wallTimeoutMillis > 0 && now - start > wallTimeoutMillis )
+			why = "Timed out after " + ( wallTimeoutMillis / 1000 ) + " s.";
+		else if ( idleTimeoutMillis > 0 && now - lastActivity > idleTimeoutMillis )
+			why = "No output for " + ( idleTimeoutMillis / 1000 ) + " s.";
+		else
+			return;
+
+		reason = why;
+		check.cancel( false );
+		// Killing waits for the process tree to exit: do not block the
+		// scheduler shared by all watchdogs.
+		final Thread killer = new Thread( kill, "Trackastra killer" );
+		killer.setDaemon( true );
+		killer.start();
+	}
+
+	/**
+	 * Kills a process and all its descendants. They are first asked to
+	 * terminate, then killed forcibly if still alive after a grace period.
+	 * Does nothing if the process is <code>null</code>.
+	 *
+	 * @param process
+	 *            the process to kill.
+	 */
+	public static void killTree( final Process process )
+	{
+		if ( process == null )
+			return;
+
+		// Snapshot the tree first: children are re-parented once their
+		// parent dies.
+		final List< ProcessHandle > tree = process.descendants().collect( Collectors.toList() );
+		tree.add( process.toHandle() );
+		tree.forEach( ProcessHandle::destroy );
+
+		final long deadline = System.currentTimeMillis() + KILL_GRACE_MILLIS;
+		for ( final ProcessHandle handle : tree )
+		{
+			final long remaining = deadline - System.currentTimeMillis();
+			try
+			{
+				if ( remaining > 0 )
+					handle.onExit().get( remaining, TimeUnit.MILLISECONDS );
+			}
+			catch ( final Exception e )
+			{}
+			if ( handle.isAlive() )
+				handle.destroyForcibly();
+		}
+	}
+}
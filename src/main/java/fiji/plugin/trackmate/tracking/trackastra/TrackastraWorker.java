@@ -0,0 +1,495 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fiji.plugin.trackmate.Logger;
+
+/**
+ * A long-lived Trackastra process, that loads the model once and then runs
+ * tracking jobs sent to it over stdin.
+ * <p>
+ * Workers are shared over the Fiji session and keyed by the command that
+ * starts them, which includes the conda environment, the model and the
+ * device. A worker that has not been used for longer than its idle timeout is
+ * shut down, and is started again on the next job.
+ * <p>
+ * The protocol is line-based. Each job is one JSON object on one line. The
+ * worker replies with lines starting with {@link #PROTOCOL_PREFIX}: a
+ * <code>READY</code> line once the model is loaded, then a <code>DONE</code>
+ * or an <code>ERROR</code> line for each job. Any other line is log output.
+ */
+public class TrackastraWorker
+{
+
+	public static final String PROTOCOL_PREFIX = "@@TRACKASTRA-WORKER";
+
+	private static final String WORKER_SCRIPT = "/trackastra/trackastra_worker.py";
+
+	/**
+	 * Per-job arguments of <code>trackastra track</code>. They are sent with
+	 * each job and not used to start the worker.
+	 */
+	private static final List< String > JOB_ARGUMENTS = List.of(
+			"--imgs", "--masks", "--imgs-npy", "--masks-npy", "--output-edge-table", "--mode" );
+
+	private static final Map< String, TrackastraWorker > WORKERS = new HashMap<>();
+
+	private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor( r -> {
+		final Thread thread = new Thread( r, "Trackastra worker reaper" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
+	private static Path script;
+
+	static
+	{
+		Runtime.getRuntime().addShutdownHook( new Thread( TrackastraWorker::killAll ) );
+	}
+
+	private final List< String > command;
+
+	private final Map< String, String > environment;
+
+	private volatile long idleTimeoutMillis;
+
+	/**
+	 * The periodic check of the idle time of this worker, cancelled when the
+	 * worker is shut down and scheduled again when it is started.
+	 */
+	private ScheduledFuture< ? > reaper;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private volatile Process process;
+
+	private BufferedWriter stdin;
+
+	private BufferedReader stdout;
+
+	private volatile long lastUsed;
+
+	private TrackastraWorker( final List< String > command, final Map< String, String > environment, final long idleTimeoutMillis )
+	{
+		this.command = command;
+		this.environment = environment;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the worker started by the specified command, creating it if
+	 * needed. The process itself is started with the first job. The idle
+	 * timeout of an existing worker is updated to the specified one.
+	 *
+	 * @param command
+	 *            the command that starts the worker, as returned by
+	 *            {@link #workerCommand(List)}.
+	 * @param environment
+	 *            the environment variables to add to the worker process.
+	 * @param idleTimeout
+	 *            the idle time, in seconds, after which the worker is shut
+	 *            down.
+	 * @return the worker.
+	 */
+	public static synchronized TrackastraWorker get( final List< String > command, final Map< String, String > environment, final long idleTimeout )
+	{
+		final String key = String.join( "\u0000", command );
+		TrackastraWorker worker = WORKERS.get( key );
+		if ( worker == null )
+		{
+			worker = new TrackastraWorker( new ArrayList<>( command ), new HashMap<>( environment ), idleTimeout * 1000L );
+			WORKERS.put( key, worker );
+		}
+		else if ( worker.idleTimeoutMillis != idleTimeout * 1000L )
+		{
+			worker.idleTimeoutMillis = idleTimeout * 1000L;
+			worker.scheduleReaper();
+		}
+		return worker;
+	}
+
+	/**
+	 * Shuts down all the workers of this session.
+	 */
+	public static synchronized void shutdownAll()
+	{
+		WORKERS.values().forEach( TrackastraWorker::shutdown );
+	}
+
+	/**
+	 * Derives the command that starts a worker from the command of a one-shot
+	 * <code>trackastra track</code> run. The environment activation and the
+	 * model and device arguments are kept, the executable is replaced by the
+	 * worker script run by the Python interpreter of the same environment, and
+	 * the per-job arguments are removed.
+	 * <p>
+	 * When the Trackastra executable is given as a path, the interpreter is
+	 * the one installed next to it. A bare <code>trackastra</code> executable
+	 * is only accepted when it is run by <code>conda run</code> or alike,
+	 * which puts the interpreter of the environment first on the path.
+	 *
+	 * @param trackCommand
+	 *            the command of a one-shot run.
+	 * @return the worker command, or <code>null</code> if the Trackastra
+	 *         executable or its Python interpreter could not be found in the
+	 *         specified command.
+	 * @throws IOException
+	 *             if the worker script cannot be extracted.
+	 */
+	public static List< String > workerCommand( final List< String > trackCommand ) throws IOException
+	{
+		int index = -1;
+		for ( int i = 0; i < trackCommand.size() - 1; i++ )
+		{
+			final String token = trackCommand.get( i ).replace( '\\', '/' );
+			if ( ( token.equals( "trackastra" ) || token.endsWith( "/trackastra" ) || token.endsWith( "/trackastra.exe" ) )
+					&& trackCommand.get( i + 1 ).equals( "track" ) )
+			{
+				index = i;
+				break;
+			}
+		}
+		if ( index < 0 )
+			return null;
+
+		final String python = python( trackCommand, index );
+		if ( python == null )
+			return null;
+
+		final List< String > cmd = new ArrayList<>( trackCommand.subList( 0, index ) );
+		cmd.add( python );
+		cmd.add( "-u" );
+		cmd.add( script().toString() );
+		for ( int i = index + 2; i < trackCommand.size(); i++ )
+		{
+			final String token = trackCommand.get( i );
+			if ( JOB_ARGUMENTS.contains( token ) )
+			{
+				i++;
+				continue;
+			}
+			cmd.add( token );
+		}
+		return cmd;
+	}
+
+	/**
+	 * Returns the Python interpreter of the environment of the Trackastra
+	 * executable at the specified index of a command, or <code>null</code> if
+	 * it cannot be determined.
+	 */
+	private static String python( final List< String > command, final int index )
+	{
+		final String token = command.get( index );
+		final int sep = Math.max( token.lastIndexOf( '/' ), token.lastIndexOf( '\\' ) );
+		if ( sep < 0 )
+		{
+			// Bare name: only resolved in the environment by 'conda run'.
+			for ( int i = 0; i < index - 1; i++ )
+			{
+				final String path = command.get( i ).replace( '\\', '/' );
+				final String name = path.substring( path.lastIndexOf( '/' ) + 1 )
+						.toLowerCase( Locale.ROOT ).replace( ".exe", "" ).replace( ".bat", "" );
+				if ( ( name.equals( "conda" ) || name.equals( "mamba" ) || name.equals( "micromamba" ) )
+						&& command.get( i + 1 ).equals( "run" ) )
+					return "python";
+			}
+			return null;
+		}
+
+		// Path: use the interpreter of the same environment.
+		final String folder = token.substring( 0, sep + 1 );
+		if ( token.toLowerCase( Locale.ROOT ).endsWith( ".exe" ) )
+		{
+			// On Windows, entry points are in Scripts, the interpreter in the environment root.
+			final String parent = folder.substring( 0, folder.length() - 1 );
+			final int sep2 = Math.max( parent.lastIndexOf( '/' ), parent.lastIndexOf( '\\' ) );
+			if ( sep2 >= 0 && parent.substring( sep2 + 1 ).equalsIgnoreCase( "Scripts" ) )
+				return parent.substring( 0, sep2 + 1 ) + "python.exe";
+			return folder + "python.exe";
+		}
+		return folder + "python";
+	}
+
+	/**
+	 * Runs one tracking job on this worker, starting the worker first if it
+	 * is not running. Jobs sent to the same worker run one after the other.
+	 *
+	 * @param job
+	 *            the job arguments, as a map of names to values.
+	 * @param logger
+	 *            the logger to forward the worker output to.
+	 * @throws IOException
+	 *             if the worker cannot be started, dies, or reports an error.
+	 */
+	public void run( final Map< String, String > job, final Logger logger ) throws IOException
+	{
+		lock.lock();
+		try
+		{
+			if ( process == null || !process.isAlive() )
+				start( logger );
+
+			stdin.write( toJson( job ) );
+			stdin.newLine();
+			stdin.flush();
+			waitFor( "DONE", logger );
+		}
+		catch ( final IOException e )
+		{
+			shutdown();
+			throw e;
+		}
+		finally
+		{
+			lastUsed = System.currentTimeMillis();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the worker process, if it is running.
+	 */
+	public void shutdown()
+	{
+		lock.lock();
+		try
+		{
+			if ( process == null )
+				return;
+			try
+			{
+				stdin.write( "{\"command\": \"quit\"}" );
+				stdin.newLine();
+				stdin.flush();
+			}
+			catch ( final IOException e )
+			{}
+			try
+			{
+				if ( !process.waitFor( 5, TimeUnit.SECONDS ) )
+					process.destroyForcibly();
+			}
+			catch ( final InterruptedException e )
+			{
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+			process = null;
+			stdin = null;
+			stdout = null;
+		}
+		finally
+		{
+			cancelReaper();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Kills the worker process and all its descendants, without waiting for
+	 * the running job, which then fails. The worker is started again on the
+	 * next job.
+	 */
+	public void kill()
+	{
+		TrackastraWatchdog.killTree( process );
+	}
+
+	/**
+	 * Kills the worker processes without waiting for running jobs. Used when
+	 * the JVM exits.
+	 */
+	private static synchronized void killAll()
+	{
+		WORKERS.values().forEach( TrackastraWorker::kill );
+	}
+
+	/**
+	 * Schedules the periodic check of the idle time of this worker, replacing
+	 * the previous one, with a period adapted to the idle timeout.
+	 */
+	private synchronized void scheduleReaper()
+	{
+		if ( reaper == null && process == null )
+			return;
+		cancelReaper();
+		final long idleTimeout = idleTimeoutMillis / 1000L;
+		final long period = Math.max( 1L, Math.min( 60L, idleTimeout / 2 ) );
+		reaper = REAPER.scheduleWithFixedDelay( this::shutdownIfIdle, period, period, TimeUnit.SECONDS );
+	}
+
+	private synchronized void cancelReaper()
+	{
+		if ( reaper != null )
+			reaper.cancel( false );
+		reaper = null;
+	}
+
+	private void shutdownIfIdle()
+	{
+		if ( !lock.tryLock() )
+			return;
+		try
+		{
+			if ( process != null && System.currentTimeMillis() - lastUsed > idleTimeoutMillis )
+				shutdown();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private void start( final Logger logger ) throws IOException
+	{
+		logger.log( "Starting Trackastra worker.\n" );
+		final ProcessBuilder pb = new ProcessBuilder( command );
+		pb.redirectErrorStream( true );
+		pb.environment().putAll( environment );
+		process = pb.start();
+		stdin = new BufferedWriter( new OutputStreamWriter( process.getOutputStream(), StandardCharsets.UTF_8 ) );
+		stdout = new BufferedReader( new InputStreamReader( process.getInputStream(), StandardCharsets.UTF_8 ) );
+		waitFor( "READY", logger );
+		scheduleReaper();
+	}
+
+	/**
+	 * Forwards the worker output to the logger until it replies with the
+	 * specified status. Progress bars are parsed as by
+	 * {@link TrackastraOutputReader}.
+	 */
+	private void waitFor( final String status, final Logger logger ) throws IOException
+	{
+		// Read segments ended by a new line or by a carriage return, after
+		// which progress bars are redrawn.
+		final StringBuilder segment = new StringBuilder();
+		int c;
+		while ( ( c = stdout.read() ) >= 0 )
+		{
+			if ( c != '\n' && c != '\r' )
+			{
+				segment.append( ( char ) c );
+				continue;
+			}
+			final String line = segment.toString();
+			segment.setLength( 0 );
+			if ( !line.startsWith( PROTOCOL_PREFIX ) )
+			{
+				TrackastraOutputReader.segment( line, c == '\n', logger );
+				continue;
+			}
+			final String reply = line.substring( PROTOCOL_PREFIX.length() ).trim();
+			if ( reply.startsWith( status ) )
+				return;
+			if ( reply.startsWith( "ERROR" ) )
+				throw new IOException( "Trackastra worker error: " + reply.substring( "ERROR".length() ).trim() );
+		}
+		throw new IOException( "Trackastra worker exited unexpectedly." );
+	}
+
+	private static String toJson( final Map< String, String > job )
+	{
+		final StringBuilder str = new StringBuilder( "{" );
+		for ( final Map.Entry< String, String > entry : job.entrySet() )
+		{
+			if ( str.length() > 1 )
+				str.append( ", " );
+			str.append( quote( entry.getKey() ) ).append( ": " ).append( quote( entry.getValue() ) );
+		}
+		return str.append( '}' ).toString();
+	}
+
+	static String quote( final String str )
+	{
+		final StringBuilder out = new StringBuilder( "\"" );
+		for ( final char c : str.toCharArray() )
+		{
+			switch ( c )
+			{
+			case '"':
+				out.append( "\\\"" );
+				break;
+			case '\\':
+				out.append( "\\\\" );
+				break;
+			case '\n':
+				out.append( "\\n" );
+				break;
+			case '\r':
+				out.append( "\\r" );
+				break;
+			case '\t':
+				out.append( "\\t" );
+				break;
+			default:
+				if ( c < 0x20 )
+					out.append( String.format( "\\u%04x", ( int ) c ) );
+				else
+					out.append( c );
+			}
+		}
+		return out.append( '"' ).toString();
+	}
+
+	/**
+	 * Extracts the worker script to a temp file, once per session.
+	 */
+	private static synchronized Path script() throws IOException
+	{
+		if ( script == null )
+		{
+			final Path path = Files.createTempFile( "trackastra_worker_", ".py" );
+			path.toFile().deleteOnExit();
+			try (InputStream is = TrackastraWorker.class.getResourceAsStream( WORKER_SCRIPT ))
+			{
+				if ( is == null )
+					throw new IOException( "Could not find the worker script " + WORKER_SCRIPT );
+				Files.copy( is, path, StandardCopyOption.REPLACE_EXISTING );
+			}
+			script = path;
+		}
+		return script;
+	}
+}
@@ -0,0 +1,193 @@
+"""
+Long-lived Trackastra worker for TrackMate.
+
+The worker loads the Trackastra model once, then processes tracking jobs
+read from stdin, one JSON object per line:
+
+    {"imgs": "...", "masks": "...", "imgs_npy": "...", "masks_npy": "...",
+     "output_edge_table": "...", "output_candidate_table": "...",
+     "mode": "greedy"}
+
+The npy entries are optional. When present, they point to single .npy
+arrays and take precedence over the image and mask folders. When
+output_candidate_table is present, the dense candidate graph predicted by
+the model is also written there, before pruning, with the columns of the
+edge table. TrackMate prunes it again in Java when only the greedy mode
+changes.
+
+It replies on stdout with lines starting with the protocol prefix:
+
+    @@TRACKASTRA-WORKER READY        the model is loaded.
+    @@TRACKASTRA-WORKER DONE         the job completed.
+    @@TRACKASTRA-WORKER ERROR <msg>  the job failed.
+
+Any other line is log output. A job {"command": "quit"} or closing stdin
+stops the worker.
+
+Jobs without a candidate table go through the public Trackastra.track API.
+Writing the candidate table needs the predictions before pruning, which
+only the private _predict and _track_from_predictions methods expose. They
+are used only with the Trackastra versions listed in SUPPORTED_VERSIONS,
+checked on the first job asking for a candidate table: with another
+version, such jobs are tracked with the public API and write no candidate
+table.
+"""
+
+import argparse
+import json
+import sys
+import traceback
+from pathlib import Path
+
+PREFIX = "@@TRACKASTRA-WORKER"
+
+# Range of Trackastra versions, as (major, minor), whose private prediction
+# API the candidate table relies on. The upper bound is inclusive.
+SUPPORTED_VERSIONS = ((0, 3), (0, 5))
+
+
+def reply(status, message=""):
+    print(f"{PREFIX} {status} {message}".rstrip(), flush=True)
+
+
+def load(folder, array):
+    if array:
+        import numpy as np
+
+        return np.load(array, mmap_mode="r")
+    from trackastra.data import load_tiff_timeseries
+
+    return load_tiff_timeseries(Path(folder))
+
+
+def resolve_device(device):
+    if device not in (None, "automatic"):
+        return device
+    import torch
+
+    if torch.cuda.is_available():
+        return "cuda"
+    if torch.backends.mps.is_available():
+        return "mps"
+    return "cpu"
+
+
+def check_version(model):
+    """Returns an error message if the installed Trackastra version is not
+    supported, None otherwise."""
+    from importlib.metadata import PackageNotFoundError, version
+
+    try:
+        installed = version("trackastra")
+    except PackageNotFoundError:
+        return "Could not determine the installed Trackastra version."
+    try:
+        major_minor = tuple(int(p) for p in installed.split(".")[:2])
+    except ValueError:
+        return f"Could not parse the Trackastra version {installed}."
+    low, high = SUPPORTED_VERSIONS
+    supported = "{}.{} to {}.{}".format(*low, *high)
+    if not low <= major_minor <= high:
+        return (
+            f"Trackastra {installed} is not supported by the TrackMate worker, "
+            f"which needs version {supported} to write the candidate graph."
+        )
+    for method in ("_predict", "_track_from_predictions"):
+        if not hasattr(model, method):
+            return (
+                f"Trackastra {installed} does not provide the {method} method "
+                f"the TrackMate worker needs (supported versions: {supported})."
+            )
+    return None
+
+
+_version_error = []
+
+
+def private_api_error(model):
+    """Returns why the private API cannot be used, or None. Checked once."""
+    if not _version_error:
+        _version_error.append(check_version(model))
+    return _version_error[0]
+
+
+def track(model, imgs, masks, mode, candidate_table):
+    """Tracks with the public API, or with the private one when the
+    candidate table must be written and the Trackastra version supports
+    it."""
+    if candidate_table:
+        error = private_api_error(model)
+        if error:
+            print(f"{error} Not writing the candidate table.", flush=True)
+            candidate_table = None
+    if not candidate_table:
+        result = model.track(imgs, masks, mode=mode)
+        # Some versions also return the relabeled masks.
+        return result[0] if isinstance(result, tuple) else result
+    predictions = model._predict(imgs, masks)
+    write_candidates(predictions, Path(candidate_table))
+    return model._track_from_predictions(predictions, mode=mode)
+
+
+def write_candidates(predictions, outpath):
+    nodes = {node["id"]: node for node in predictions["nodes"]}
+    with open(outpath, "w") as f:
+        f.write("source_frame,source_label,target_frame,target_label,weight\n")
+        for (i, j), weight in predictions["weights"]:
+            source, target = nodes[i], nodes[j]
+            if source["time"] > target["time"]:
+                source, target = target, source
+            f.write(
+                f"{source['time']},{source['label']},"
+                f"{target['time']},{target['label']},{weight}\n"
+            )
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__)
+    parser.add_argument("--model-pretrained", default=None)
+    parser.add_argument("--model-custom", default=None)
+    parser.add_argument("--device", default="automatic")
+    args, _ = parser.parse_known_args()
+
+    from trackastra.model import Trackastra
+    from trackastra.tracking import graph_to_edge_table
+
+    device = resolve_device(args.device)
+    if args.model_custom:
+        model = Trackastra.from_folder(Path(args.model_custom), device=device)
+    else:
+        model = Trackastra.from_pretrained(args.model_pretrained, device=device)
+    reply("READY")
+
+    for line in sys.stdin:
+        line = line.strip()
+        if not line:
+            continue
+        try:
+            job = json.loads(line)
+            if job.get("command") == "quit":
+                break
+            imgs = load(job.get("imgs"), job.get("imgs_npy"))
+            masks = load(job.get("masks"), job.get("masks_npy"))
+            graph = track(
+                model,
+                imgs,
+                masks,
+                job.get("mode", "greedy"),
+                job.get("output_candidate_table"),
+            )
+            graph_to_edge_table(
+                graph=graph,
+                frame_attribute="time",
+                outpath=Path(job["output_edge_table"]),
+            )
+            reply("DONE")
+        except Exception as e:
+            traceback.print_exc(file=sys.stdout)
+            sys.stdout.flush()
+            reply("ERROR", str(e).replace("\n", " "))
+
+
+if __name__ == "__main__":
+    main()
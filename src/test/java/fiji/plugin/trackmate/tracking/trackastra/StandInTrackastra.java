@@ -0,0 +1,273 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * A stand-in for the <code>trackastra track</code> executable, to exercise
+ * the whole tracking path without Python nor GPU.
+ * <p>
+ * It reads the masks written to the <code>--masks</code> folder, computes the
+ * centroid of each label, and links each label to the nearest labels of the
+ * previous frame with a greedy assignment, like Trackastra in
+ * <code>greedy</code> or <code>greedy_nodiv</code> mode. The result is
+ * written to <code>--output-edge-table</code>, and the output mimics the one
+ * of Trackastra, with tqdm progress bars.
+ * <p>
+ * Its behavior is configured with system properties:
+ * <ul>
+ * <li><code>trackastra.standin.startup</code>: time to pretend loading the
+ * model, in ms. Default 0.
+ * <li><code>trackastra.standin.delay</code>: time to pretend predicting, in
+ * ms, spread over the frames. Default 0.
+ * <li><code>trackastra.standin.neighbours</code>: number of candidate
+ * sources considered for each label. Default 3.
+ * <li><code>trackastra.standin.maxDistance</code>: maximal linking distance,
+ * in pixels. Default 50.
+ * </ul>
+ */
+public class StandInTrackastra
+{
+
+	public static final String STARTUP = "trackastra.standin.startup";
+
+	public static final String DELAY = "trackastra.standin.delay";
+
+	public static final String NEIGHBOURS = "trackastra.standin.neighbours";
+
+	public static final String MAX_DISTANCE = "trackastra.standin.maxDistance";
+
+	public static void main( final String[] args ) throws IOException, InterruptedException
+	{
+		final Map< String, String > arguments = new HashMap<>();
+		for ( int i = 0; i < args.length - 1; i++ )
+			if ( args[ i ].startsWith( "--" ) )
+				arguments.put( args[ i ], args[ i + 1 ] );
+
+		final String masks = arguments.get( "--masks" );
+		final String output = arguments.get( "--output-edge-table" );
+		if ( masks == null || output == null )
+		{
+			System.err.println( "Usage: track --imgs FOLDER --masks FOLDER --output-edge-table FILE [--mode MODE]" );
+			System.exit( 2 );
+		}
+		final String mode = arguments.getOrDefault( "--mode", "greedy" );
+		final long startup = Long.getLong( STARTUP, 0L );
+		final long delay = Long.getLong( DELAY, 0L );
+		final int k = Integer.getInteger( NEIGHBOURS, 3 );
+		final double maxDistance = Double.parseDouble( System.getProperty( MAX_DISTANCE, "50" ) );
+
+		System.out.println( "Loading model " + arguments.getOrDefault( "--model-pretrained", "general_2d" ) );
+		Thread.sleep( startup );
+
+		final List< Path > files;
+		try (Stream< Path > list = Files.list( Paths.get( masks ) ))
+		{
+			files = list.filter( p -> p.toString().endsWith( ".tif" ) ).sorted().collect( Collectors.toList() );
+		}
+		System.out.println( "Found " + files.size() + " frames in " + masks );
+
+		final List< Map< Integer, double[] > > centroids = new ArrayList<>( files.size() );
+		for ( int t = 0; t < files.size(); t++ )
+		{
+			centroids.add( centroids( IJ.openImage( files.get( t ).toString() ) ) );
+			progress( "Predicting windows", t + 1, files.size() );
+			if ( delay > 0 )
+				Thread.sleep( delay / Math.max( 1, files.size() ) );
+		}
+		System.err.print( '\n' );
+
+		System.out.println( "Running " + mode + " linking" );
+		final int maxChildren = "greedy_nodiv".equals( mode ) ? 1 : 2;
+		long nEdges = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter( Paths.get( output ), StandardCharsets.UTF_8 ))
+		{
+			writer.write( "source_frame,source_label,target_frame,target_label,weight\n" );
+			for ( int t = 1; t < centroids.size(); t++ )
+				nEdges += link( centroids.get( t - 1 ), centroids.get( t ), t, k, maxDistance, maxChildren, writer );
+		}
+		System.out.println( "Saved " + nEdges + " edges to " + output );
+	}
+
+	/**
+	 * Returns the centroid of each label, as <code>x, y, z</code>.
+	 */
+	private static Map< Integer, double[] > centroids( final ImagePlus mask )
+	{
+		final Map< Integer, double[] > sums = new HashMap<>();
+		final ImageStack stack = mask.getStack();
+		final int width = mask.getWidth();
+		for ( int z = 0; z < stack.getSize(); z++ )
+		{
+			final ImageProcessor ip = stack.getProcessor( z + 1 );
+			for ( int i = 0; i < width * mask.getHeight(); i++ )
+			{
+				// 16-bit or 32-bit masks, read as float for the latter.
+				final int label = ( int ) ip.getf( i );
+				if ( label == 0 )
+					continue;
+				final double[] sum = sums.computeIfAbsent( label, l -> new double[ 4 ] );
+				sum[ 0 ] += i % width;
+				sum[ 1 ] += i / width;
+				sum[ 2 ] += z;
+				sum[ 3 ]++;
+			}
+		}
+		for ( final double[] sum : sums.values() )
+			for ( int d = 0; d < 3; d++ )
+				sum[ d ] /= sum[ 3 ];
+		return sums;
+	}
+
+	/**
+	 * Links the labels of frame <code>t</code> to their nearest labels in the
+	 * previous frame, by increasing distance, giving each label at most one
+	 * parent and at most <code>maxChildren</code> children.
+	 *
+	 * @return the number of edges written.
+	 */
+	private static long link(
+			final Map< Integer, double[] > sources,
+			final Map< Integer, double[] > targets,
+			final int t,
+			final int k,
+			final double maxDistance,
+			final int maxChildren,
+			final BufferedWriter writer ) throws IOException
+	{
+		// Bin the sources in a grid of cells as large as the max distance.
+		final Map< Long, List< Integer > > grid = new HashMap<>();
+		for ( final Map.Entry< Integer, double[] > source : sources.entrySet() )
+			grid.computeIfAbsent( cell( source.getValue(), maxDistance, 0, 0 ), c -> new ArrayList<>() ).add( source.getKey() );
+
+		// k nearest candidate sources of each target.
+		final List< double[] > candidates = new ArrayList<>();
+		for ( final Map.Entry< Integer, double[] > target : targets.entrySet() )
+		{
+			final double[] pt = target.getValue();
+			final List< double[] > nearest = new ArrayList<>();
+			for ( int dx = -1; dx <= 1; dx++ )
+			{
+				for ( int dy = -1; dy <= 1; dy++ )
+				{
+					final List< Integer > cell = grid.get( cell( pt, maxDistance, dx, dy ) );
+					if ( cell == null )
+						continue;
+					for ( final Integer label : cell )
+					{
+						final double[] ps = sources.get( label );
+						final double d = Math.sqrt( ( ps[ 0 ] - pt[ 0 ] ) * ( ps[ 0 ] - pt[ 0 ] )
+								+ ( ps[ 1 ] - pt[ 1 ] ) * ( ps[ 1 ] - pt[ 1 ] )
+								+ ( ps[ 2 ] - pt[ 2 ] ) * ( ps[ 2 ] - pt[ 2 ] ) );
+						if ( d <= maxDistance )
+							nearest.add( new double[] { d, label, target.getKey() } );
+					}
+				}
+			}
+			nearest.sort( ( a, b ) -> Double.compare( a[ 0 ], b[ 0 ] ) );
+			candidates.addAll( nearest.subList( 0, Math.min( k, nearest.size() ) ) );
+		}
+
+		// Greedy assignment.
+		candidates.sort( ( a, b ) -> Double.compare( a[ 0 ], b[ 0 ] ) );
+		final Map< Integer, Integer > nChildren = new HashMap<>();
+		final Map< Integer, Boolean > hasParent = new HashMap<>();
+		long n = 0;
+		for ( final double[] c : candidates )
+		{
+			final int source = ( int ) c[ 1 ];
+			final int target = ( int ) c[ 2 ];
+			final int children = nChildren.getOrDefault( source, 0 );
+			if ( children >= maxChildren || hasParent.containsKey( target ) )
+				continue;
+			nChildren.put( source, children + 1 );
+			hasParent.put( target, Boolean.TRUE );
+			final double weight = Math.exp( -c[ 0 ] / maxDistance );
+			writer.write( ( t - 1 ) + "," + source + "," + t + "," + target + "," + weight + "\n" );
+			n++;
+		}
+		return n;
+	}
+
+	private static long cell( final double[] p, final double size, final int dx, final int dy )
+	{
+		final long cx = ( long ) Math.floor( p[ 0 ] / size ) + dx;
+		final long cy = ( long ) Math.floor( p[ 1 ] / size ) + dy;
+		return ( cx << 32 ) ^ ( cy & 0xffffffffL );
+	}
+
+	/**
+	 * Prints a tqdm-like progress bar on the error stream, redrawn after a
+	 * carriage return.
+	 */
+	private static void progress( final String stage, final int done, final int total )
+	{
+		final int percent = 100 * done / total;
+		final char[] bar = new char[ 10 ];
+		Arrays.fill( bar, ' ' );
+		Arrays.fill( bar, 0, percent / 10, '#' );
+		System.err.print( String.format( "\r%s: %3d%%|%s| %d/%d", stage, percent, new String( bar ), done, total ) );
+		System.err.flush();
+	}
+
+	/**
+	 * Returns the command that runs this stand-in with the same Java and
+	 * class path as the current JVM.
+	 *
+	 * @param properties
+	 *            the system properties to configure the stand-in with, as
+	 *            pairs of name and value.
+	 * @return the command, ready to receive the <code>track</code>
+	 *         arguments.
+	 */
+	public static List< String > command( final String... properties )
+	{
+		final List< String > cmd = new ArrayList<>();
+		cmd.add( System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java" );
+		for ( int i = 0; i < properties.length - 1; i += 2 )
+			cmd.add( "-D" + properties[ i ] + "=" + properties[ i + 1 ] );
+		cmd.add( "-cp" );
+		cmd.add( System.getProperty( "java.class.path" ) );
+		cmd.add( StandInTrackastra.class.getName() );
+		cmd.add( "track" );
+		return cmd;
+	}
+}
@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fiji.plugin.trackmate.SpotCollection;
+import ij.ImagePlus;
+
+/**
+ * A {@link TrackastraTracker} that runs {@link StandInTrackastra} instead of
+ * the Trackastra executable. Export, process launch, log streaming and import
+ * are the ones of the real tracker.
+ */
+public class StandInTrackastraTracker extends TrackastraTracker
+{
+
+	private final List< String > standIn;
+
+	/**
+	 * Creates a tracker running the specified stand-in command.
+	 *
+	 * @param cli
+	 *            the configurator.
+	 * @param spots
+	 *            the spots to track.
+	 * @param imp
+	 *            the source image.
+	 * @param standIn
+	 *            the stand-in command, as returned by
+	 *            {@link StandInTrackastra#command(String...)}.
+	 */
+	public StandInTrackastraTracker( final TrackastraCLI cli, final SpotCollection spots, final ImagePlus imp, final List< String > standIn )
+	{
+		super( cli, spots, imp );
+		this.standIn = standIn;
+	}
+
+	@Override
+	protected List< String > command()
+	{
+		final TrackastraCLI cli = cli();
+		final List< String > cmd = new ArrayList<>( standIn );
+		cmd.add( "--imgs" );
+		cmd.add( cli.imageFolder().getValue() );
+		cmd.add( "--masks" );
+		cmd.add( cli.maskFolder().getValue() );
+		cmd.add( "--output-edge-table" );
+		cmd.add( cli.outputEdgeFile().getValue() );
+		cmd.add( "--mode" );
+		cmd.add( cli.trackingMode().getValue() );
+		return cmd;
+	}
+}
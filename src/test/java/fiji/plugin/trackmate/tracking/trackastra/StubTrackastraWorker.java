@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stand-in for the Python Trackastra worker, that speaks the
+ * {@link TrackastraWorker} protocol. It pretends to load a model, then writes
+ * an empty edge table for each job it receives.
+ */
+public class StubTrackastraWorker
+{
+
+	private static final Pattern OUTPUT = Pattern.compile( "\"output_edge_table\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"" );
+
+	public static void main( final String[] args ) throws IOException, InterruptedException
+	{
+		final long modelLoadingTime = args.length > 0 ? Long.parseLong( args[ 0 ] ) : 2000;
+		System.out.println( "Loading model..." );
+		Thread.sleep( modelLoadingTime );
+		System.out.println( TrackastraWorker.PROTOCOL_PREFIX + " READY" );
+
+		final BufferedReader in = new BufferedReader( new InputStreamReader( System.in ) );
+		String line;
+		while ( ( line = in.readLine() ) != null )
+		{
+			if ( line.contains( "\"quit\"" ) )
+				break;
+
+			final Matcher m = OUTPUT.matcher( line );
+			if ( !m.find() )
+			{
+				System.out.println( TrackastraWorker.PROTOCOL_PREFIX + " ERROR no output_edge_table in job" );
+				continue;
+			}
+			final String output = m.group( 1 ).replace( "\\\\", "\\" );
+			System.out.println( "Tracking job: " + line );
+			Files.write( Paths.get( output ), "source_frame,source_label,target_frame,target_label,weight\n".getBytes() );
+			System.out.println( TrackastraWorker.PROTOCOL_PREFIX + " DONE" );
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraBatch.Job;
+import fiji.plugin.trackmate.tracking.trackastra.bench.TrackastraSyntheticData;
+import ij.ImagePlus;
+
+/**
+ * Tracks a batch of synthetic movies with {@link TrackastraBatch}, running
+ * {@link StandInTrackastra} with a prediction delay, first with one slot and
+ * no export ahead, then with two slots and one job exporting ahead. Results
+ * are printed as they complete.
+ */
+public class TrackastraBatchTestDrive
+{
+
+	private static final int N_MOVIES = 8;
+
+	public static void main( final String[] args ) throws IOException, InterruptedException
+	{
+		final List< String > standIn = StandInTrackastra.command( StandInTrackastra.DELAY, "2000" );
+		final Path scratch = Files.createTempDirectory( "TrackastraBatchTestDrive_" );
+		try
+		{
+			final List< Job > jobs = new ArrayList<>();
+			for ( int i = 0; i < N_MOVIES; i++ )
+			{
+				final ImagePlus imp = TrackastraSyntheticData.image( false, 50 );
+				final TrackastraCLI cli = new TrackastraCLI( 1 );
+				cli.scratchFolder().set( scratch.toString() );
+				jobs.add( new Job( "movie-" + i, TrackastraSyntheticData.spots( imp, 5000, 3., i ), imp, cli ) );
+			}
+
+			for ( final int[] config : new int[][] { { 1, 0 }, { 2, 1 } } )
+			{
+				final TrackastraBatch batch = new TrackastraBatch( config[ 0 ], config[ 1 ], Runtime.getRuntime().availableProcessors(), Logger.VOID_LOGGER )
+				{
+					@Override
+					protected TrackastraTracker createTracker( final Job job )
+					{
+						return new StandInTrackastraTracker( job.getCli(), job.getSpots(), job.getImp(), standIn );
+					}
+				};
+				final long start = System.currentTimeMillis();
+				batch.run( jobs, result -> System.out.println( "  " + result.getJob().getName() + " done after "
+						+ ( System.currentTimeMillis() - start ) + " ms" + ( result.isOk() ? "." : ": " + result.getErrorMessage() ) ) );
+				System.out.println( config[ 0 ] + " slots, " + config[ 1 ] + " exporting ahead: "
+						+ ( System.currentTimeMillis() - start ) + " ms for " + N_MOVIES + " movies." );
+			}
+		}
+		finally
+		{
+			FileUtils.deleteDirectory( scratch.toFile() );
+		}
+	}
+}
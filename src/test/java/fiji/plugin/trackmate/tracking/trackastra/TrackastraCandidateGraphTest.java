@@ -0,0 +1,209 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotBase;
+
+public class TrackastraCandidateGraphTest
+{
+
+	/**
+	 * Two spots in frame 0, three in frame 1. Candidates, in table order:
+	 * <ul>
+	 * <li>0:1 &rarr; 1:1, 0.9, accepted first.</li>
+	 * <li>0:2 &rarr; 1:2, 0.6, accepted: ties with the next row and comes
+	 * first in the table.</li>
+	 * <li>0:1 &rarr; 1:2, 0.6, rejected: 1:2 already has a parent.</li>
+	 * <li>0:2 &rarr; 1:3, NaN, skipped.</li>
+	 * <li>0:1 &rarr; 1:3, 0.5, accepted as a division of 0:1, rejected
+	 * without divisions.</li>
+	 * <li>0:2 &rarr; 1:1, 0.3, below the threshold.</li>
+	 * </ul>
+	 */
+	private static final String TABLE = "source_frame,source_label,target_frame,target_label,weight\n"
+			+ "0,1,1,1,0.9\n"
+			+ "0,2,1,2,0.6\n"
+			+ "0,1,1,2,0.6\n"
+			+ "0,2,1,3,nan\n"
+			+ "0,1,1,3,0.5\n"
+			+ "0,2,1,1,0.3\n";
+
+	private static final double THRESHOLD = 0.4;
+
+	private final Spot[] frame0 = new Spot[] { spot(), spot() };
+
+	private final Spot[] frame1 = new Spot[] { spot(), spot(), spot() };
+
+	@Test
+	public void testRead() throws IOException
+	{
+		assertEquals( 6, read( TABLE ).size() );
+	}
+
+	@Test
+	public void testGreedy() throws IOException
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final RecordingLogger logger = new RecordingLogger();
+		final int nAccepted = read( TABLE ).prune( TrackastraCLI.MODE_GREEDY, THRESHOLD, labels(), graph, logger );
+
+		assertEquals( 3, nAccepted );
+		assertEquals( 3, graph.edgeSet().size() );
+		assertEdge( graph, frame0[ 0 ], frame1[ 0 ], 0.9 );
+		assertEdge( graph, frame0[ 1 ], frame1[ 1 ], 0.6 );
+		assertEdge( graph, frame0[ 0 ], frame1[ 2 ], 0.5 );
+		assertNull( graph.getEdge( frame0[ 0 ], frame1[ 1 ] ) );
+		assertNull( graph.getEdge( frame0[ 1 ], frame1[ 2 ] ) );
+		assertNull( graph.getEdge( frame0[ 1 ], frame1[ 0 ] ) );
+		assertTrue( logger.text(), logger.text().contains( "Skipped 1 candidate edges with a non-finite score." ) );
+	}
+
+	@Test
+	public void testGreedyNoDivision() throws IOException
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final int nAccepted = read( TABLE ).prune( TrackastraCLI.MODE_GREEDY_NODIV, THRESHOLD, labels(), graph, new RecordingLogger() );
+
+		assertEquals( 2, nAccepted );
+		assertEquals( 2, graph.edgeSet().size() );
+		assertEdge( graph, frame0[ 0 ], frame1[ 0 ], 0.9 );
+		assertEdge( graph, frame0[ 1 ], frame1[ 1 ], 0.6 );
+		assertNull( graph.getEdge( frame0[ 0 ], frame1[ 2 ] ) );
+	}
+
+	@Test
+	public void testTiesKeepTableOrder() throws IOException
+	{
+		// Same candidates as the first two rows competing for 1:2, swapped.
+		final String table = "source_frame,source_label,target_frame,target_label,weight\n"
+				+ "0,1,1,2,0.6\n"
+				+ "0,2,1,2,0.6\n";
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final int nAccepted = read( table ).prune( TrackastraCLI.MODE_GREEDY, THRESHOLD, labels(), graph, new RecordingLogger() );
+
+		assertEquals( 1, nAccepted );
+		assertEdge( graph, frame0[ 0 ], frame1[ 1 ], 0.6 );
+		assertNull( graph.getEdge( frame0[ 1 ], frame1[ 1 ] ) );
+	}
+
+	@Test
+	public void testThresholdAboveAllScores() throws IOException
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final int nAccepted = read( TABLE ).prune( TrackastraCLI.MODE_GREEDY, 0.95, labels(), graph, new RecordingLogger() );
+
+		assertEquals( 0, nAccepted );
+		assertEquals( 0, graph.edgeSet().size() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testUnsupportedMode() throws IOException
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		read( TABLE ).prune( TrackastraCLI.MODE_ILP, THRESHOLD, labels(), graph, new RecordingLogger() );
+	}
+
+	private TrackastraLabelTable labels()
+	{
+		final TrackastraLabelTable labels = new TrackastraLabelTable( 2 );
+		labels.set( 0, 1, frame0 );
+		labels.set( 1, 1, frame1 );
+		return labels;
+	}
+
+	private static void assertEdge( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final Spot source, final Spot target, final double weight )
+	{
+		final DefaultWeightedEdge edge = graph.getEdge( source, target );
+		assertNotNull( edge );
+		assertEquals( weight, graph.getEdgeWeight( edge ), 0. );
+	}
+
+	private static Spot spot()
+	{
+		return new SpotBase( 0., 0., 0., 1., 1. );
+	}
+
+	private static TrackastraCandidateGraph read( final String content ) throws IOException
+	{
+		final Path file = Files.createTempFile( "TrackastraCandidateGraphTest_", ".csv" );
+		try
+		{
+			Files.write( file, content.getBytes( StandardCharsets.UTF_8 ) );
+			return TrackastraCandidateGraph.read( file );
+		}
+		finally
+		{
+			Files.deleteIfExists( file );
+		}
+	}
+
+	/**
+	 * Keeps the messages logged, to check the warnings.
+	 */
+	static class RecordingLogger extends Logger
+	{
+
+		private final StringBuilder str = new StringBuilder();
+
+		@Override
+		public void log( final String message, final Color color )
+		{
+			str.append( message );
+		}
+
+		@Override
+		public void error( final String message )
+		{
+			str.append( message );
+		}
+
+		@Override
+		public void setProgress( final double val )
+		{}
+
+		@Override
+		public void setStatus( final String status )
+		{}
+
+		String text()
+		{
+			return str.toString();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraTiffWriter.PixelFormat;
+import fiji.plugin.trackmate.tracking.trackastra.bench.TrackastraSyntheticData;
+import ij.ImagePlus;
+
+/**
+ * Writes the masks of synthetic movies as TIFF files, deflate-compressed and
+ * not, reads them back, and checks that every label value survived the round
+ * trip exactly.
+ */
+public class TrackastraCompressedMaskTest
+{
+
+	@Test
+	public void test16Bit2D() throws IOException
+	{
+		final ImagePlus imp = TrackastraSyntheticData.image( false, 3 );
+		assertEquals( PixelFormat.GRAY16, check( imp, 300, 5. ) );
+	}
+
+	@Test
+	public void test16Bit3D() throws IOException
+	{
+		final ImagePlus imp = TrackastraSyntheticData.image( true, 2 );
+		assertEquals( PixelFormat.GRAY16, check( imp, 200, 4. ) );
+	}
+
+	@Test
+	public void test32BitMoreThan65535Labels() throws IOException
+	{
+		final ImagePlus imp = TrackastraSyntheticData.image( false, 1 );
+		assertEquals( PixelFormat.GRAY32_UINT, check( imp, 70000, 1. ) );
+	}
+
+	/**
+	 * Paints, writes and reads back the masks of the specified spots, and
+	 * returns the pixel format they were written with.
+	 */
+	private static PixelFormat check( final ImagePlus imp, final int nSpots, final double radius ) throws IOException
+	{
+		final SpotCollection spots = TrackastraSyntheticData.spots( imp, nSpots, radius, 1L );
+		final TrackastraMaskExporter exporter = new TrackastraMaskExporter( spots, imp );
+		final Path folder = Files.createTempDirectory( "TrackastraCompressedMaskTest_" );
+		try
+		{
+			final TrackastraTiffFolder compressed = new TrackastraTiffFolder( folder.resolve( "compressed" ), "mask-t",
+					imp.getWidth(), imp.getHeight(), exporter.pixelFormat(), imp.getCalibration(), true );
+			final TrackastraTiffFolder raw = new TrackastraTiffFolder( folder.resolve( "raw" ), "mask-t",
+					imp.getWidth(), imp.getHeight(), exporter.pixelFormat(), imp.getCalibration(), false );
+			Files.createDirectories( compressed.location() );
+			Files.createDirectories( raw.location() );
+
+			int maxLabel = 0;
+			for ( int t = 1; t <= exporter.getNFrames(); t++ )
+			{
+				final List< Object > planes = exporter.paintPlanes( t - 1 );
+				final long compressedBytes = compressed.write( t, planes );
+				final long rawBytes = raw.write( t, planes );
+				assertTrue( "Compressed mask of frame " + t + " is not smaller.", compressedBytes < rawBytes );
+				maxLabel = Math.max( maxLabel, compare( t, planes, compressed.read( t ) ) );
+				compare( t, planes, raw.read( t ) );
+			}
+			if ( exporter.pixelFormat() == PixelFormat.GRAY32_UINT )
+				assertTrue( "Expected labels above 65535, the largest is " + maxLabel + ".", maxLabel > 65535 );
+			return exporter.pixelFormat();
+		}
+		finally
+		{
+			FileUtils.deleteDirectory( folder.toFile() );
+		}
+	}
+
+	/**
+	 * Compares the labels painted with the labels read back, and returns the
+	 * largest label. 32-bit masks are read by ImageJ as float, which holds
+	 * the labels exactly.
+	 */
+	private static int compare( final int t, final List< Object > expected, final List< Object > actual )
+	{
+		assertEquals( "Number of planes in frame " + t, expected.size(), actual.size() );
+
+		int maxLabel = 0;
+		for ( int z = 0; z < expected.size(); z++ )
+		{
+			final Object e = expected.get( z );
+			final Object a = actual.get( z );
+			final int n = ( e instanceof short[] ) ? ( ( short[] ) e ).length : ( ( int[] ) e ).length;
+			for ( int i = 0; i < n; i++ )
+			{
+				final int labelExpected = ( e instanceof short[] ) ? ( ( short[] ) e )[ i ] & 0xffff : ( ( int[] ) e )[ i ];
+				final int labelRead = ( a instanceof short[] ) ? ( ( short[] ) a )[ i ] & 0xffff : ( int ) ( ( float[] ) a )[ i ];
+				if ( labelExpected != labelRead )
+					assertEquals( "Frame " + t + ", plane " + ( z + 1 ) + ", pixel " + i, labelExpected, labelRead );
+				maxLabel = Math.max( maxLabel, labelExpected );
+			}
+		}
+		return maxLabel;
+	}
+}
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraEdgeTableReader.MalformedTableException;
+
+public class TrackastraEdgeTableReaderTest
+{
+
+	private static final String HEADER = "source_frame,source_label,target_frame,target_label,weight\n";
+
+	@Test
+	public void testRows() throws IOException
+	{
+		final List< double[] > rows = read( HEADER + "0,1,1,2,0.5\n1,3,2,4,1e-3\n" );
+		assertEquals( 2, rows.size() );
+		assertRow( rows.get( 0 ), 0, 1, 1, 2, 0.5 );
+		assertRow( rows.get( 1 ), 1, 3, 2, 4, 0.001 );
+	}
+
+	@Test
+	public void testNonFiniteWeights() throws IOException
+	{
+		final List< double[] > rows = read( HEADER + "0,1,1,1,nan\n0,2,1,2,NaN\n0,3,1,3,inf\n0,4,1,4,-inf\n0,5,1,5,Infinity\n" );
+		assertEquals( 5, rows.size() );
+		assertTrue( Double.isNaN( rows.get( 0 )[ 4 ] ) );
+		assertTrue( Double.isNaN( rows.get( 1 )[ 4 ] ) );
+		assertEquals( Double.POSITIVE_INFINITY, rows.get( 2 )[ 4 ], 0. );
+		assertEquals( Double.NEGATIVE_INFINITY, rows.get( 3 )[ 4 ], 0. );
+		assertEquals( Double.POSITIVE_INFINITY, rows.get( 4 )[ 4 ], 0. );
+	}
+
+	@Test
+	public void testQuotedAndPaddedFields() throws IOException
+	{
+		final List< double[] > rows = read( HEADER + " 1 , \"2\" ,3,4,0.5\r\n\" 5 \",6,\"7\",8,\"nan\"\n" );
+		assertEquals( 2, rows.size() );
+		assertRow( rows.get( 0 ), 1, 2, 3, 4, 0.5 );
+		assertRow( rows.get( 1 ), 5, 6, 7, 8, Double.NaN );
+	}
+
+	@Test
+	public void testBlankLinesAndExtraColumns() throws IOException
+	{
+		final List< double[] > rows = read( HEADER + "\n0,1,1,1,0.25,extra,columns\n   \n" );
+		assertEquals( 1, rows.size() );
+		assertRow( rows.get( 0 ), 0, 1, 1, 1, 0.25 );
+	}
+
+	@Test
+	public void testSpaceInsideField() throws IOException
+	{
+		assertMalformed( HEADER + "1 2,1,1,1,0.5\n", "Line 2" );
+	}
+
+	@Test
+	public void testQuoteInsideField() throws IOException
+	{
+		assertMalformed( HEADER + "2\"3,1,1,1,0.5\n", "Line 2" );
+	}
+
+	@Test
+	public void testUnclosedQuote() throws IOException
+	{
+		assertMalformed( HEADER + "0,1,1,1,0.5\n0,1,1,1,\"0.5\n", "Line 3" );
+	}
+
+	@Test
+	public void testMissingColumns() throws IOException
+	{
+		assertMalformed( HEADER + "0,1,1,0.5\n", "expected 5 columns, found 4" );
+	}
+
+	@Test
+	public void testNonIntegerLabel() throws IOException
+	{
+		assertMalformed( HEADER + "0,1.5,1,1,0.5\n", "Line 2" );
+		assertMalformed( HEADER + "0,nan,1,1,0.5\n", "Line 2" );
+	}
+
+	private static void assertRow( final double[] row, final int sf, final int sl, final int tf, final int tl, final double w )
+	{
+		assertEquals( sf, row[ 0 ], 0. );
+		assertEquals( sl, row[ 1 ], 0. );
+		assertEquals( tf, row[ 2 ], 0. );
+		assertEquals( tl, row[ 3 ], 0. );
+		assertEquals( w, row[ 4 ], 0. );
+	}
+
+	private static void assertMalformed( final String content, final String expected ) throws IOException
+	{
+		try
+		{
+			read( content );
+			fail( "Expected a MalformedTableException." );
+		}
+		catch ( final MalformedTableException e )
+		{
+			assertTrue( "Unexpected message: " + e.getMessage(), e.getMessage().contains( expected ) );
+		}
+	}
+
+	private static List< double[] > read( final String content ) throws IOException
+	{
+		final Path file = Files.createTempFile( "TrackastraEdgeTableReaderTest_", ".csv" );
+		try
+		{
+			Files.write( file, content.getBytes( StandardCharsets.UTF_8 ) );
+			final List< double[] > rows = new ArrayList<>();
+			final long n = TrackastraEdgeTableReader.read( file,
+					( sf, sl, tf, tl, w ) -> rows.add( new double[] { sf, sl, tf, tl, w } ) );
+			assertEquals( rows.size(), n );
+			return rows;
+		}
+		finally
+		{
+			Files.deleteIfExists( file );
+		}
+	}
+}
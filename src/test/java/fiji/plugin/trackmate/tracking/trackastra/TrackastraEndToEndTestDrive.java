@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.trackastra.bench.TrackastraSyntheticData;
+import ij.ImagePlus;
+
+/**
+ * Runs the whole tracking path, from export to import, with
+ * {@link StandInTrackastra} in place of Trackastra, on synthetic data. No
+ * Python, conda, network nor GPU is needed.
+ * <p>
+ * Latency is measured on a small movie, over several runs. Throughput is
+ * measured on larger 2D and 3D movies. The run report of each measure is
+ * printed. The optional argument is the prediction delay of the stand-in,
+ * in ms.
+ */
+public class TrackastraEndToEndTestDrive
+{
+
+	private static final int N_LATENCY_RUNS = 5;
+
+	public static void main( final String[] args ) throws IOException
+	{
+		final String delay = args.length > 0 ? args[ 0 ] : "0";
+		final List< String > standIn = StandInTrackastra.command( StandInTrackastra.DELAY, delay );
+		final Path scratch = Files.createTempDirectory( "TrackastraEndToEndTestDrive_" );
+		try
+		{
+			System.out.println( "Latency, 2D, 20 frames, 200 spots:" );
+			final ImagePlus small = TrackastraSyntheticData.image( false, 20 );
+			final SpotCollection smallSpots = TrackastraSyntheticData.spots( small, 200, 3., 1L );
+			final long[] times = new long[ N_LATENCY_RUNS ];
+			for ( int i = 0; i < N_LATENCY_RUNS; i++ )
+				times[ i ] = run( small, smallSpots, standIn, scratch, i == N_LATENCY_RUNS - 1 );
+			Arrays.sort( times );
+			System.out.println( String.format( "  min %d ms, median %d ms, max %d ms",
+					times[ 0 ], times[ N_LATENCY_RUNS / 2 ], times[ N_LATENCY_RUNS - 1 ] ) );
+
+			throughput( "2D, 100 frames, 20000 spots", TrackastraSyntheticData.image( false, 100 ), 20000, standIn, scratch );
+			throughput( "3D, 20 frames, 10000 spots", TrackastraSyntheticData.image( true, 20 ), 10000, standIn, scratch );
+		}
+		finally
+		{
+			FileUtils.deleteDirectory( scratch.toFile() );
+		}
+	}
+
+	private static void throughput( final String name, final ImagePlus imp, final int nSpots, final List< String > standIn, final Path scratch )
+	{
+		System.out.println( "Throughput, " + name + ":" );
+		final SpotCollection spots = TrackastraSyntheticData.spots( imp, nSpots, 3., 1L );
+		final long time = run( imp, spots, standIn, scratch, true );
+		System.out.println( String.format( "  %d ms, %.0f spots/s", time, nSpots / ( time / 1000. ) ) );
+	}
+
+	/**
+	 * Tracks the specified spots with the stand-in, and returns the wall
+	 * time of the run, in ms.
+	 */
+	private static long run( final ImagePlus imp, final SpotCollection spots, final List< String > standIn, final Path scratch, final boolean report )
+	{
+		final TrackastraCLI cli = new TrackastraCLI( imp.getNChannels() );
+		cli.exchangeFormat().set( TrackastraCLI.EXCHANGE_FORMAT_TIFF );
+		cli.scratchFolder().set( scratch.toString() );
+		final TrackastraTracker tracker = new StandInTrackastraTracker( cli, spots, imp, standIn );
+		tracker.setLogger( report ? Logger.DEFAULT_LOGGER : Logger.VOID_LOGGER );
+
+		final long start = System.currentTimeMillis();
+		if ( !tracker.process() )
+			throw new IllegalStateException( tracker.getErrorMessage() );
+		final long time = System.currentTimeMillis() - start;
+
+		if ( report )
+		{
+			System.out.println( "  " + tracker.getResult().edgeSet().size() + " links." );
+			System.out.print( tracker.getRunReport().toJson() );
+		}
+		return time;
+	}
+}
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotBase;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraCandidateGraphTest.RecordingLogger;
+
+public class TrackastraGraphBuilderTest
+{
+
+	@Test
+	public void testSkipCounters()
+	{
+		// Frame 0 has labels 1 and 2, frame 1 has label 1, frame 2 has no spot.
+		final Spot[] frame0 = new Spot[] { spot(), spot() };
+		final Spot[] frame1 = new Spot[] { spot() };
+		final TrackastraLabelTable labels = new TrackastraLabelTable( 3 );
+		labels.set( 0, 1, frame0 );
+		labels.set( 1, 1, frame1 );
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final TrackastraGraphBuilder builder = new TrackastraGraphBuilder( labels, graph );
+		assertTrue( builder.add( 0, 1, 1, 1, 0.8 ) );
+		assertFalse( builder.add( 1, 1, 2, 1, 0.7 ) );
+		assertFalse( builder.add( 0, 5, 1, 1, 0.6 ) );
+		assertFalse( builder.add( 0, 2, 1, 7, 0.5 ) );
+		assertFalse( builder.add( 0, 1, 1, 0, 0.4 ) );
+
+		assertEquals( 4, builder.nSkipped() );
+		assertEquals( 1, builder.build() );
+		assertEquals( 1, graph.edgeSet().size() );
+		final DefaultWeightedEdge edge = graph.getEdge( frame0[ 0 ], frame1[ 0 ] );
+		assertNotNull( edge );
+		assertEquals( 0.8, graph.getEdgeWeight( edge ), 0. );
+
+		final RecordingLogger logger = new RecordingLogger();
+		builder.report( logger );
+		final String report = logger.text();
+		assertTrue( report, report.contains( "Skipped 4 rows out of 5:" ) );
+		assertTrue( report, report.contains( " - 1 with no spot in their frame." ) );
+		assertTrue( report, report.contains( " - 1 with no spot matching their source label." ) );
+		assertTrue( report, report.contains( " - 2 with no spot matching their target label." ) );
+		assertTrue( report, report.contains( "no spot in frame 2" ) );
+	}
+
+	@Test
+	public void testEmptyFrameIsMissing()
+	{
+		// Frame 1 was recorded, but has no spot.
+		final TrackastraLabelTable labels = new TrackastraLabelTable( 2 );
+		labels.set( 0, 1, new Spot[] { spot() } );
+		labels.set( 1, 1, new Spot[ 0 ] );
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final TrackastraGraphBuilder builder = new TrackastraGraphBuilder( labels, graph );
+		assertFalse( builder.add( 0, 1, 1, 1, 0.9 ) );
+		assertFalse( builder.add( 1, 1, 0, 1, 0.9 ) );
+		assertEquals( 0, builder.build() );
+
+		final RecordingLogger logger = new RecordingLogger();
+		builder.report( logger );
+		final String report = logger.text();
+		assertTrue( report, report.contains( " - 2 with no spot in their frame." ) );
+		assertFalse( report, report.contains( "label" ) );
+	}
+
+	@Test
+	public void testNoSkippedRowNoReport()
+	{
+		final Spot[] frame0 = new Spot[] { spot() };
+		final Spot[] frame1 = new Spot[] { spot() };
+		final TrackastraLabelTable labels = new TrackastraLabelTable( 2 );
+		labels.set( 0, 1, frame0 );
+		labels.set( 1, 1, frame1 );
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final TrackastraGraphBuilder builder = new TrackastraGraphBuilder( labels, graph );
+		assertTrue( builder.add( 0, 1, 1, 1, 1. ) );
+		assertEquals( 0, builder.nSkipped() );
+		assertEquals( 1, builder.build() );
+
+		final RecordingLogger logger = new RecordingLogger();
+		builder.report( logger );
+		assertEquals( "", logger.text() );
+	}
+
+	@Test
+	public void testSeveralBatches()
+	{
+		// More rows than a batch holds, plus one skipped row per batch.
+		final int n = 10_000;
+		final Spot[] frame0 = new Spot[ n ];
+		final Spot[] frame1 = new Spot[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			frame0[ i ] = spot();
+			frame1[ i ] = spot();
+		}
+		final TrackastraLabelTable labels = new TrackastraLabelTable( 2 );
+		labels.set( 0, 1, frame0 );
+		labels.set( 1, 1, frame1 );
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final TrackastraGraphBuilder builder = new TrackastraGraphBuilder( labels, graph );
+		int nSkipped = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			assertTrue( builder.add( 0, i + 1, 1, i + 1, i ) );
+			if ( i % 4000 == 0 )
+			{
+				assertFalse( builder.add( 0, n + 1, 1, 1, 0. ) );
+				nSkipped++;
+			}
+		}
+
+		assertEquals( nSkipped, builder.nSkipped() );
+		assertEquals( n, builder.build() );
+		assertEquals( n, graph.edgeSet().size() );
+		assertEquals( 2 * n, graph.vertexSet().size() );
+		assertEquals( n - 1., graph.getEdgeWeight( graph.getEdge( frame0[ n - 1 ], frame1[ n - 1 ] ) ), 0. );
+	}
+
+	private static Spot spot()
+	{
+		return new SpotBase( 0., 0., 0., 1., 1. );
+	}
+}
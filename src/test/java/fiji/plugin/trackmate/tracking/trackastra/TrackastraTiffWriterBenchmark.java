@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.plugin.Duplicator;
+
+/**
+ * Compares the time and the allocations needed to write the frames of a
+ * movie with {@link TrackastraTiffWriter}, against the
+ * {@link Duplicator} + {@link IJ#saveAsTiff(ImagePlus, String)} path, on 2D
+ * and 3D data.
+ */
+public class TrackastraTiffWriterBenchmark
+{
+
+	private static final int N_RUNS = 5;
+
+	public static void main( final String[] args ) throws IOException
+	{
+		final ImagePlus imp2D = IJ.createImage( "bench2D", "16-bit ramp", 1024, 1024, 1, 1, 100 );
+		final ImagePlus imp3D = IJ.createImage( "bench3D", "16-bit ramp", 512, 512, 1, 32, 20 );
+
+		for ( final ImagePlus imp : new ImagePlus[] { imp2D, imp3D } )
+		{
+			System.out.println( "Image " + imp.getTitle() + ": "
+					+ imp.getWidth() + " x " + imp.getHeight() + " x " + imp.getNSlices() + " x " + imp.getNFrames() );
+			// Warm up.
+			run( imp, false );
+			run( imp, true );
+			report( "  Duplicator + IJ.saveAsTiff", imp, false );
+			report( "  TrackastraTiffWriter       ", imp, true );
+		}
+	}
+
+	private static void report( final String name, final ImagePlus imp, final boolean direct ) throws IOException
+	{
+		long time = 0;
+		long allocated = 0;
+		for ( int i = 0; i < N_RUNS; i++ )
+		{
+			final long[] r = run( imp, direct );
+			time += r[ 0 ];
+			allocated += r[ 1 ];
+		}
+		final double mb = ( double ) imp.getWidth() * imp.getHeight() * imp.getStackSize() * 2 / 1024. / 1024.;
+		System.out.println( String.format( "%s: %6.0f ms, %7.1f MB/s, %8.1f MB allocated",
+				name, ( double ) time / N_RUNS, mb * N_RUNS / ( time / 1000. ), allocated / N_RUNS / 1024. / 1024. ) );
+	}
+
+	private static long[] run( final ImagePlus imp, final boolean direct ) throws IOException
+	{
+		final Path folder = Files.createTempDirectory( "TrackastraTiffWriterBenchmark_" );
+		try
+		{
+			final long allocatedBefore = allocatedBytes();
+			final long start = System.currentTimeMillis();
+			for ( int t = 1; t <= imp.getNFrames(); t++ )
+			{
+				final String name = String.format( "%s-img-t%04d.tif", imp.getShortTitle(), t );
+				if ( direct )
+				{
+					TrackastraTiffWriter.write( folder.resolve( name ), imp, 1, t );
+				}
+				else
+				{
+					final ImagePlus dup = new Duplicator().run( imp, 1, 1, 1, imp.getNSlices(), t, t );
+					IJ.saveAsTiff( dup, folder.toString() + File.separator + name );
+				}
+			}
+			final long end = System.currentTimeMillis();
+			return new long[] { end - start, allocatedBytes() - allocatedBefore };
+		}
+		finally
+		{
+			FileUtils.deleteDirectory( folder.toFile() );
+		}
+	}
+
+	private static long allocatedBytes()
+	{
+		return ( ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean() ).getCurrentThreadAllocatedBytes();
+	}
+}
@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Logger;
+
+/**
+ * Exercises the {@link TrackastraWorker} protocol with
+ * {@link StubTrackastraWorker}, without Python. The first job pays for the
+ * model loading, the next ones do not. After the idle timeout, the worker is
+ * shut down and restarted by the next job.
+ */
+public class TrackastraWorkerTestDrive
+{
+
+	public static void main( final String[] args ) throws IOException, InterruptedException
+	{
+		final String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+		final List< String > command = Arrays.asList( java,
+				"-cp", System.getProperty( "java.class.path" ),
+				StubTrackastraWorker.class.getName(), "2000" );
+		final long idleTimeout = 3;
+		final TrackastraWorker worker = TrackastraWorker.get( command, Collections.emptyMap(), idleTimeout );
+
+		final Path folder = Files.createTempDirectory( "TrackastraWorkerTestDrive_" );
+		for ( int i = 0; i < 4; i++ )
+		{
+			if ( i == 3 )
+			{
+				System.out.println( "Waiting for the idle timeout." );
+				Thread.sleep( 2 * idleTimeout * 1000 );
+			}
+			final Map< String, String > job = new LinkedHashMap<>();
+			job.put( "imgs", folder.toString() );
+			job.put( "masks", folder.toString() );
+			job.put( "output_edge_table", folder.resolve( "edges-" + i + ".csv" ).toString() );
+			job.put( "mode", "greedy" );
+
+			final long start = System.currentTimeMillis();
+			worker.run( job, Logger.DEFAULT_LOGGER );
+			final long end = System.currentTimeMillis();
+			System.out.println( "Job " + i + " done in " + ( end - start ) + " ms." );
+		}
+		TrackastraWorker.shutdownAll();
+	}
+}
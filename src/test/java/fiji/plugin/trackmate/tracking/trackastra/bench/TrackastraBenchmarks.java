@@ -0,0 +1,52 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of the Java side of the Trackastra pipeline, on
+ * synthetic data. No Python nor conda installation is needed.
+ * <p>
+ * Allocation rates are reported by the GC profiler. The usual JMH command
+ * line options can be passed as arguments, for instance
+ * <code>-p nSpots=10000 TrackastraImport</code> to run only the import
+ * benchmarks on 10,000 spots.
+ */
+public class TrackastraBenchmarks
+{
+
+	public static void main( final String[] args ) throws RunnerException, CommandLineOptionException
+	{
+		final CommandLineOptions cli = new CommandLineOptions( args );
+		final OptionsBuilder options = new OptionsBuilder();
+		options.parent( cli ).addProfiler( GCProfiler.class );
+		if ( args.length == 0 )
+			options.include( TrackastraBenchmarks.class.getPackage().getName() + ".*Benchmark" );
+		new Runner( options.build() ).run();
+	}
+}
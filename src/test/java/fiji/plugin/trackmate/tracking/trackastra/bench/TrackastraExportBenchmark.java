@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraCLI;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraMaskExporter;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraTracker;
+import ij.ImagePlus;
+
+/**
+ * Measures the creation of the label images and the export of the masks and
+ * of the source image, on synthetic 2D and 3D data.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx8g" } )
+public class TrackastraExportBenchmark
+{
+
+	@Param( { "2D", "3D" } )
+	public String dims;
+
+	@Param( { "100", "10000", "1000000" } )
+	public int nSpots;
+
+	@Param( { "50" } )
+	public int nFrames;
+
+	private ImagePlus imp;
+
+	private SpotCollection spots;
+
+	private TrackastraTracker tracker;
+
+	private Path folder;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException
+	{
+		imp = TrackastraSyntheticData.image( "3D".equals( dims ), nFrames );
+		spots = TrackastraSyntheticData.spots( imp, nSpots, 3., 1L );
+		tracker = new TrackastraTracker( new TrackastraCLI( 1 ), spots, imp );
+		folder = Files.createTempDirectory( "TrackastraExportBenchmark_" );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() throws IOException
+	{
+		FileUtils.deleteDirectory( folder.toFile() );
+	}
+
+	/**
+	 * Paints the label image of each frame, in memory.
+	 */
+	@Benchmark
+	public void paintMasks( final Blackhole bh )
+	{
+		final TrackastraMaskExporter exporter = new TrackastraMaskExporter( spots, imp );
+		for ( int t = 0; t < exporter.getNFrames(); t++ )
+			bh.consume( exporter.paint( t, "mask" ) );
+	}
+
+	/**
+	 * Records the table of frame and label to spot, without painting.
+	 */
+	@Benchmark
+	public Object labelTable()
+	{
+		return new TrackastraMaskExporter( spots, imp ).labelTable();
+	}
+
+	/**
+	 * Paints and writes the masks as TIFF files, one per frame.
+	 */
+	@Benchmark
+	public boolean writeMasks()
+	{
+		return tracker.writeMasks( new TrackastraMaskExporter( spots, imp ), folder.toString() );
+	}
+
+	/**
+	 * Writes the source image as TIFF files, one per frame. Does not depend
+	 * on the number of spots.
+	 */
+	@Benchmark
+	public boolean writeStackList()
+	{
+		return tracker.writeStackList( imp, 1, folder.toString(), "-img-t" );
+	}
+}
@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraEdgeTableReader;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraImporter;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraLabelTable;
+import fiji.plugin.trackmate.tracking.trackastra.TrackastraMaskExporter;
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.ImagePlus;
+import net.imagej.ImgPlus;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * Measures the import of a Trackastra edge table: parsing alone, parsing and
+ * graph construction with the label table recorded at export, and with the
+ * labels mapped back to spots from the mask pixels.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx8g" } )
+public class TrackastraImportBenchmark
+{
+
+	@Param( { "2D", "3D" } )
+	public String dims;
+
+	@Param( { "100", "10000", "1000000" } )
+	public int nSpots;
+
+	@Param( { "50" } )
+	public int nFrames;
+
+	private SpotCollection spots;
+
+	private Path folder;
+
+	private Path edges;
+
+	private TrackastraLabelTable labels;
+
+	private List< ImgPlus< UnsignedShortType > > masks;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException
+	{
+		final ImagePlus imp = TrackastraSyntheticData.image( "3D".equals( dims ), nFrames );
+		spots = TrackastraSyntheticData.spots( imp, nSpots, 3., 1L );
+		folder = Files.createTempDirectory( "TrackastraImportBenchmark_" );
+		edges = folder.resolve( "trackastra-edge-table.csv" );
+		TrackastraSyntheticData.edgeTable( edges, spots, nFrames, 1L );
+
+		final TrackastraMaskExporter exporter = new TrackastraMaskExporter( spots, imp );
+		masks = new ArrayList<>( nFrames );
+		for ( int t = 0; t < nFrames; t++ )
+		{
+			@SuppressWarnings( "unchecked" )
+			final ImgPlus< UnsignedShortType > mask = TMUtils.rawWraps( exporter.paint( t, "mask" ) );
+			masks.add( mask );
+		}
+		labels = exporter.labelTable();
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists( edges );
+		Files.deleteIfExists( folder );
+	}
+
+	/**
+	 * Parses the edge table, without resolving the labels.
+	 */
+	@Benchmark
+	public double parseEdgeTable() throws IOException
+	{
+		final double[] sum = new double[ 1 ];
+		TrackastraEdgeTableReader.read( edges, ( sf, sl, tf, tl, w ) -> sum[ 0 ] += w );
+		return sum[ 0 ];
+	}
+
+	/**
+	 * Parses the edge table and builds the graph, with the label table
+	 * recorded when the masks were painted.
+	 */
+	@Benchmark
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > importWithLabelTable() throws IOException
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		TrackastraImporter.importEdges( edges, labels, graph, Logger.VOID_LOGGER );
+		return graph;
+	}
+
+	/**
+	 * Maps the labels back to spots from the mask pixels, then parses the
+	 * edge table and builds the graph.
+	 */
+	@Benchmark
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > importWithMasks() throws IOException
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		TrackastraImporter.importEdges( edges, spots, masks::get, graph, Logger.VOID_LOGGER );
+		return graph;
+	}
+}
@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2024 - 2025 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.trackastra.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotBase;
+import fiji.plugin.trackmate.SpotCollection;
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Generates the synthetic data the benchmarks run on: images, spots and
+ * Trackastra edge tables, so that no Trackastra installation and no sample
+ * file is needed.
+ */
+public class TrackastraSyntheticData
+{
+
+	private TrackastraSyntheticData()
+	{}
+
+	/**
+	 * Creates a 16-bit, single-channel image.
+	 *
+	 * @param threeD
+	 *            whether to create a 3D image, or a 2D one.
+	 * @param nT
+	 *            the number of frames.
+	 * @return a new image.
+	 */
+	public static ImagePlus image( final boolean threeD, final int nT )
+	{
+		return threeD
+				? IJ.createImage( "synthetic3D", "16-bit ramp", 256, 256, 1, 16, nT )
+				: IJ.createImage( "synthetic2D", "16-bit ramp", 512, 512, 1, 1, nT );
+	}
+
+	/**
+	 * Creates spots at random positions in the specified image, spread
+	 * evenly over its frames. Calibration is ignored: positions are in
+	 * pixels.
+	 *
+	 * @param imp
+	 *            the image the spots are in.
+	 * @param nSpots
+	 *            the total number of spots.
+	 * @param radius
+	 *            the radius of the spots, in pixels.
+	 * @param seed
+	 *            the seed of the random generator.
+	 * @return a new spot collection.
+	 */
+	public static SpotCollection spots( final ImagePlus imp, final int nSpots, final double radius, final long seed )
+	{
+		final Random random = new Random( seed );
+		final int nT = imp.getNFrames();
+		final boolean threeD = imp.getNSlices() > 1;
+		final SpotCollection spots = new SpotCollection();
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final double x = radius + random.nextDouble() * ( imp.getWidth() - 2 * radius );
+			final double y = radius + random.nextDouble() * ( imp.getHeight() - 2 * radius );
+			final double z = threeD ? radius + random.nextDouble() * ( imp.getNSlices() - 2 * radius ) : 0.;
+			final Spot spot = new SpotBase( x, y, z, radius, 1. );
+			spots.add( spot, Integer.valueOf( i % nT ) );
+		}
+		spots.setVisible( true );
+		return spots;
+	}
+
+	/**
+	 * Writes a Trackastra edge table linking each spot to the spot with the
+	 * same index in the next frame, with a random weight. Labels are numbered
+	 * like {@link fiji.plugin.trackmate.tracking.trackastra.TrackastraMaskExporter}
+	 * paints them: per frame, from 1, in the iteration order of the spot
+	 * collection.
+	 *
+	 * @param file
+	 *            the file to write.
+	 * @param spots
+	 *            the spots to link.
+	 * @param nT
+	 *            the number of frames.
+	 * @param seed
+	 *            the seed of the random generator.
+	 * @return the number of edges written.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static long edgeTable( final Path file, final SpotCollection spots, final int nT, final long seed ) throws IOException
+	{
+		final Random random = new Random( seed );
+		long nEdges = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter( file, StandardCharsets.UTF_8 ))
+		{
+			writer.write( "source_frame,source_label,target_frame,target_label,weight\n" );
+			for ( int t = 0; t < nT - 1; t++ )
+			{
+				final int n = spots.getNSpots( t, false );
+				final int nNext = spots.getNSpots( t + 1, false );
+				for ( int i = 0; i < Math.min( n, nNext ); i++ )
+				{
+					writer.write( t + "," + ( i + 1 ) + "," + ( t + 1 ) + "," + ( i + 1 ) + ","
+							+ random.nextDouble() + "\n" );
+					nEdges++;
+				}
+			}
+		}
+		return nEdges;
+	}
+}